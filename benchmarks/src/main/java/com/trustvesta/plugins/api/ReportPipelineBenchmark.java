@@ -0,0 +1,118 @@
+/**
+ * ReportPipelineBenchmark.java
+ * 
+ * JMH benchmarks for the JiraRequest report stages, run against a SyntheticJiraClient.  The class
+ * lives in the plugin's api package because the stages are package-private.
+ * 
+ * parseSubtaskQuery() covers search paging, stream parsing and the worklog filter.  buildIssueReport()
+ * adds the Epic/Initiative lookups (answered by the warm IssueHierarchyCache after the first call)
+ * and the rollup.  formatCSV() writes the finished report's story rows to a counting Writer.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import com.trustvesta.plugins.bench.DirectJiraExecutor;
+import com.trustvesta.plugins.bench.SyntheticJira;
+import com.trustvesta.plugins.bench.SyntheticJiraClient;
+import com.trustvesta.plugins.impl.FragmentCacheImpl;
+import com.trustvesta.plugins.impl.IssueHierarchyCacheImpl;
+import com.trustvesta.plugins.impl.IssueStatusCacheImpl;
+import com.trustvesta.plugins.impl.JiraMetricsImpl;
+import com.trustvesta.plugins.impl.JiraSettingsImpl;
+import com.trustvesta.plugins.report.CsvWriter;
+import com.trustvesta.plugins.report.ReportModel;
+import com.trustvesta.plugins.report.ReportRollup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms2g", "-Xmx2g" })
+public class ReportPipelineBenchmark {
+
+    private static final ReportProgress NO_PROGRESS = new ReportProgress() {
+        public void stage(String stage, int percent) { }
+    };
+
+    @Param({ "10000", "100000", "500000" })
+    public int worklogs;
+
+    private JiraRequest jiraRequest;
+    private String jql;
+    private ReportModel report;
+
+    @Setup
+    public void setUp() throws Exception {
+        SyntheticJira jira = new SyntheticJira(worklogs);
+        JiraSettings settings = new JiraSettingsImpl(null);
+        IssueHierarchyCacheImpl hierarchyCache = new IssueHierarchyCacheImpl(settings);
+        IssueStatusCacheImpl statusCache = new IssueStatusCacheImpl(settings);
+        jiraRequest = new JiraRequest(new SyntheticJiraClient(jira, settings.getSearchPageSize()), settings,
+                new DirectJiraExecutor(), hierarchyCache, statusCache, null, null,
+                new JiraMetricsImpl(hierarchyCache, statusCache, new FragmentCacheImpl(settings), null), null, null, null);
+        jql = JiraRequest.SUBTASK_JQL + " and worklogDate >= " + SyntheticJira.START_DATE
+                + " and worklogDate <= " + SyntheticJira.END_DATE;
+        report = jiraRequest.buildIssueReport(SyntheticJira.START_DATE, SyntheticJira.END_DATE, NO_PROGRESS);
+    }
+
+    @Benchmark
+    public ReportModel parseSubtaskQuery() throws Exception {
+        return jiraRequest.parseSubtaskQuery(jql, SyntheticJira.START_DATE, SyntheticJira.END_DATE);
+    }
+
+    @Benchmark
+    public ReportModel buildIssueReport() throws Exception {
+        return jiraRequest.buildIssueReport(SyntheticJira.START_DATE, SyntheticJira.END_DATE, NO_PROGRESS);
+    }
+
+    @Benchmark
+    public long formatCSV() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        jiraRequest.formatCSV(report, ReportRollup.GroupBy.STORY, new CsvWriter(writer));
+        return writer.count;
+    }
+
+    /**
+     * Writer that only counts what it is given, standing in for the HTTP response.
+     */
+    private static class CountingWriter extends Writer {
+        long count;
+
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        public void write(int c) {
+            count++;
+        }
+
+        public void write(String value, int offset, int length) {
+            count += length;
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    }
+}
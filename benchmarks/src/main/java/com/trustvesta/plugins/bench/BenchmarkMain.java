@@ -0,0 +1,28 @@
+/**
+ * BenchmarkMain.java
+ * 
+ * Entry point of benchmarks.jar.  Runs the JMH benchmarks with the GC profiler attached, so every
+ * result reports the allocation rate (gc.alloc.rate.norm, bytes per operation) alongside ops/s.
+ * Command line arguments are passed on to JMH, e.g. a benchmark regex or -p worklogs=500000.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
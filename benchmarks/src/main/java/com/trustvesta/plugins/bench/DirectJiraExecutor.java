@@ -0,0 +1,31 @@
+/**
+ * DirectJiraExecutor.java
+ * 
+ * JiraExecutor running every task on the calling thread, so a benchmark measures the work itself
+ * rather than thread hand-off.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.bench;
+
+import com.trustvesta.plugins.api.JiraExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+public class DirectJiraExecutor implements JiraExecutor {
+
+    public <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<T>(tasks.size());
+        for (Callable<T> task : tasks) {
+            try {
+                results.add(task.call());
+            } catch (Exception e) {
+                results.add(null);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * ReportEngineBenchmark.java
+ * 
+ * JMH benchmarks for the report engines that do not need JIRA: the streaming search page parser,
+ * the epoch-day worklog filter (with the SimpleDateFormat filter it replaced as a baseline) and the
+ * group-by rollup.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.bench;
+
+import com.trustvesta.plugins.report.ReportModel;
+import com.trustvesta.plugins.report.ReportRollup;
+import com.trustvesta.plugins.report.ReportRow;
+import com.trustvesta.plugins.report.SearchPageParser;
+import com.trustvesta.plugins.report.SubtaskRecord;
+import com.trustvesta.plugins.report.WorklogFilter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms2g", "-Xmx2g" })
+public class ReportEngineBenchmark {
+
+    @Param({ "10000", "100000", "500000" })
+    public int worklogs;
+
+    private List<String> pages;
+    private List<SubtaskRecord> records;
+    private String[] started;
+    private int[] seconds;
+    private ReportModel subtaskModel;
+    private int startDay;
+    private int endDay;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticJira jira = new SyntheticJira(worklogs);
+        pages = jira.searchPages(100);
+
+        records = new ArrayList<SubtaskRecord>(jira.getSubtaskCount());
+        for (String page : pages) {
+            SearchPageParser.parse(new StringReader(page), new SearchPageParser.IssueHandler() {
+                public void issue(SubtaskRecord record) {
+                    records.add(record);
+                }
+            });
+        }
+
+        started = new String[jira.getWorklogCount()];
+        seconds = new int[jira.getWorklogCount()];
+        for (int i=0; i<started.length; i++) {
+            started[i] = SyntheticJira.started((i * 7) % 90);
+            seconds[i] = 900 + (i % 4) * 900;
+        }
+
+        // Mid-quarter range so the filter both keeps and drops entries.
+        startDay = WorklogFilter.epochDay("2018-02-01");
+        endDay = WorklogFilter.epochDay("2018-02-28");
+
+        subtaskModel = new ReportModel();
+        for (SubtaskRecord record : records) {
+            ReportRow row = subtaskModel.addRow(record.getParentKey(), record.getFixVersion(),
+                    WorklogFilter.sumInRange(record, startDay, endDay));
+            int story = Integer.parseInt(record.getParentKey().substring("STORY-".length()));
+            int epic = story / SyntheticJira.STORIES_PER_EPIC;
+            row.setEpicKey(subtaskModel.intern("EPIC-" + epic));
+            row.setInitiativeKey(subtaskModel.intern("INIT-" + (epic / SyntheticJira.EPICS_PER_INITIATIVE)));
+        }
+    }
+
+    @Benchmark
+    public int parseSearchPages() throws IOException {
+        final int[] worklogCount = new int[1];
+        for (String page : pages) {
+            SearchPageParser.parse(new StringReader(page), new SearchPageParser.IssueHandler() {
+                public void issue(SubtaskRecord record) {
+                    worklogCount[0] += record.getWorklogCount();
+                }
+            });
+        }
+        return worklogCount[0];
+    }
+
+    @Benchmark
+    public long worklogFilter() {
+        long total = 0;
+        for (SubtaskRecord record : records) {
+            total += WorklogFilter.sumInRange(record, startDay, endDay);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long epochDayParse() {
+        long total = 0;
+        for (String value : started) {
+            total += WorklogFilter.epochDay(value);
+        }
+        return total;
+    }
+
+    /**
+     * The substring + SimpleDateFormat + exclusive Date comparison the report used before
+     * WorklogFilter, kept as a baseline for worklogFilter() and epochDayParse().
+     */
+    @Benchmark
+    public long legacyDateFilter() throws ParseException {
+        DateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd");
+        Date formattedStartDate = dateFormatter.parse("2018-02-01");
+        Date formattedEndDate = dateFormatter.parse("2018-02-28");
+        long total = 0;
+        for (int i=0; i<started.length; i++) {
+            Date formattedStarted = dateFormatter.parse(started[i].substring(0, 10));
+            if (formattedStarted.after(formattedStartDate) && formattedStarted.before(formattedEndDate)) {
+                total += seconds[i];
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public void rollup(Blackhole blackhole) {
+        ReportRollup rollup = ReportRollup.aggregate(subtaskModel);
+        for (ReportRollup.GroupBy groupBy : ReportRollup.GroupBy.values()) {
+            blackhole.consume(rollup.getRows(groupBy));
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * SyntheticJira.java
+ * 
+ * Generates JIRA search pages and issue documents in memory for the benchmarks.  The data is shaped
+ * like the report's real input: sub-tasks with 20 worklogs each spread over the first quarter of
+ * 2018, 4 sub-tasks per story, 10 stories per Epic and 5 Epics per Initiative.  Each issue also
+ * carries the noise JIRA sends (ids, self links, authors, comments) so the parser has to skip it.
+ * 
+ * Search pages can embed fewer worklogs than each sub-task has, the way JIRA truncates long worklogs,
+ * in which case the rest are served by worklogPage().  The same settings always give the same data.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SyntheticJira {
+
+    public static final String START_DATE = "2018-01-01";
+    public static final String END_DATE = "2018-03-31";
+
+    public static final int WORKLOGS_PER_SUBTASK = 20;
+    public static final int SUBTASKS_PER_STORY = 4;
+    public static final int STORIES_PER_EPIC = 10;
+    public static final int EPICS_PER_INITIATIVE = 5;
+    public static final int FIX_VERSIONS = 7;
+
+    private static final int[] DAYS_IN_MONTH = { 31, 28, 31 };
+
+    private final int subtaskCount;
+    private final int embeddedWorklogs;
+
+    public SyntheticJira(int worklogs) {
+        this(worklogs, WORKLOGS_PER_SUBTASK);
+    }
+
+    /**
+     * SyntheticJira() constructor.
+     * 
+     * @param worklogs total worklog entries across all sub-tasks
+     * @param embeddedWorklogs worklog entries embedded per sub-task in search pages, at most
+     *        WORKLOGS_PER_SUBTASK
+     * 
+     */
+    public SyntheticJira(int worklogs, int embeddedWorklogs) {
+        this.subtaskCount = Math.max(1, worklogs / WORKLOGS_PER_SUBTASK);
+        this.embeddedWorklogs = Math.max(0, Math.min(embeddedWorklogs, WORKLOGS_PER_SUBTASK));
+    }
+
+    public int getSubtaskCount() {
+        return subtaskCount;
+    }
+
+    public int getWorklogCount() {
+        return subtaskCount * WORKLOGS_PER_SUBTASK;
+    }
+
+    /**
+     * searchPages()
+     * 
+     * Every page of the sub-task search, pageSize issues per page.
+     * 
+     * @param pageSize
+     * @return List of JSON page bodies in startAt order.
+     * 
+     */
+    public List<String> searchPages(int pageSize) {
+        List<String> pages = new ArrayList<String>();
+        for (int startAt=0; startAt<subtaskCount; startAt+=pageSize) {
+            pages.add(searchPage(startAt, pageSize));
+        }
+        return pages;
+    }
+
+    /**
+     * searchPage()
+     * 
+     * One page of the sub-task search, as /rest/api/latest/search returns it.
+     * 
+     * @param startAt
+     * @param maxResults
+     * @return String holding the page JSON.
+     * 
+     */
+    public String searchPage(int startAt, int maxResults) {
+        StringBuilder page = new StringBuilder(maxResults * 3000);
+        page.append("{\"expand\":\"names,schema\",\"startAt\":").append(startAt)
+                .append(",\"maxResults\":").append(maxResults)
+                .append(",\"total\":").append(subtaskCount)
+                .append(",\"issues\":[");
+        int end = Math.min(subtaskCount, startAt + maxResults);
+        for (int i=startAt; i<end; i++) {
+            if (i > startAt) {
+                page.append(',');
+            }
+            appendSubtask(page, i);
+        }
+        return page.append("]}").toString();
+    }
+
+    /**
+     * keySearchPage()
+     * 
+     * The single search page a "key in (...)" search for sub-task keys returns.  Unknown keys are
+     * left out, as JIRA does.
+     * 
+     * @param issueKeys
+     * @return String holding the page JSON.
+     * 
+     */
+    public String keySearchPage(List<String> issueKeys) {
+        StringBuilder issues = new StringBuilder();
+        int count = 0;
+        for (String issueKey : issueKeys) {
+            int i = number(issueKey, "SUB-");
+            if (i < 0 || i >= subtaskCount) {
+                continue;
+            }
+            if (count++ > 0) {
+                issues.append(',');
+            }
+            appendSubtask(issues, i);
+        }
+        return "{\"startAt\":0,\"maxResults\":" + Math.max(count, 1) + ",\"total\":" + count
+                + ",\"issues\":[" + issues + "]}";
+    }
+
+    /**
+     * worklogPage()
+     * 
+     * One page of /rest/api/2/issue/{key}/worklog for a sub-task.
+     * 
+     * @param issueKey
+     * @param startAt
+     * @param maxResults
+     * @return String holding the page JSON, or null for an unknown key.
+     * 
+     */
+    public String worklogPage(String issueKey, int startAt, int maxResults) {
+        int i = number(issueKey, "SUB-");
+        if (i < 0 || i >= subtaskCount) {
+            return null;
+        }
+        StringBuilder page = new StringBuilder(maxResults * 300);
+        page.append("{\"startAt\":").append(startAt).append(",\"maxResults\":").append(maxResults)
+                .append(",\"total\":").append(WORKLOGS_PER_SUBTASK).append(",\"worklogs\":[");
+        int end = Math.min(WORKLOGS_PER_SUBTASK, startAt + maxResults);
+        for (int w=startAt; w<end; w++) {
+            if (w > startAt) {
+                page.append(',');
+            }
+            appendWorklog(page, i, w);
+        }
+        return page.append("]}").toString();
+    }
+
+    /**
+     * issue()
+     * 
+     * The issue document /rest/api/latest/issue/{key} returns for a story or Epic key, holding the
+     * status, the parent link custom field and fixVersions.
+     * 
+     * @param issueKey
+     * @return JsonObject, empty for an unknown key.
+     * 
+     */
+    public JsonObject issue(String issueKey) {
+        JsonObject issue = new JsonObject();
+        JsonObject fields = new JsonObject();
+        JsonObject status = new JsonObject();
+        status.addProperty("name", "In Progress");
+        fields.add("status", status);
+        int dash = issueKey.lastIndexOf('-');
+        int number;
+        try {
+            number = Integer.parseInt(issueKey.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            return issue;
+        }
+        if (issueKey.startsWith("STORY-")) {
+            fields.addProperty("customfield_10001", "EPIC-" + (number / STORIES_PER_EPIC));
+            JsonArray fixVersions = new JsonArray();
+            JsonObject fixVersion = new JsonObject();
+            fixVersion.addProperty("name", fixVersion(number));
+            fixVersions.add(fixVersion);
+            fields.add("fixVersions", fixVersions);
+        } else if (issueKey.startsWith("EPIC-")) {
+            fields.addProperty("customfield_10007", "INIT-" + (number / EPICS_PER_INITIATIVE));
+        } else {
+            return issue;
+        }
+        issue.addProperty("key", issueKey);
+        issue.addProperty("self", "http://jira.example.com/rest/api/2/issue/" + issueKey);
+        issue.add("fields", fields);
+        return issue;
+    }
+
+    private void appendSubtask(StringBuilder page, int i) {
+        int story = i / SUBTASKS_PER_STORY;
+        page.append("{\"expand\":\"operations,editmeta,changelog\",\"id\":\"").append(100000 + i)
+                .append("\",\"self\":\"http://jira.example.com/rest/api/2/issue/").append(100000 + i)
+                .append("\",\"key\":\"SUB-").append(i)
+                .append("\",\"fields\":{\"parent\":{\"id\":\"").append(50000 + story)
+                .append("\",\"key\":\"STORY-").append(story)
+                .append("\",\"fields\":{\"summary\":\"Story ").append(story)
+                .append("\",\"status\":{\"name\":\"In Progress\"}}},\"fixVersions\":[{\"id\":\"").append(story % FIX_VERSIONS)
+                .append("\",\"name\":\"").append(fixVersion(story))
+                .append("\",\"released\":false}],\"worklog\":{\"startAt\":0,\"maxResults\":").append(embeddedWorklogs)
+                .append(",\"total\":").append(WORKLOGS_PER_SUBTASK)
+                .append(",\"worklogs\":[");
+        for (int w=0; w<embeddedWorklogs; w++) {
+            if (w > 0) {
+                page.append(',');
+            }
+            appendWorklog(page, i, w);
+        }
+        page.append("]}}}");
+    }
+
+    private static void appendWorklog(StringBuilder page, int i, int w) {
+        int dayOfQuarter = (i * 7 + w * 3) % 90;
+        page.append("{\"self\":\"http://jira.example.com/rest/api/2/issue/").append(100000 + i)
+                .append("/worklog/").append(i * WORKLOGS_PER_SUBTASK + w)
+                .append("\",\"author\":{\"name\":\"dev").append(w % 9)
+                .append("\",\"displayName\":\"Developer ").append(w % 9)
+                .append("\",\"active\":true},\"comment\":\"Worked on SUB-").append(i)
+                .append(", see notes\",\"started\":\"").append(started(dayOfQuarter))
+                .append("\",\"timeSpent\":\"30m\",\"timeSpentSeconds\":").append(900 + (w % 4) * 900)
+                .append(",\"id\":\"").append(i * WORKLOGS_PER_SUBTASK + w)
+                .append("\",\"issueId\":\"").append(100000 + i).append("\"}");
+    }
+
+    /**
+     * started()
+     * 
+     * JIRA "started" timestamp for a day of the first quarter of 2018.
+     * 
+     * @param dayOfQuarter 0 to 89
+     * @return String such as 2018-02-03T09:30:00.000+0000
+     * 
+     */
+    public static String started(int dayOfQuarter) {
+        int month = 0;
+        int day = dayOfQuarter;
+        while (day >= DAYS_IN_MONTH[month]) {
+            day -= DAYS_IN_MONTH[month];
+            month++;
+        }
+        return String.format("2018-%02d-%02dT09:30:00.000+0000", month + 1, day + 1);
+    }
+
+    private static int number(String issueKey, String prefix) {
+        if (!issueKey.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(issueKey.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String fixVersion(int story) {
+        return "Release " + (story % FIX_VERSIONS);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * SyntheticJiraClient.java
+ * 
+ * JiraClient answering from a SyntheticJira in memory.  Search pages are generated once and then
+ * parsed with the plugin's own SearchPageParser on every call, so benchmarks measure the parsing
+ * and not the data generation.  Calls that change JIRA are not supported.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.trustvesta.plugins.api.JiraClient;
+import com.trustvesta.plugins.api.JiraClientException;
+import com.trustvesta.plugins.report.SearchPageParser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SyntheticJiraClient implements JiraClient {
+
+    private static final String EMPTY_PAGE = "{\"startAt\":0,\"maxResults\":0,\"total\":0,\"issues\":[]}";
+
+    private final SyntheticJira jira;
+    private final int pageSize;
+    private final Map<Integer, String> pages = new HashMap<Integer, String>();
+
+    public SyntheticJiraClient(SyntheticJira jira, int pageSize) {
+        this.jira = jira;
+        this.pageSize = pageSize;
+        List<String> searchPages = jira.searchPages(pageSize);
+        for (int i=0; i<searchPages.size(); i++) {
+            pages.put(i * pageSize, searchPages.get(i));
+        }
+    }
+
+    public SearchPageParser.PageInfo search(JsonObject searchBody, SearchPageParser.IssueHandler handler) throws JiraClientException {
+        int startAt = searchBody.has("startAt") ? searchBody.get("startAt").getAsInt() : 0;
+        String jql = searchBody.get("jql").getAsString();
+        // Only the sub-task search is served; hydration "key in (...)" searches find nothing.
+        String page = jql.startsWith("key in") ? null : pages.get(startAt);
+        try {
+            return SearchPageParser.parse(new StringReader(page != null ? page : EMPTY_PAGE), handler);
+        } catch (IOException e) {
+            throw new JiraClientException("Unable to parse search page", e);
+        }
+    }
+
+    public JsonObject getIssue(String issueKey, String[] fields, String[] expand) {
+        return jira.issue(issueKey);
+    }
+
+    public String getBrowseUrl(String issueKey) {
+        return "http://jira.example.com/browse/" + issueKey;
+    }
+
+    public JsonObject createIssue(String issueBody) {
+        throw new UnsupportedOperationException();
+    }
+
+    public JsonObject createIssues(String bulkBody) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void updateIssue(String issueKey, String issueBody) {
+        throw new UnsupportedOperationException();
+    }
+
+    public JsonObject getWorklogs(String issueKey, int startAt, int maxResults) {
+        return new JsonObject();
+    }
+
+    public JsonObject getUpdatedWorklogs(long since) {
+        return new JsonObject();
+    }
+
+    public JsonObject getDeletedWorklogs(long since) {
+        return new JsonObject();
+    }
+
+    public JsonArray listWorklogs(List<Long> worklogIds) {
+        return new JsonArray();
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * HttpJiraClient.java
+ * 
+ * JiraClient speaking plain HTTP to a StubJiraServer, standing in for JiraClientImpl, which needs a
+ * Confluence Application Link.  It calls the same endpoints with the same bodies, reports failures
+ * the same way, as a JiraClientException carrying the HTTP status and Retry-After, and sends every
+ * call through the same JiraCallGuard.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.load;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.JiraClient;
+import com.trustvesta.plugins.api.JiraClientException;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.impl.JiraCallGuard;
+import com.trustvesta.plugins.report.SearchPageParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class HttpJiraClient implements JiraClient {
+
+    private final String baseUrl;
+    private final JiraCallGuard callGuard;
+
+    public HttpJiraClient(String baseUrl, JiraSettings jiraSettings, JiraMetrics jiraMetrics) {
+        this.baseUrl = baseUrl;
+        this.callGuard = new JiraCallGuard(jiraSettings, jiraMetrics);
+    }
+
+    public SearchPageParser.PageInfo search(final JsonObject searchBody, final SearchPageParser.IssueHandler handler) throws JiraClientException {
+        return callGuard.execute(new JiraCallGuard.Call<SearchPageParser.PageInfo>() {
+            public SearchPageParser.PageInfo run() throws JiraClientException {
+                HttpURLConnection connection = send("POST", "/rest/api/latest/search", searchBody.toString());
+                try {
+                    InputStream in = connection.getInputStream();
+                    try {
+                        return SearchPageParser.parse(new InputStreamReader(in, StandardCharsets.UTF_8), handler);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    throw new JiraClientException("Unable to parse search page", e);
+                }
+            }
+        });
+    }
+
+    public JsonObject getIssue(String issueKey, String[] fields, String[] expand) throws JiraClientException {
+        StringBuilder endpoint = new StringBuilder("/rest/api/latest/issue/").append(encode(issueKey));
+        char separator = '?';
+        if (fields != null) {
+            endpoint.append(separator).append("fields=").append(encode(String.join(",", fields)));
+            separator = '&';
+        }
+        if (expand != null) {
+            endpoint.append(separator).append("expand=").append(encode(String.join(",", expand)));
+        }
+        return parseObject(call("GET", endpoint.toString(), null));
+    }
+
+    public String getBrowseUrl(String issueKey) {
+        return baseUrl + "/browse/" + issueKey;
+    }
+
+    public JsonObject createIssue(String issueBody) throws JiraClientException {
+        return parseObject(call("POST", "/rest/api/2/issue", issueBody));
+    }
+
+    public JsonObject createIssues(String bulkBody) throws JiraClientException {
+        return parseObject(call("POST", "/rest/api/2/issue/bulk", bulkBody));
+    }
+
+    public void updateIssue(String issueKey, String issueBody) throws JiraClientException {
+        call("PUT", "/rest/api/2/issue/" + encode(issueKey), issueBody);
+    }
+
+    public JsonObject getWorklogs(String issueKey, int startAt, int maxResults) throws JiraClientException {
+        String endpoint = "/rest/api/2/issue/" + encode(issueKey) + "/worklog?startAt=" + startAt + "&maxResults=" + maxResults;
+        return parseObject(call("GET", endpoint, null));
+    }
+
+    public JsonObject getUpdatedWorklogs(long since) throws JiraClientException {
+        return parseObject(call("GET", "/rest/api/2/worklog/updated?since=" + since, null));
+    }
+
+    public JsonObject getDeletedWorklogs(long since) throws JiraClientException {
+        return parseObject(call("GET", "/rest/api/2/worklog/deleted?since=" + since, null));
+    }
+
+    public JsonArray listWorklogs(List<Long> worklogIds) throws JiraClientException {
+        JsonObject body = new JsonObject();
+        JsonArray ids = new JsonArray();
+        for (Long worklogId : worklogIds) {
+            ids.add(worklogId);
+        }
+        body.add("ids", ids);
+        String response = call("POST", "/rest/api/2/worklog/list", body.toString());
+        return response.trim().isEmpty() ? new JsonArray() : (JsonArray) new JsonParser().parse(response);
+    }
+
+    /**
+     * call()
+     * 
+     * Send the request through the JiraCallGuard and read the whole response body.
+     * 
+     */
+    private String call(final String method, final String endpoint, final String body) throws JiraClientException {
+        return callGuard.execute(new JiraCallGuard.Call<String>() {
+            public String run() throws JiraClientException {
+                return body(send(method, endpoint, body));
+            }
+        });
+    }
+
+    /**
+     * send()
+     * 
+     * Open a connection, send the request and check the status.
+     * 
+     * @param method
+     * @param endpoint
+     * @param body request body, or null for none
+     * @return HttpURLConnection ready for its response body to be read.
+     * @throws JiraClientException on a connection failure or a non-2xx status
+     * 
+     */
+    private HttpURLConnection send(String method, String endpoint, String body) throws JiraClientException {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + endpoint).openConnection();
+            connection.setRequestMethod(method);
+            connection.setRequestProperty("Content-Type", "application/json");
+            if (body != null) {
+                connection.setDoOutput(true);
+                OutputStream out = connection.getOutputStream();
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+                out.close();
+            }
+            int status = connection.getResponseCode();
+            if (status < 200 || status >= 300) {
+                InputStream error = connection.getErrorStream();
+                if (error != null) {
+                    error.close();
+                }
+                throw new JiraClientException("JIRA returned " + status + " " + connection.getResponseMessage(), status,
+                        JiraCallGuard.parseRetryAfter(connection.getHeaderField("Retry-After"), System.currentTimeMillis()));
+            }
+            return connection;
+        } catch (JiraClientException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JiraClientException(method + " " + endpoint + " failed", e);
+        }
+    }
+
+    private static String body(HttpURLConnection connection) throws JiraClientException {
+        try {
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NO_CONTENT) {
+                return "";
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+                return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new JiraClientException("Unable to read response", e);
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static JsonObject parseObject(String body) {
+        if (body == null || body.trim().isEmpty()) {
+            return new JsonObject();
+        }
+        return (JsonObject) new JsonParser().parse(body);
+    }
+}
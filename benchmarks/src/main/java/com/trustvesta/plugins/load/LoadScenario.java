@@ -0,0 +1,85 @@
+/**
+ * LoadScenario.java
+ * 
+ * One load-test run: the data set the stub JIRA serves, how it misbehaves, and how many virtual users
+ * call the REST endpoints how often.  Each iteration a user makes one call, picked by the operation
+ * weights.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.load;
+
+public class LoadScenario {
+
+    private final String name;
+    private int worklogs = 10000;
+    private int embeddedWorklogs = 20;
+    private int latencyMillis = 20;
+    private int maxPageSize = 1000;
+    private int throttleEvery = 0;
+    private int users = 10;
+    private int iterations = 20;
+    private int reportWeight = 1;
+    private int updateWeight = 2;
+    private int statusWeight = 7;
+
+    public LoadScenario(String name) {
+        this.name = name;
+    }
+
+    public String getName() { return name; }
+    public int getWorklogs() { return worklogs; }
+    public int getEmbeddedWorklogs() { return embeddedWorklogs; }
+    public int getLatencyMillis() { return latencyMillis; }
+    public int getMaxPageSize() { return maxPageSize; }
+    public int getThrottleEvery() { return throttleEvery; }
+    public int getUsers() { return users; }
+    public int getIterations() { return iterations; }
+    public int getReportWeight() { return reportWeight; }
+    public int getUpdateWeight() { return updateWeight; }
+    public int getStatusWeight() { return statusWeight; }
+
+    /**
+     * Worklogs in the data set, and how many of each sub-task's worklogs a search page embeds.  Fewer
+     * embedded than WORKLOGS_PER_SUBTASK forces the plugin to page the worklog endpoint.
+     */
+    public LoadScenario dataset(int worklogs, int embeddedWorklogs) {
+        this.worklogs = worklogs;
+        this.embeddedWorklogs = embeddedWorklogs;
+        return this;
+    }
+
+    /**
+     * Delay added to every JIRA response, the largest search page JIRA hands out, and how often JIRA
+     * answers 429 (every n-th request, 0 for never).
+     */
+    public LoadScenario jira(int latencyMillis, int maxPageSize, int throttleEvery) {
+        this.latencyMillis = latencyMillis;
+        this.maxPageSize = maxPageSize;
+        this.throttleEvery = throttleEvery;
+        return this;
+    }
+
+    public LoadScenario users(int users, int iterations) {
+        this.users = users;
+        this.iterations = iterations;
+        return this;
+    }
+
+    /**
+     * Relative weights of /issuereport, /updateissue and /issuestatus calls.
+     */
+    public LoadScenario mix(int reportWeight, int updateWeight, int statusWeight) {
+        this.reportWeight = reportWeight;
+        this.updateWeight = updateWeight;
+        this.statusWeight = statusWeight;
+        return this;
+    }
+
+    public String toString() {
+        return name + " (" + worklogs + " worklogs, " + embeddedWorklogs + " embedded, " + latencyMillis
+                + "ms latency, page cap " + maxPageSize + ", 429 every " + throttleEvery + ", " + users
+                + " users x " + iterations + ", mix " + reportWeight + "/" + updateWeight + "/" + statusWeight + ")";
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * LoadTestHarness.java
+ * 
+ * End-to-end load test of the JiraRequest REST endpoints against a StubJiraServer.  JiraRequest is
+ * wired with the real settings, executor, hierarchy cache and report job manager, and talks to the
+ * stub through HttpJiraClient, so a run exercises paging, worklog fetches, hydration searches and the
+ * report queue the way Confluence would, minus the Application Link.
+ * 
+ * Each scenario runs its virtual users on their own threads and prints p50 and p99 latency per
+ * endpoint and per report stage, the failure count, the JIRA calls made and the errors and retries
+ * the plugin counted, e.g.
+ * 
+ *   java -cp benchmarks/target/benchmarks.jar com.trustvesta.plugins.load.LoadTestHarness
+ *   java -cp benchmarks/target/benchmarks.jar com.trustvesta.plugins.load.LoadTestHarness throttled
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.load;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.JiraRequest;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.bench.SyntheticJira;
+import com.trustvesta.plugins.impl.FragmentCacheImpl;
+import com.trustvesta.plugins.impl.IssueHierarchyCacheImpl;
+import com.trustvesta.plugins.impl.IssueStatusCacheImpl;
+import com.trustvesta.plugins.impl.JiraExecutorImpl;
+import com.trustvesta.plugins.impl.JiraMetricsImpl;
+import com.trustvesta.plugins.impl.JiraSettingsImpl;
+import com.trustvesta.plugins.impl.ReportJobManagerImpl;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class LoadTestHarness {
+
+    private static final String REPORT = "issuereport";
+    private static final String UPDATE = "updateissue";
+    private static final String STATUS = "issuestatus";
+
+    private static final long REPORT_POLL_MILLIS = 10;
+
+    private static final String REPORT_BODY = "{\"startDate\":\"" + SyntheticJira.START_DATE + "\",\"endDate\":\""
+            + SyntheticJira.END_DATE + "\"}";
+
+    private static final List<LoadScenario> SCENARIOS = Arrays.asList(
+            new LoadScenario("baseline"),
+            new LoadScenario("large").dataset(100000, 20).users(20, 10),
+            new LoadScenario("truncated").dataset(20000, 5),
+            new LoadScenario("slow").jira(200, 1000, 0).users(10, 5),
+            new LoadScenario("smallpages").jira(20, 100, 0),
+            new LoadScenario("throttled").jira(20, 1000, 25),
+            new LoadScenario("reports").mix(1, 0, 0).users(20, 5));
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        public void write(int b) { }
+        public void write(byte[] b, int off, int len) { }
+    };
+
+    public static void main(String[] args) throws Exception {
+        List<String> names = Arrays.asList(args);
+        for (LoadScenario scenario : SCENARIOS) {
+            if (!names.isEmpty() && !names.contains(scenario.getName())) {
+                continue;
+            }
+            System.out.println(scenario);
+            System.out.println(run(scenario));
+        }
+    }
+
+    /**
+     * run()
+     * 
+     * Start a stub JIRA for the scenario, run its virtual users to completion and shut everything
+     * down again.
+     * 
+     * @param scenario
+     * @return String holding the latency and JIRA call tables.
+     * 
+     */
+    public static String run(final LoadScenario scenario) throws Exception {
+        StubJiraServer server = new StubJiraServer(
+                new SyntheticJira(scenario.getWorklogs(), scenario.getEmbeddedWorklogs()),
+                scenario.getLatencyMillis(), scenario.getMaxPageSize(), scenario.getThrottleEvery());
+        server.start();
+
+        JiraSettings settings = new JiraSettingsImpl(null);
+        IssueHierarchyCacheImpl hierarchyCache = new IssueHierarchyCacheImpl(settings);
+        IssueStatusCacheImpl statusCache = new IssueStatusCacheImpl(settings);
+        ReportJobManagerImpl reportJobManager = new ReportJobManagerImpl(settings);
+        JiraMetricsImpl metrics = new JiraMetricsImpl(hierarchyCache, statusCache,
+                new FragmentCacheImpl(settings), reportJobManager);
+        JiraExecutorImpl executor = new JiraExecutorImpl(settings, metrics);
+        final JiraRequest jiraRequest = new JiraRequest(new HttpJiraClient(server.getBaseUrl(), settings, metrics), settings, executor,
+                hierarchyCache, statusCache, reportJobManager, null, metrics, null, null, null);
+
+        final Map<String, List<Long>> latencies = new TreeMap<String, List<Long>>();
+        final Map<String, Integer> failures = new TreeMap<String, Integer>();
+        for (String op : new String[] { REPORT, UPDATE, STATUS }) {
+            latencies.put(op, Collections.synchronizedList(new ArrayList<Long>()));
+            failures.put(op, 0);
+        }
+
+        ExecutorService users = Executors.newFixedThreadPool(scenario.getUsers());
+        long started = System.nanoTime();
+        try {
+            List<Future<Map<String, Integer>>> runs = new ArrayList<Future<Map<String, Integer>>>();
+            for (int u=0; u<scenario.getUsers(); u++) {
+                final int user = u;
+                runs.add(users.submit(new Callable<Map<String, Integer>>() {
+                    public Map<String, Integer> call() {
+                        return virtualUser(jiraRequest, scenario, user, latencies);
+                    }
+                }));
+            }
+            for (Future<Map<String, Integer>> run : runs) {
+                for (Map.Entry<String, Integer> failed : run.get().entrySet()) {
+                    failures.put(failed.getKey(), failures.get(failed.getKey()) + failed.getValue());
+                }
+            }
+        } finally {
+            users.shutdownNow();
+            reportJobManager.destroy();
+            executor.destroy();
+            server.stop();
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        StringBuilder results = new StringBuilder();
+        results.append(String.format("  %-18s %8s %8s %10s %10s%n", "endpoint", "calls", "failed", "p50 ms", "p99 ms"));
+        for (Map.Entry<String, List<Long>> op : latencies.entrySet()) {
+            List<Long> sorted = new ArrayList<Long>(op.getValue());
+            if (sorted.isEmpty()) {
+                continue;
+            }
+            Collections.sort(sorted);
+            results.append(String.format("  %-18s %8d %8d %10.1f %10.1f%n", op.getKey(), sorted.size(),
+                    failures.get(op.getKey()), percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6));
+        }
+        JsonObject snapshot = metrics.snapshot();
+        JsonObject stages = snapshot.getAsJsonObject("stages");
+        for (Map.Entry<String, JsonElement> stage : stages.entrySet()) {
+            JsonObject timer = stage.getValue().getAsJsonObject();
+            results.append(String.format("  %-18s %8d %8s %10.1f %10.1f%n", "stage " + stage.getKey(),
+                    timer.get("count").getAsLong(), "", timer.get("p50Millis").getAsDouble(), timer.get("p99Millis").getAsDouble()));
+        }
+        results.append("  JIRA calls:");
+        for (Map.Entry<String, Long> call : server.getCallCounts().entrySet()) {
+            results.append(' ').append(call.getKey()).append('=').append(call.getValue());
+        }
+        results.append(String.format("%n  plugin errors:"));
+        for (Map.Entry<String, JsonElement> error : snapshot.getAsJsonObject("errors").entrySet()) {
+            results.append(' ').append(error.getKey()).append('=').append(error.getValue().getAsLong());
+        }
+        results.append(String.format("%n  elapsed %d ms%n", elapsedMillis));
+        return results.toString();
+    }
+
+    /**
+     * virtualUser()
+     * 
+     * One user's calls.  The operation sequence is seeded by the user number so reruns of a scenario
+     * make the same calls.
+     * 
+     * @return Map of endpoint to failed calls.
+     * 
+     */
+    private static Map<String, Integer> virtualUser(JiraRequest jiraRequest, LoadScenario scenario, int user,
+            Map<String, List<Long>> latencies) {
+        Map<String, Integer> failures = new TreeMap<String, Integer>();
+        Random random = new Random(user);
+        int totalWeight = scenario.getReportWeight() + scenario.getUpdateWeight() + scenario.getStatusWeight();
+        int stories = Math.max(1, scenario.getWorklogs() / SyntheticJira.WORKLOGS_PER_SUBTASK / SyntheticJira.SUBTASKS_PER_STORY);
+
+        for (int i=0; i<scenario.getIterations(); i++) {
+            int pick = random.nextInt(totalWeight);
+            String op = pick < scenario.getReportWeight() ? REPORT
+                    : pick < scenario.getReportWeight() + scenario.getUpdateWeight() ? UPDATE : STATUS;
+            String storyKey = "STORY-" + random.nextInt(stories);
+
+            long start = System.nanoTime();
+            boolean ok;
+            try {
+                if (op.equals(REPORT)) {
+                    ok = report(jiraRequest);
+                } else if (op.equals(UPDATE)) {
+                    ok = jiraRequest.updateIssue(charterBody(storyKey)).getStatus() == 200;
+                } else {
+                    Object entity = jiraRequest.getIssueStatus(storyKey, null).getEntity();
+                    ok = entity != null && !entity.toString().isEmpty();
+                }
+            } catch (Exception e) {
+                ok = false;
+            }
+            latencies.get(op).add(System.nanoTime() - start);
+            if (!ok) {
+                failures.put(op, failures.containsKey(op) ? failures.get(op) + 1 : 1);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * report()
+     * 
+     * Submit the report and poll its job, as the browser does, then download the CSV.
+     * 
+     * @return true if the job finished and its CSV was written.
+     * 
+     */
+    private static boolean report(JiraRequest jiraRequest) throws Exception {
+        Response submitted = jiraRequest.getIssueReport(REPORT_BODY);
+        if (submitted.getStatus() != 202) {
+            return false;
+        }
+        String jobId = new JsonParser().parse((String) submitted.getEntity()).getAsJsonObject().get("jobId").getAsString();
+        while (true) {
+            Response status = jiraRequest.getIssueReportStatus(jobId);
+            if (status.getStatus() != 200) {
+                return false;
+            }
+            String state = new JsonParser().parse((String) status.getEntity()).getAsJsonObject().get("state").getAsString();
+            if (state.equals("FAILED")) {
+                return false;
+            }
+            if (state.equals("DONE")) {
+                break;
+            }
+            Thread.sleep(REPORT_POLL_MILLIS);
+        }
+        Response result = jiraRequest.getIssueReportResult(jobId, null);
+        if (result.getStatus() != 200) {
+            return false;
+        }
+        ((StreamingOutput) result.getEntity()).write(DISCARD);
+        return true;
+    }
+
+    private static String charterBody(String issueKey) {
+        return "{\"issueKey\":\"" + issueKey + "\",\"project\":\"TEST\",\"issueType\":\"Story\",\"title\":\"Load test "
+                + issueKey + "\"}";
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+}
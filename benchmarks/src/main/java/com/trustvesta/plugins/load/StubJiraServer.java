@@ -0,0 +1,253 @@
+/**
+ * StubJiraServer.java
+ * 
+ * In-process fake JIRA for load tests, serving a SyntheticJira data set over HTTP with the JDK's
+ * built-in HttpServer.  It answers the endpoints the plugin calls:
+ * 
+ *   POST /rest/api/latest/search            sub-task search pages and "key in (...)" hydration
+ *   GET  /rest/api/latest/issue/{key}       story and Epic documents
+ *   GET  /rest/api/2/issue/{key}/worklog    full worklog pages for truncated sub-tasks
+ *   POST /rest/api/2/issue                  issue creation
+ *   PUT  /rest/api/2/issue/{key}            issue update
+ * 
+ * Every response is delayed by the configured latency, search pages are capped at maxPageSize
+ * whatever the client asks for, and every throttleEvery-th request is refused with 429 and a
+ * Retry-After header.  Calls are counted per endpoint, 429s included.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.load;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.trustvesta.plugins.bench.SyntheticJira;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class StubJiraServer {
+
+    private static final Pattern KEY_LIST = Pattern.compile("key in \\(([^)]*)\\)");
+    private static final Pattern WORKLOG_PATH = Pattern.compile("/rest/api/2/issue/([^/]+)/worklog");
+
+    private final SyntheticJira jira;
+    private final int latencyMillis;
+    private final int maxPageSize;
+    private final int throttleEvery;
+    private final Map<String, AtomicLong> calls = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicInteger created = new AtomicInteger();
+    private HttpServer server;
+    private ExecutorService threads;
+
+    /**
+     * StubJiraServer() constructor.
+     * 
+     * @param jira data set to serve
+     * @param latencyMillis delay added to every response
+     * @param maxPageSize most issues returned on one search page
+     * @param throttleEvery refuse every n-th request with 429; 0 never throttles
+     * 
+     */
+    public StubJiraServer(SyntheticJira jira, int latencyMillis, int maxPageSize, int throttleEvery) {
+        this.jira = jira;
+        this.latencyMillis = latencyMillis;
+        this.maxPageSize = maxPageSize;
+        this.throttleEvery = throttleEvery;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        threads = Executors.newCachedThreadPool();
+        server.setExecutor(threads);
+        server.createContext("/rest/api/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    dispatch(exchange);
+                } catch (RuntimeException e) {
+                    respond(exchange, 500, "{\"errorMessages\":[\"" + e + "\"]}");
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    /**
+     * Base URL of the running server, e.g. http://127.0.0.1:53211
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Calls per endpoint since the last reset, sorted by endpoint name.
+     */
+    public Map<String, Long> getCallCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> call : calls.entrySet()) {
+            counts.put(call.getKey(), call.getValue().get());
+        }
+        return counts;
+    }
+
+    public void resetCallCounts() {
+        calls.clear();
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        URI uri = exchange.getRequestURI();
+        String path = uri.getPath();
+        Matcher worklog = WORKLOG_PATH.matcher(path);
+
+        String endpoint;
+        if (method.equals("POST") && path.equals("/rest/api/latest/search")) {
+            endpoint = "search";
+        } else if (method.equals("GET") && worklog.matches()) {
+            endpoint = "worklog";
+        } else if (method.equals("GET") && path.startsWith("/rest/api/latest/issue/")) {
+            endpoint = "issue";
+        } else if (method.equals("POST") && path.equals("/rest/api/2/issue")) {
+            endpoint = "create";
+        } else if (method.equals("POST") && path.equals("/rest/api/2/issue/bulk")) {
+            endpoint = "bulkCreate";
+        } else if (method.equals("PUT") && path.startsWith("/rest/api/2/issue/")) {
+            endpoint = "update";
+        } else {
+            respond(exchange, 404, "{\"errorMessages\":[\"No stub for " + method + " " + path + "\"]}");
+            return;
+        }
+        count(endpoint);
+
+        pause();
+        if (throttleEvery > 0 && requests.incrementAndGet() % throttleEvery == 0) {
+            count("429");
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 429, "{\"errorMessages\":[\"Rate limit exceeded\"]}");
+            return;
+        }
+
+        if (endpoint.equals("search")) {
+            JsonObject body = (JsonObject) new JsonParser().parse(
+                    new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            String jql = body.get("jql").getAsString();
+            Matcher keys = KEY_LIST.matcher(jql);
+            if (keys.find()) {
+                List<String> issueKeys = new ArrayList<String>();
+                for (String issueKey : keys.group(1).split(",")) {
+                    issueKeys.add(issueKey.trim());
+                }
+                respond(exchange, 200, jira.keySearchPage(issueKeys));
+            } else {
+                int startAt = body.has("startAt") ? body.get("startAt").getAsInt() : 0;
+                int maxResults = body.has("maxResults") ? body.get("maxResults").getAsInt() : 50;
+                respond(exchange, 200, jira.searchPage(startAt, Math.min(maxResults, maxPageSize)));
+            }
+        } else if (endpoint.equals("worklog")) {
+            Map<String, String> query = query(uri);
+            int startAt = query.containsKey("startAt") ? Integer.parseInt(query.get("startAt")) : 0;
+            int maxResults = query.containsKey("maxResults") ? Integer.parseInt(query.get("maxResults")) : 5000;
+            String page = jira.worklogPage(worklog.group(1), startAt, maxResults);
+            respond(exchange, page != null ? 200 : 404, page != null ? page : "{}");
+        } else if (endpoint.equals("issue")) {
+            JsonObject issue = jira.issue(path.substring("/rest/api/latest/issue/".length()));
+            respond(exchange, issue.has("key") ? 200 : 404, issue.toString());
+        } else if (endpoint.equals("create")) {
+            respond(exchange, 201, createdIssue().toString());
+        } else if (endpoint.equals("bulkCreate")) {
+            JsonObject body = (JsonObject) new JsonParser().parse(
+                    new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            JsonArray issues = new JsonArray();
+            for (int i=0; i<body.getAsJsonArray("issueUpdates").size(); i++) {
+                issues.add(createdIssue());
+            }
+            JsonObject response = new JsonObject();
+            response.add("issues", issues);
+            response.add("errors", new JsonArray());
+            respond(exchange, 201, response.toString());
+        } else {
+            respond(exchange, 204, null);
+        }
+    }
+
+    private JsonObject createdIssue() {
+        int id = created.incrementAndGet();
+        JsonObject issue = new JsonObject();
+        issue.addProperty("id", String.valueOf(900000 + id));
+        issue.addProperty("key", "CHARTER-" + id);
+        issue.addProperty("self", "http://jira.example.com/rest/api/2/issue/" + (900000 + id));
+        return issue;
+    }
+
+    private void count(String endpoint) {
+        AtomicLong count = calls.get(endpoint);
+        if (count == null) {
+            calls.putIfAbsent(endpoint, new AtomicLong());
+            count = calls.get(endpoint);
+        }
+        count.incrementAndGet();
+    }
+
+    private void pause() {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> query = new TreeMap<String, String>();
+        if (uri.getRawQuery() != null) {
+            for (String pair : uri.getRawQuery().split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    query.put(pair.substring(0, equals), pair.substring(equals + 1));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
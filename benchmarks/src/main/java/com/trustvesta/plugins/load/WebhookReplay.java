@@ -0,0 +1,236 @@
+/**
+ * WebhookReplay.java
+ * 
+ * Replays JIRA webhook events saved one JSON object per line, so the webhook receiver can be tested
+ * without a live JIRA.  With no URL the events go straight to a JiraWebhookHandlerImpl wired to real
+ * caches, seeded with every issue the events mention, and the outcome counts and resulting cache
+ * entries are printed.  With a URL each event is POSTed to a running Confluence instead, e.g.
+ * 
+ *   java -cp benchmarks/target/benchmarks.jar com.trustvesta.plugins.load.WebhookReplay events.jsonl --shuffle --duplicate
+ *   java -cp benchmarks/target/benchmarks.jar com.trustvesta.plugins.load.WebhookReplay events.jsonl \
+ *       --url "http://localhost:1990/confluence/rest/jirarequest/1.0/webhook?secret=s3cret"
+ * 
+ * --shuffle delivers the events in a random (seeded) order and --duplicate delivers each one twice,
+ * which is how JIRA behaves when webhook deliveries are retried.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.load;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.HierarchyLink;
+import com.trustvesta.plugins.api.IssueStatus;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.api.JiraWebhookHandler;
+import com.trustvesta.plugins.impl.FragmentCacheImpl;
+import com.trustvesta.plugins.impl.IssueHierarchyCacheImpl;
+import com.trustvesta.plugins.impl.IssueStatusCacheImpl;
+import com.trustvesta.plugins.impl.JiraMetricsImpl;
+import com.trustvesta.plugins.impl.JiraSettingsImpl;
+import com.trustvesta.plugins.impl.JiraWebhookHandlerImpl;
+import com.trustvesta.plugins.impl.ReportJobManagerImpl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class WebhookReplay {
+
+    private static final String USAGE = "usage: WebhookReplay <events.jsonl> [--url <webhook url>] [--shuffle] [--duplicate]";
+
+    public static void main(String[] args) throws Exception {
+        String file = null;
+        String url = null;
+        boolean shuffle = false;
+        boolean duplicate = false;
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("--url") && i + 1 < args.length) {
+                url = args[++i];
+            } else if (args[i].equals("--shuffle")) {
+                shuffle = true;
+            } else if (args[i].equals("--duplicate")) {
+                duplicate = true;
+            } else if (file == null && !args[i].startsWith("--")) {
+                file = args[i];
+            } else {
+                System.err.println(USAGE);
+                System.exit(2);
+            }
+        }
+        if (file == null) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        List<String> events = new ArrayList<String>();
+        for (String line : readLines(new File(file))) {
+            if (!line.trim().isEmpty()) {
+                events.add(line);
+                if (duplicate) {
+                    events.add(line);
+                }
+            }
+        }
+        if (shuffle) {
+            Collections.shuffle(events, new Random(42));
+        }
+
+        System.out.println(url == null ? replayLocally(events) : replayOver(url, events));
+    }
+
+    /**
+     * replayLocally()
+     * 
+     * Hand each event to a JiraWebhookHandlerImpl.  The handler only refreshes issues that are
+     * already cached, so every issue key in the events is first cached as "Unknown" with no parent,
+     * under the Initiative field if its first event carries one and the Epic Link field otherwise.
+     * 
+     * @param events
+     * @return String holding the outcome counts and the cached status and parent of each issue.
+     * 
+     */
+    public static String replayLocally(List<String> events) {
+        JiraSettings settings = new JiraSettingsImpl(null);
+        IssueStatusCacheImpl statusCache = new IssueStatusCacheImpl(settings);
+        IssueHierarchyCacheImpl hierarchyCache = new IssueHierarchyCacheImpl(settings);
+        JiraMetricsImpl metrics = new JiraMetricsImpl(hierarchyCache, statusCache, new FragmentCacheImpl(settings), null);
+        ReportJobManagerImpl reportJobManager = new ReportJobManagerImpl(settings);
+        JiraWebhookHandlerImpl handler = new JiraWebhookHandlerImpl(statusCache, hierarchyCache, null, reportJobManager,
+                settings, metrics);
+
+        JsonParser parser = new JsonParser();
+        String initiativeLink = settings.getFieldMapping().getInitiativeLinkField();
+        TreeMap<String, String> issueKeys = new TreeMap<String, String>();
+        for (String event : events) {
+            JsonObject json = parser.parse(event).getAsJsonObject();
+            if (json.has("issue") && json.getAsJsonObject("issue").has("key")) {
+                JsonObject issue = json.getAsJsonObject("issue");
+                String issueKey = issue.get("key").getAsString();
+                if (!issueKeys.containsKey(issueKey)) {
+                    boolean epic = issue.has("fields") && issue.getAsJsonObject("fields").has(initiativeLink);
+                    issueKeys.put(issueKey, epic ? initiativeLink : settings.getFieldMapping().getEpicLinkField());
+                }
+            }
+        }
+        for (Map.Entry<String, String> issue : issueKeys.entrySet()) {
+            statusCache.put("", issue.getKey(), new IssueStatus(issue.getKey(), "Unknown", ""));
+            hierarchyCache.put(issue.getKey(), new HierarchyLink(issue.getValue(), "", ""));
+        }
+
+        Map<String, Integer> outcomes = new TreeMap<String, Integer>();
+        for (String event : events) {
+            JiraWebhookHandler.Outcome outcome = handler.handle(parser.parse(event).getAsJsonObject());
+            count(outcomes, outcome.name().toLowerCase());
+        }
+        reportJobManager.destroy();
+
+        StringBuilder results = new StringBuilder();
+        results.append(String.format("  %d events:", events.size()));
+        for (Map.Entry<String, Integer> outcome : outcomes.entrySet()) {
+            results.append(' ').append(outcome.getKey()).append('=').append(outcome.getValue());
+        }
+        results.append(String.format("%n  %-18s %-18s %-18s %s%n", "issue", "status", "parent", "fix version"));
+        for (String issueKey : issueKeys.keySet()) {
+            IssueStatus status = statusCache.get("", issueKey);
+            HierarchyLink link = hierarchyCache.get(issueKey);
+            results.append(String.format("  %-18s %-18s %-18s %s%n", issueKey,
+                    status == null ? "(not cached)" : status.getStatus(),
+                    link == null ? "(not cached)" : link.getParentKey(),
+                    link == null ? "" : link.getFixVersion()));
+        }
+        return results.toString();
+    }
+
+    /**
+     * replayOver()
+     * 
+     * POST each event to a running webhook receiver, one at a time and in order.
+     * 
+     * @param url
+     * @param events
+     * @return String holding the count of each HTTP status and outcome returned.
+     * 
+     */
+    public static String replayOver(String url, List<String> events) throws IOException {
+        JsonParser parser = new JsonParser();
+        Map<String, Integer> outcomes = new TreeMap<String, Integer>();
+        for (String event : events) {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(event.getBytes(StandardCharsets.UTF_8));
+            } finally {
+                out.close();
+            }
+
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            String body = in == null ? "" : readAll(in);
+            String outcome = "";
+            if (status == 200 && body.startsWith("{")) {
+                JsonObject result = parser.parse(body).getAsJsonObject();
+                outcome = result.has("outcome") ? " " + result.get("outcome").getAsString() : "";
+            }
+            count(outcomes, status + outcome);
+        }
+
+        StringBuilder results = new StringBuilder();
+        results.append(String.format("  %d events:", events.size()));
+        for (Map.Entry<String, Integer> outcome : outcomes.entrySet()) {
+            results.append(String.format("%n  %-24s %d", outcome.getKey(), outcome.getValue()));
+        }
+        return results.toString();
+    }
+
+    private static void count(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        StringBuilder body = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                body.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        return body.toString();
+    }
+}
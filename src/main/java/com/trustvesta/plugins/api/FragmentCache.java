@@ -0,0 +1,30 @@
+/**
+ * FragmentCache.java
+ * 
+ * Defines a bounded in-memory cache of the HTML the macros render, so repeat views of a page skip
+ * the Velocity render.  Keys name the page id and version and everything else the output depends
+ * on, see macro.FragmentKey, so an edited page or changed charter simply stops matching its old
+ * entries, which then age out.  The least recently used entries are evicted once the cache is full.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+public interface FragmentCache
+{
+    /**
+     * Return the cached HTML for a key, or null if it is missing or expired.
+     */
+    String get(String key);
+
+    void put(String key, String html);
+
+    void invalidateAll();
+
+    int size();
+
+    long getHitCount();
+
+    long getMissCount();
+}
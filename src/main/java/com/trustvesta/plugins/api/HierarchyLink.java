@@ -0,0 +1,45 @@
+/**
+ * HierarchyLink.java
+ * 
+ * Immutable value describing where an issue sits in the JIRA hierarchy: the key of its parent
+ * (the Epic for a story, the Initiative for an Epic) and its first fixVersion.  Either may be
+ * an empty string when JIRA has nothing set.  The field the parent was read from is kept too, so
+ * a change pushed from JIRA can be read the same way.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+public final class HierarchyLink
+{
+    private final String parentField;
+    private final String parentKey;
+    private final String fixVersion;
+
+    public HierarchyLink(String parentField, String parentKey, String fixVersion)
+    {
+        this.parentField = parentField == null ? "" : parentField;
+        this.parentKey = parentKey == null ? "" : parentKey;
+        this.fixVersion = fixVersion == null ? "" : fixVersion;
+    }
+
+    /**
+     * JIRA field id the parent key was read from: the Epic Link field for a story or the Initiative
+     * field for an Epic.
+     */
+    public String getParentField()
+    {
+        return parentField;
+    }
+
+    public String getParentKey()
+    {
+        return parentKey;
+    }
+
+    public String getFixVersion()
+    {
+        return fixVersion;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * IssueHierarchyCache.java
+ * 
+ * Defines a bounded in-memory cache of story->Epic and Epic->Initiative links shared across report
+ * runs.  These links rarely change so most report lookups can be answered without calling JIRA.
+ * Entries expire after a TTL and the least recently used entries are evicted once the cache is full.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+public interface IssueHierarchyCache
+{
+    /**
+     * Return the cached link for an issue, or null if it is missing or expired.
+     */
+    HierarchyLink get(String issueKey);
+
+    void put(String issueKey, HierarchyLink link);
+
+    /**
+     * Replace the link of an issue that is already cached, restarting its TTL.  Issues that are not
+     * cached are left out, so changes pushed from JIRA do not crowd out the issues reports use.  A
+     * link read from another parent field than the cached one is left out too, so an Epic's
+     * Initiative is never replaced by whatever its Epic Link field holds.
+     * 
+     * @return true if the issue was cached with the same parent field.
+     */
+    boolean refresh(String issueKey, HierarchyLink link);
+
+    void invalidate(String issueKey);
+
+    void invalidateAll();
+
+    int size();
+
+    long getHitCount();
+
+    long getMissCount();
+}
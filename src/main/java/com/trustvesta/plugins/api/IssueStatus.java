@@ -0,0 +1,50 @@
+/**
+ * IssueStatus.java
+ * 
+ * Immutable value holding what a Charter page shows of its JIRA issue: the key, the workflow status
+ * name and the link to the issue in JIRA's web UI.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import com.google.gson.JsonObject;
+
+public final class IssueStatus
+{
+    private final String key;
+    private final String status;
+    private final String link;
+
+    public IssueStatus(String key, String status, String link)
+    {
+        this.key = key;
+        this.status = status == null ? "" : status;
+        this.link = link == null ? "" : link;
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    public String getStatus()
+    {
+        return status;
+    }
+
+    public String getLink()
+    {
+        return link;
+    }
+
+    public JsonObject toJson()
+    {
+        JsonObject json = new JsonObject();
+        json.addProperty("key", key);
+        json.addProperty("status", status);
+        json.addProperty("link", link);
+        return json;
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * IssueStatusCache.java
+ * 
+ * Defines a bounded in-memory cache of the IssueStatus shown on each Charter page.  Every page view
+ * asks for the status, so a short TTL lets repeated views share one JIRA call while a workflow
+ * transition still shows up within a minute or so.  The least recently used issues are evicted
+ * once the cache is full.
+ * 
+ * Each issue holds one entry per user.  A status is fetched with the caller's JIRA permissions, so
+ * it is only ever served back to the same user; anyone else goes to JIRA, which checks their access.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+public interface IssueStatusCache
+{
+    /**
+     * Return the status cached for this user under issueKey, or null if it is missing or expired.
+     */
+    IssueStatus get(String userKey, String issueKey);
+
+    /**
+     * Cache a status for this user under the key they asked for, which may not be status.getKey()
+     * if the issue has since been moved.
+     */
+    void put(String userKey, String issueKey, IssueStatus status);
+
+    /**
+     * Replace the status name every user has cached for an issue, keeping their links and restarting
+     * their TTLs.  Issues that are not cached are left out.
+     * 
+     * @return true if the issue was cached for anyone.
+     */
+    boolean refresh(String issueKey, String status);
+
+    /**
+     * Drop an issue for every user.
+     */
+    void invalidate(String issueKey);
+
+    void invalidateAll();
+
+    int size();
+
+    long getHitCount();
+
+    long getMissCount();
+}
@@ -0,0 +1,77 @@
+/**
+ * JiraClient.java
+ * 
+ * Typed, stateless access to the JIRA REST API over the primary Application Link.  Implementations
+ * hold no per-request state and are safe to call from many threads at once.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.trustvesta.plugins.report.SearchPageParser;
+
+import java.util.List;
+
+public interface JiraClient
+{
+    /**
+     * POST one page of a search to /rest/api/latest/search and stream its issues into the handler.
+     */
+    SearchPageParser.PageInfo search(JsonObject searchBody, SearchPageParser.IssueHandler handler) throws JiraClientException;
+
+    /**
+     * GET /rest/api/latest/issue/{issueKey}.  When fields is not null only those fields are returned,
+     * and expand, when not null, asks for the named extra sections.  Null returns JIRA's default
+     * issue document.
+     */
+    JsonObject getIssue(String issueKey, String[] fields, String[] expand) throws JiraClientException;
+
+    /**
+     * Link to the issue in JIRA's web UI, {display url}/browse/{issueKey}.  No call is made to JIRA.
+     */
+    String getBrowseUrl(String issueKey) throws JiraClientException;
+
+    /**
+     * POST /rest/api/2/issue and return JIRA's response holding the new id, key and self link.
+     */
+    JsonObject createIssue(String issueBody) throws JiraClientException;
+
+    /**
+     * POST /rest/api/2/issue/bulk with {"issueUpdates": [...]} and return JIRA's response, which lists
+     * the created issues in order under "issues" and any rejected ones, by position in
+     * issueUpdates, under "errors".  A 400 from JIRA, meaning none were created, is returned the
+     * same way rather than thrown.
+     */
+    JsonObject createIssues(String bulkBody) throws JiraClientException;
+
+    /**
+     * PUT /rest/api/2/issue/{issueKey}.
+     */
+    void updateIssue(String issueKey, String issueBody) throws JiraClientException;
+
+    /**
+     * GET one page of /rest/api/2/issue/{issueKey}/worklog.
+     */
+    JsonObject getWorklogs(String issueKey, int startAt, int maxResults) throws JiraClientException;
+
+    /**
+     * GET one page of /rest/api/2/worklog/updated, the ids of worklogs changed since the given time in
+     * epoch milliseconds.
+     */
+    JsonObject getUpdatedWorklogs(long since) throws JiraClientException;
+
+    /**
+     * GET one page of /rest/api/2/worklog/deleted, the ids of worklogs deleted since the given time in
+     * epoch milliseconds.
+     */
+    JsonObject getDeletedWorklogs(long since) throws JiraClientException;
+
+    /**
+     * POST /rest/api/2/worklog/list and return the worklogs with the given ids.  JIRA accepts at most
+     * 1000 ids per call.
+     */
+    JsonArray listWorklogs(List<Long> worklogIds) throws JiraClientException;
+}
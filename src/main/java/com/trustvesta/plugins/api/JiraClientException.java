@@ -0,0 +1,59 @@
+/**
+ * JiraClientException.java
+ * 
+ * Raised by JiraClient when a JIRA call cannot be made or JIRA answers with a non-2xx status.  The
+ * HTTP status is kept (0 when no response was received) so callers can tell a missing issue from
+ * an outage.  When JIRA asks the caller to back off with a Retry-After header the delay is kept too.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import com.atlassian.sal.api.net.ResponseException;
+
+public class JiraClientException extends ResponseException
+{
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    public JiraClientException(String message, int statusCode)
+    {
+        this(message, statusCode, -1);
+    }
+
+    public JiraClientException(String message, int statusCode, long retryAfterMillis)
+    {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public JiraClientException(String message, Throwable cause)
+    {
+        super(message, cause);
+        this.statusCode = 0;
+        this.retryAfterMillis = -1;
+    }
+
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    /**
+     * Return how long JIRA asked the caller to wait before trying again, or -1 if it did not say.
+     */
+    public long getRetryAfterMillis()
+    {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Return true for a 429 or 503, the statuses JIRA uses when it is overloaded or rate limiting.
+     */
+    public boolean isThrottled()
+    {
+        return statusCode == 429 || statusCode == 503;
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * JiraExecutor.java
+ * 
+ * Defines a shared, bounded worker pool used to fan out independent JIRA lookups.  The pool
+ * belongs to the plugin rather than to Confluence so that concurrent lookups never borrow
+ * Confluence's HTTP request threads.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+public interface JiraExecutor
+{
+    /**
+     * Run the tasks on the pool, at most getLookupParallelism() at a time, and wait for them.
+     * Results are returned in the same order as the tasks.  Each task runs as the calling user.  A
+     * task that fails or is still running getLookupTimeoutSeconds() after it started contributes
+     * null to the result list.
+     */
+    <T> List<T> invokeAll(List<Callable<T>> tasks);
+}
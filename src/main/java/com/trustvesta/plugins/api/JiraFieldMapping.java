@@ -0,0 +1,121 @@
+/**
+ * JiraFieldMapping.java
+ * 
+ * Immutable value naming the JIRA fields the plugin reads and writes whose ids differ between JIRA
+ * instances: the Epic Link field of a story, the parent Initiative field of an Epic and the custom
+ * fields the charter form writes to.  Charter fields map a charter form property, e.g. "outcome",
+ * to a JIRA field id, e.g. "customfield_11303".
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class JiraFieldMapping
+{
+    public static final JiraFieldMapping DEFAULT;
+
+    static {
+        Map<String, String> charterFields = new LinkedHashMap<String, String>();
+        charterFields.put("submitDate", "customfield_11301");
+        charterFields.put("summary", "customfield_11302");
+        charterFields.put("deliveryDate", "customfield_10600");
+        charterFields.put("outcome", "customfield_11303");
+        charterFields.put("justification", "customfield_11304");
+        charterFields.put("revenue", "customfield_11307");
+        DEFAULT = new JiraFieldMapping("customfield_10001", "customfield_10007", charterFields);
+    }
+
+    private final String epicLinkField;
+    private final String initiativeLinkField;
+    private final Map<String, String> charterFields;
+
+    public JiraFieldMapping(String epicLinkField, String initiativeLinkField, Map<String, String> charterFields)
+    {
+        this.epicLinkField = checkFieldId(epicLinkField);
+        this.initiativeLinkField = checkFieldId(initiativeLinkField);
+        Map<String, String> copy = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, String> field : charterFields.entrySet()) {
+            copy.put(field.getKey(), checkFieldId(field.getValue()));
+        }
+        this.charterFields = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Field holding a story's parent Epic key.
+     */
+    public String getEpicLinkField()
+    {
+        return epicLinkField;
+    }
+
+    /**
+     * Field holding an Epic's parent Initiative key.
+     */
+    public String getInitiativeLinkField()
+    {
+        return initiativeLinkField;
+    }
+
+    /**
+     * Charter form property -> JIRA field id, in the order they are written.
+     */
+    public Map<String, String> getCharterFields()
+    {
+        return charterFields;
+    }
+
+    public JsonObject toJson()
+    {
+        JsonObject json = new JsonObject();
+        json.addProperty("epicLinkField", epicLinkField);
+        json.addProperty("initiativeLinkField", initiativeLinkField);
+        JsonObject charter = new JsonObject();
+        for (Map.Entry<String, String> field : charterFields.entrySet()) {
+            charter.addProperty(field.getKey(), field.getValue());
+        }
+        json.add("charterFields", charter);
+        return json;
+    }
+
+    /**
+     * fromJson()
+     * 
+     * Read a mapping in the form written by toJson().  Missing entries keep their DEFAULT value.
+     * 
+     * @param json
+     * @return JiraFieldMapping
+     * @throws IllegalArgumentException if a field id is not a plain JIRA field id
+     * 
+     */
+    public static JiraFieldMapping fromJson(JsonObject json)
+    {
+        String epicLinkField = json.has("epicLinkField") ? json.get("epicLinkField").getAsString() : DEFAULT.epicLinkField;
+        String initiativeLinkField = json.has("initiativeLinkField") ? json.get("initiativeLinkField").getAsString()
+                : DEFAULT.initiativeLinkField;
+        Map<String, String> charterFields = DEFAULT.charterFields;
+        if (json.has("charterFields") && json.get("charterFields").isJsonObject()) {
+            charterFields = new LinkedHashMap<String, String>();
+            for (Map.Entry<String, JsonElement> field : json.getAsJsonObject("charterFields").entrySet()) {
+                charterFields.put(field.getKey(), field.getValue().getAsString());
+            }
+        }
+        return new JiraFieldMapping(epicLinkField, initiativeLinkField, charterFields);
+    }
+
+    // Field ids end up in query strings and JSON keys, so only accept what JIRA itself uses.
+    private static String checkFieldId(String fieldId)
+    {
+        if (fieldId == null || !fieldId.matches("[A-Za-z0-9_.]+")) {
+            throw new IllegalArgumentException("Invalid JIRA field id: " + fieldId);
+        }
+        return fieldId;
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * JiraMetrics.java
+ * 
+ * Defines the timers and counters kept for the JIRA bridge: a latency histogram per report pipeline
+ * stage and per JiraClient call, bytes received and failures per call, error counts per source, and
+ * the hit rates of the plugin's caches.  The same snapshot is served by the /metrics REST endpoint
+ * and published over JMX.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import com.google.gson.JsonObject;
+
+public interface JiraMetrics
+{
+    /**
+     * Record how long one run of a report pipeline stage took.
+     */
+    void recordStage(String stage, long elapsedNanos);
+
+    /**
+     * Record one JIRA call, named after the JiraClient method that made it.
+     */
+    void recordCall(String call, long elapsedNanos, long bytesReceived, boolean failed);
+
+    /**
+     * Count an error that is not already counted as a failed call, such as a lookup timeout or an
+     * exception caught in a pipeline stage.
+     */
+    void recordError(String source);
+
+    /**
+     * Return every timer and counter as JSON, grouped into stages, calls, caches and errors.
+     */
+    JsonObject snapshot();
+
+    void reset();
+}
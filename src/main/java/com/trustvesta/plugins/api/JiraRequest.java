@@ -12,47 +12,124 @@
 
 package com.trustvesta.plugins.api;
 
-import com.atlassian.applinks.api.application.jira.JiraApplicationType;
-import com.atlassian.applinks.api.ApplicationLinkService;
-import com.atlassian.applinks.api.ApplicationLink;
-import com.atlassian.applinks.api.ApplicationLinkRequest;
-import com.atlassian.applinks.api.ApplicationLinkRequestFactory;
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.confluence.pages.PageManager;
+import com.atlassian.confluence.security.Permission;
+import com.atlassian.confluence.security.PermissionManager;
+import com.atlassian.confluence.user.AuthenticatedUserThreadLocal;
+import com.atlassian.confluence.user.ConfluenceUser;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
-import com.atlassian.sal.api.net.Request.MethodType;
+import com.atlassian.sal.api.user.UserKey;
+import com.atlassian.sal.api.user.UserManager;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.trustvesta.plugins.charter.CharterProperties;
+import com.trustvesta.plugins.report.CsvWriter;
+import com.trustvesta.plugins.report.ReportModel;
+import com.trustvesta.plugins.report.ReportRollup;
+import com.trustvesta.plugins.report.ReportRow;
+import com.trustvesta.plugins.report.SearchPageParser;
+import com.trustvesta.plugins.report.SubtaskRecord;
+import com.trustvesta.plugins.report.WorklogFilter;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /** 
- * JiraRequest class definition and root of the REST endpoint. ApplicationLinkService and PageManager objects are
- * injected by Confluence via constructor-based component injection (v2 plugins).  This is handled by the Spring
+ * JiraRequest class definition and root of the REST endpoint. The JiraClient and the other plugin components
+ * are injected by Confluence via constructor-based component injection (v2 plugins).  This is handled by the Spring
  * framework in Confluence and allows the plugin module to have access to the core component object.
  * 
+ * The resource holds no per-request state; every JIRA call goes through the thread-safe JiraClient.
+ * Each report pipeline stage is timed into JiraMetrics, and caught exceptions are counted there
+ * under the name of the method that caught them.
+ * 
  */
 @Path("/")
 public class JiraRequest {
 
-    private ApplicationLink jiraApplicationLink;
-    private ApplicationLinkRequest request;
+    private static final Logger log = LoggerFactory.getLogger(JiraRequest.class);
+
+    private final JiraClient jiraClient;
+    private final JiraSettings jiraSettings;
+    private final JiraExecutor jiraExecutor;
+    private final IssueHierarchyCache hierarchyCache;
+    private final IssueStatusCache statusCache;
+    private final ReportJobManager reportJobManager;
+    private final WorklogIndex worklogIndex;
+    private final JiraMetrics jiraMetrics;
+    private final UserManager userManager;
+    private final PageManager pageManager;
+    private final PermissionManager permissionManager;
+
+    // Fields needed from each sub-task to build the report.  Asking for these on the search itself
+    // means the search pages carry everything and no per-issue GET is needed.
+    static final String[] SUBTASK_FIELDS = { "parent", "worklog", "fixVersions" };
+
+    // Fields needed from each sub-task when the worklog sums come from the WorklogIndex.
+    static final String[] INDEXED_SUBTASK_FIELDS = { "parent", "fixVersions" };
+
+    // The issue status lookup only needs the status; key and self come back regardless.
+    static final String[] STATUS_FIELDS = { "status" };
+
+    static final String SUBTASK_JQL = "issuetype=sub-task and sprint is not EMPTY";
+
+    // Worklog entries asked for per /issue/{key}/worklog page when a search page truncated them.
+    static final int WORKLOG_PAGE_SIZE = 1000;
+
+    static final String[] CSV_HEADER = { "fixVersion", "timeSpent", "story", "epic", "initiative" };
 
-    @ComponentImport
-    private final ApplicationLinkService applicationLinkService;
+    // Charter values are kept on each Charter page in its CharterProperties, by the name the form
+    // posts to /updateissue.  These are read besides the charter fields of the JiraFieldMapping.
+    static final String[] CHARTER_BASE_FIELDS = { "issueKey", "issueType", "project", "title" };
+
+    // Issues per /rest/api/2/issue/bulk call, and the most pages one bulk request may name.
+    static final int BULK_CREATE_CHUNK = 50;
+    static final int MAX_BULK_PAGES = 1000;
+
+    // Most issue keys one /issuestatus/batch request may name.  JIRA keys are PROJECT-123; anything
+    // else is reported as not found rather than placed in the JQL.
+    static final int MAX_STATUS_KEYS = 500;
+    static final Pattern ISSUE_KEY = Pattern.compile("[A-Z][A-Z0-9_]*-[0-9]+");
 
     /**
      * JiraRequest() constructor.
@@ -60,14 +137,35 @@ public class JiraRequest {
      * The Spring framework will inject the component obects at construction time.  These are stored
      * as private class members.
      *  
-     * @param applicationLinkService
+     * @param jiraClient
+     * @param jiraSettings
+     * @param jiraExecutor
+     * @param hierarchyCache
+     * @param statusCache
+     * @param reportJobManager
+     * @param worklogIndex
+     * @param jiraMetrics
+     * @param userManager
      * @param pageManager
+     * @param permissionManager
      * 
      */
     @Autowired
-    public JiraRequest(ApplicationLinkService applicationLinkService) { 
-        this.applicationLinkService = applicationLinkService;
-        jiraApplicationLink = applicationLinkService.getPrimaryApplicationLink(JiraApplicationType.class);
+    public JiraRequest(JiraClient jiraClient, JiraSettings jiraSettings, JiraExecutor jiraExecutor,
+            IssueHierarchyCache hierarchyCache, IssueStatusCache statusCache, ReportJobManager reportJobManager,
+            WorklogIndex worklogIndex, JiraMetrics jiraMetrics, @ComponentImport UserManager userManager, @ComponentImport PageManager pageManager,
+            @ComponentImport PermissionManager permissionManager) { 
+        this.jiraClient = jiraClient;
+        this.jiraSettings = jiraSettings;
+        this.jiraExecutor = jiraExecutor;
+        this.hierarchyCache = hierarchyCache;
+        this.statusCache = statusCache;
+        this.reportJobManager = reportJobManager;
+        this.worklogIndex = worklogIndex;
+        this.jiraMetrics = jiraMetrics;
+        this.userManager = userManager;
+        this.pageManager = pageManager;
+        this.permissionManager = permissionManager;
     }
   
     /**
@@ -76,8 +174,17 @@ public class JiraRequest {
      * Defines the /issuereport REST endpoint which assembles a JQL query string to send to JIRA.
      * Query parameters are passed in with requestData.
      * 
+     * The report is queued exactly as by /issuereport/jobs, and the job is returned at once rather
+     * than holding the request thread until the report is built.  The caller polls
+     * /issuereport/jobs/{jobId} and downloads the CSV from /issuereport/jobs/{jobId}/result, so a
+     * report that fails is seen as FAILED instead of as a truncated download.
+     * 
+     * An optional groupBy of story, epic, initiative or fixversion is checked here so a bad one is
+     * refused before any work is queued; pass it on to the result endpoint.
+     * 
      * @param requestData is a JSON string containing query parameters
-     * @return Response object containing the JIRA response.
+     * @return Response object, 202 holding the job status, 400 if the dates are missing or groupBy
+     *         is unknown, or 503 if the report queue is full.
      * 
      */
     @Path("/issuereport")
@@ -85,33 +192,245 @@ public class JiraRequest {
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces({MediaType.APPLICATION_JSON})
     public Response getIssueReport(String requestData) {
-        String issueReport = "";
-	
-	    	try {
+        if (ReportRollup.GroupBy.parse(reportGroupBy(requestData)) == null) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return submitIssueReport(requestData);
+    }
+    
+    /**
+     * submitIssueReport()
+     * 
+     * Defines the /issuereport/jobs REST endpoint.  The report is queued on the ReportJobManager
+     * and a job id is returned at once.  The caller polls /issuereport/jobs/{jobId} for progress and
+     * downloads the CSV from /issuereport/jobs/{jobId}/result once the job is DONE.
+     * 
+     * @param requestData is a JSON string containing query parameters
+     * @return Response object holding the job status, 400 for missing dates or 503 if the queue is full.
+     * 
+     */
+    @Path("/issuereport/jobs")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response submitIssueReport(String requestData) {
+        final String[] dates = reportDates(requestData);
+        if (dates == null) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        try {
+            ReportJob job = reportJobManager.submit(dates[0], dates[1], new ReportTask() {
+                public ReportModel run(ReportProgress progress) throws Exception {
+                    return buildIssueReport(dates[0], dates[1], progress);
+                }
+            });
+            return Response.status(Response.Status.ACCEPTED).entity(job.toJson().toString()).build();
+        } catch (RejectedExecutionException e) {
+            jiraMetrics.recordError("reportQueueFull");
+            log.warn("Report queue is full, rejecting report for {} to {}", dates[0], dates[1]);
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+    }
+    
+    /**
+     * getIssueReportStatus()
+     * 
+     * Defines the /issuereport/jobs/{jobId} REST endpoint returning the job's state, current stage and
+     * percent done.
+     * 
+     * @param jobId
+     * @return Response object holding the job status, or 404 if the job is unknown or expired.
+     * 
+     */
+    @Path("/issuereport/jobs/{jobId}")
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getIssueReportStatus(@PathParam("jobId") String jobId) {
+        ReportJob job = reportJobManager.getJob(jobId);
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(job.toJson().toString()).build();
+    }
+    
+    /**
+     * getIssueReportResult()
+     * 
+     * Defines the /issuereport/jobs/{jobId}/result REST endpoint which streams a finished job's CSV.
+     * The same finished job can be downloaded at any groupBy level.
+     * 
+     * @param jobId
+     * @param groupByParam story (default), epic, initiative or fixversion
+     * @return Response object streaming the CSV, 400 if groupBy is unknown, 404 if the job is unknown
+     *         or expired, or 409 if the job has not finished successfully.
+     * 
+     */
+    @Path("/issuereport/jobs/{jobId}/result")
+    @GET
+    @Produces({"text/csv", MediaType.APPLICATION_JSON})
+    public Response getIssueReportResult(@PathParam("jobId") String jobId, @QueryParam("groupBy") String groupByParam) {
+        ReportRollup.GroupBy groupBy = ReportRollup.GroupBy.parse(groupByParam);
+        if (groupBy == null) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        ReportJob job = reportJobManager.getJob(jobId);
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (job.getState() != ReportJob.State.DONE) {
+            return Response.status(Response.Status.CONFLICT).entity(job.toJson().toString()).build();
+        }
+
+        return csvResponse(job.getStartDate(), job.getEndDate(), groupBy, job.getResult());
+    }
+    
+    /**
+     * reportDates()
+     * 
+     * Pull startDate and endDate out of a report request.
+     * 
+     * @param requestData
+     * @return String array of {startDate, endDate}, or null if either is missing.
+     * 
+     */
+    String[] reportDates(String requestData) {
+        try {
             JsonObject requestJson = (JsonObject) new JsonParser().parse(requestData);
-            String startDate = requestJson.get("startDate").getAsString();
-            String endDate = requestJson.get("endDate").getAsString();
-            String jql = "issuetype=sub-task and sprint is not EMPTY and worklogDate >= " + 
-                    startDate + " and worklogDate <= " + endDate;
-            
-            // First grab all sub-tasks that logged work between our date range.
-            JsonArray subtaskQuery = jqlQuery(jql);
-            // Now compress this down and add up all the logged work for each sub-task.
-            JsonArray compressedSubtaskList = parseSubtaskQuery(subtaskQuery, startDate, endDate);
-            // Now compress down all sub-tasks to give a final worklog sum for each story.
-            JsonArray storyList = parseStoryList(compressedSubtaskList);
-            // Iterate over each story and add it's parent Epic.
-            JsonArray epicList = queryEpic(storyList);
-            // Iterate over each Epic and add it's parent Initiative.
-            JsonArray initiativeList = queryInitiative(epicList);
+            return new String[] { requestJson.get("startDate").getAsString(), requestJson.get("endDate").getAsString() };
+        } catch (Exception e) {
+            log.warn("Exception in reportDates(): {}", e.toString());
+            return null;
+        }
+    }
+    
+    /**
+     * reportGroupBy()
+     * 
+     * Pull the optional groupBy out of a report request.
+     * 
+     * @param requestData
+     * @return String holding the groupBy value, or null if it is not set.
+     * 
+     */
+    String reportGroupBy(String requestData) {
+        try {
+            JsonObject requestJson = (JsonObject) new JsonParser().parse(requestData);
+            return requestJson.has("groupBy") ? requestJson.get("groupBy").getAsString() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+    
+    /**
+     * csvResponse()
+     * 
+     * Build a CSV attachment response written through a StreamingOutput.  Only finished reports are
+     * written, so nothing can fail after the 200 is sent.  Rows are written to the response as they
+     * are formatted rather than being built up into one String.
+     * 
+     * @param startDate
+     * @param endDate
+     * @param groupBy level to write
+     * @param model a finished report
+     * @return Response object streaming the CSV report.
+     * 
+     */
+    Response csvResponse(String startDate, String endDate, final ReportRollup.GroupBy groupBy, final ReportModel model) {
+        StreamingOutput stream = new StreamingOutput() {
+            public void write(OutputStream output) throws IOException {
+                long started = System.nanoTime();
+                Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+                CsvWriter csv = new CsvWriter(writer);
+                csv.writeRow(CSV_HEADER);
+                formatCSV(model, groupBy, csv);
+                csv.flush();
+                jiraMetrics.recordStage("csv", System.nanoTime() - started);
+            }
+        };
 
-            issueReport = formatCSV(initiativeList);
+        // The dates come from the client so keep only safe characters in the file name.
+        String fileName = ("JIRA_query_" + startDate + "_" + endDate + "_" + groupBy.name().toLowerCase()).replaceAll("[^0-9A-Za-z_-]", "") + ".csv";
+        return Response.ok(stream, "text/csv")
+                .header("Content-Disposition", "attachment; filename=\"" + fileName + "\"")
+                .build();
+    }
+    
+    /**
+     * buildIssueReport()
+     * 
+     * Runs the report pipeline for a date range: search for sub-tasks with work logged in the range,
+     * sum their worklogs, add each sub-task's story Epic and Initiative, then roll the sub-tasks up to
+     * every ReportRollup.GroupBy level.  Each stage is announced through progress and timed into
+     * JiraMetrics, as is the whole run under "report".
+     * 
+     * A search or worklog page that cannot be fetched, or an Epic or Initiative lookup that fails,
+     * fails the whole report rather than leaving its issues out or their parents blank, so the job
+     * ends FAILED and an incomplete report is never cached.
+     * 
+     * @param startDate
+     * @param endDate
+     * @param progress
+     * @return ReportModel with 1 row per story and its rollup, ready for formatCSV().
+     * @throws Exception if any part of the sub-task search or parent lookups failed
+     * 
+     */
+    ReportModel buildIssueReport(String startDate, String endDate, ReportProgress progress) throws Exception {
+        ReportModel model = new ReportModel();
+        long reportStarted = System.nanoTime();
+        long stageStarted = reportStarted;
 
-	    	} catch (Exception e) {
-	    		System.out.println("Exception in getIssueReport(): " + e);
-	    	}
-	
-	    	return Response.ok(issueReport).build();
+        try {
+            String jql = SUBTASK_JQL + " and worklogDate >= " + startDate + " and worklogDate <= " + endDate;
+            
+            // Grab all sub-tasks that logged work between our date range and, as each page streams in,
+            // compress them down and add up all the logged work for each sub-task.  With the worklog
+            // index on and current, the sums come from the index, which syncs in the background.
+            progress.stage("Searching sub-tasks", 5);
+            if (jiraSettings.isWorklogIndexEnabled() && worklogIndex.isCurrent()) {
+                model = indexedSubtaskQuery(startDate, endDate);
+            } else {
+                model = parseSubtaskQuery(jql, startDate, endDate);
+            }
+            stageStarted = stageDone("subtasks", stageStarted);
+            // Iterate over each sub-task's story and add it's parent Epic.
+            progress.stage("Looking up epics", 50);
+            queryEpic(model);
+            stageStarted = stageDone("epics", stageStarted);
+            // Iterate over each Epic and add it's parent Initiative.
+            progress.stage("Looking up initiatives", 75);
+            queryInitiative(model);
+            stageStarted = stageDone("initiatives", stageStarted);
+            // Sum the sub-tasks up to every group-by level in one pass and keep the story rows.
+            progress.stage("Summing", 95);
+            ReportRollup rollup = ReportRollup.aggregate(model);
+            model.setRollup(rollup);
+            model.setRows(rollup.getRows(ReportRollup.GroupBy.STORY));
+            stageDone("rollup", stageStarted);
+        } catch (Exception e) {
+            jiraMetrics.recordError("buildIssueReport");
+            log.error("Exception in buildIssueReport()", e);
+            throw e;
+        } finally {
+            jiraMetrics.recordStage("report", System.nanoTime() - reportStarted);
+        }
+        return model;
+    }
+    
+    /**
+     * stageDone()
+     * 
+     * Record the time since started against a pipeline stage in JiraMetrics.
+     * 
+     * @param stage
+     * @param started System.nanoTime() when the stage began
+     * @return long holding System.nanoTime() now, the start of the next stage.
+     * 
+     */
+    long stageDone(String stage, long started) {
+        long now = System.nanoTime();
+        jiraMetrics.recordStage(stage, now - started);
+        return now;
     }
     
     /**
@@ -119,47 +438,118 @@ public class JiraRequest {
      * 
      * Performs a POST via the Application Link to JIRA. It hits the /rest/api/latest/search
      * endpoint.  The payload is formed with the passed in jql string argument.  "startAt" and 
-     * "maxResults" are also set in the payload.  Make sure that maxResults is always higher
-     * than the number of issues being queried as paging is not done here.
+     * "maxResults" are also set in the payload.
+     * 
+     * The first page is requested on the calling thread and tells us the total.  The remaining
+     * startAt offsets are then requested on the JiraExecutor pool, getSearchParallelism() pages at a
+     * time.  Each page is read off the response stream by SearchPageParser; pages other than the
+     * first are buffered as compact records until every earlier page has been handed over, so the
+     * handler always sees the issues in search order, on the calling thread.
+     * 
+     * When fields is not null only those fields are requested for each issue.  Otherwise JIRA
+     * returns its default navigable field set.
      * 
      * @param jql
-     * @return JsonObject represent a JQL query of all subtasks with work logged between the start/end date.
+     * @param fields
+     * @param handler
+     * @return int representing the number of issues handed to the handler.
+     * @throws Exception if any page could not be fetched or parsed; the handler has then seen only
+     *         part of the results
      * 
      */
-    JsonArray jqlQuery(String jql) {
-        JsonArray aggregateResponse = new JsonArray();
+    int jqlQuery(String jql, String[] fields, SearchPageParser.IssueHandler handler) throws Exception {
+        int issueCount = 0;
         
         try {
-            ApplicationLinkRequestFactory requestFactory = jiraApplicationLink.createAuthenticatedRequestFactory();
-            String endpoint = "/rest/api/latest/search";
-            request = requestFactory.createRequest(MethodType.POST, endpoint);
-            request.setHeader("Content-Type", MediaType.APPLICATION_JSON);
-            
-            JsonObject requestBody = new JsonObject();
+            final JsonObject requestBody = new JsonObject();
 
             requestBody.addProperty("jql", jql);
-            requestBody.addProperty("maxResults", 50);
-
-            int startAt = 0;
-            int currentResults = 0;
-            int totalResults = 0;
-
-            while (currentResults <= totalResults) {
-                requestBody.addProperty("startAt", startAt);
-                System.out.println("Request to JIRA: " + endpoint + "\nBody: " + requestBody.toString());
-                request.setRequestBody(requestBody.toString());
-                JsonObject response = (JsonObject) new JsonParser().parse( request.execute() );
-                aggregateResponse.addAll(response.get("issues").getAsJsonArray());
-                totalResults = response.get("total").getAsInt();
-                currentResults += response.get("maxResults").getAsInt();
-                startAt = currentResults;
+            requestBody.addProperty("maxResults", jiraSettings.getSearchPageSize());
+            if (fields != null) {
+                JsonArray fieldList = new JsonArray();
+                for (String field : fields) {
+                    fieldList.add(field);
+                }
+                requestBody.add("fields", fieldList);
+            }
+
+            SearchPageParser.PageInfo firstPage = searchPage(requestBody, 0, handler);
+            issueCount += firstPage.getIssueCount();
+
+            // JIRA may return fewer results per page than we asked for, so step by what it actually used.
+            int pageSize = firstPage.getMaxResults();
+            int totalResults = firstPage.getTotal();
+            if (pageSize <= 0) {
+                return issueCount;
+            }
+
+            List<Integer> offsets = new ArrayList<Integer>();
+            for (int startAt = pageSize; startAt < totalResults; startAt += pageSize) {
+                offsets.add(startAt);
+            }
+
+            int window = jiraSettings.getSearchParallelism();
+            for (int from=0; from<offsets.size(); from+=window) {
+                List<Callable<List<SubtaskRecord>>> pages = new ArrayList<Callable<List<SubtaskRecord>>>();
+                for (final Integer startAt : offsets.subList(from, Math.min(from + window, offsets.size()))) {
+                    pages.add(new Callable<List<SubtaskRecord>>() {
+                        public List<SubtaskRecord> call() throws Exception {
+                            final List<SubtaskRecord> buffer = new ArrayList<SubtaskRecord>();
+                            searchPage(requestBody, startAt, new SearchPageParser.IssueHandler() {
+                                public void issue(SubtaskRecord record) {
+                                    buffer.add(record);
+                                }
+                            });
+                            return buffer;
+                        }
+                    });
+                }
+
+                List<List<SubtaskRecord>> results = jiraExecutor.invokeAll(pages);
+                for (int i=0; i<results.size(); i++) {
+                    List<SubtaskRecord> page = results.get(i);
+                    if (page == null) {
+                        jiraMetrics.recordError("searchPage");
+                        throw new JiraClientException("Search page at startAt=" + offsets.get(from + i) + " failed", 0);
+                    }
+                    for (SubtaskRecord record : page) {
+                        handler.issue(record);
+                    }
+                    issueCount += page.size();
+                }
             }
             
         } catch (Exception e) {
-            System.out.println("Exception in jqlQuery(): " + e);
+            // Logged once, by buildIssueReport() or the caller.
+            jiraMetrics.recordError("jqlQuery");
+            throw e;
         }
         
-        return aggregateResponse;
+        return issueCount;
+    }
+    
+    /**
+     * searchPage()
+     * 
+     * POST one page of a search to JIRA and stream its issues into the handler.  Safe to call
+     * concurrently so pages can be fetched in parallel.
+     * 
+     * @param requestBody search payload without startAt; it is not modified
+     * @param startAt
+     * @param handler
+     * @return PageInfo for the page.
+     * @throws Exception if the request fails or the page cannot be parsed
+     * 
+     */
+    SearchPageParser.PageInfo searchPage(JsonObject requestBody, int startAt, SearchPageParser.IssueHandler handler) throws Exception {
+        JsonObject pageBody = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : requestBody.entrySet()) {
+            pageBody.add(entry.getKey(), entry.getValue());
+        }
+        pageBody.addProperty("startAt", startAt);
+
+        log.debug("Request to JIRA: /rest/api/latest/search body {}", pageBody);
+        return jiraClient.search(pageBody, handler);
     }
     
     /**
@@ -167,419 +557,1380 @@ public class JiraRequest {
      * 
      * Performs a GET via the Application Link to JIRA.  It hits the /rest/api/latest/issue/<issueKey> 
      * endpoint.  The issue key string is passed in as an argument and JSON structure for the key is returned.  
+     * Only the listed fields are asked for, which keeps comments, changelog and every other custom field
+     * out of the response.
+     * 
+     * This is called concurrently from the JiraExecutor pool.  Failures are thrown rather than
+     * turned into an empty issue here, so the pool reports them and issueQueries() decides what a
+     * failed lookup stands for.
      * 
      * @param issue
+     * @param fields
      * @return JsonObject representing details for the issue key
+     * @throws JiraClientException if JIRA could not be asked or refused the lookup
      * 
      */
-    JsonObject issueQuery(String issue) {
-        JsonObject responseJson = new JsonObject();
-        
-        try {
-            ApplicationLinkRequestFactory requestFactory = jiraApplicationLink.createAuthenticatedRequestFactory();
-            String endpoint = "/rest/api/latest/issue/" + issue;
-            request = requestFactory.createRequest(MethodType.GET, endpoint);
-            request.setHeader("Content-Type", MediaType.APPLICATION_JSON);
-
-            String response = request.execute();
-            responseJson = (JsonObject) new JsonParser().parse(response);
-        } catch (Exception e) {
-            System.out.println("Exception in issueQuery(): " + e);
-        }
-        
-        return responseJson;
+    JsonObject issueQuery(String issue, String[] fields) throws JiraClientException {
+        return jiraClient.getIssue(issue, fields, null);
     }
     
     /**
      * parseSubtaskQuery()
      * 
-     * Given a JSON object with all the queried subtasks as well as a start/end date, 
-     * this method sums up the worklog in each subtask and returns a JsonArray with 1
-     * element for each subtask.  The subtask key, parent story key and aggregate work
-     * logged are all returned.
+     * Runs the sub-task JQL search and, as each issue streams in, sums up the worklog in the
+     * start/end date range.  Both the start and end day are included.  A ReportModel with 1 compact
+     * row for each subtask is returned, holding the parent story key, fixVersion and aggregate work
+     * logged.
+     * 
+     * The parent, worklog and fixVersions fields are normally already present on the search
+     * results.  Any issue missing them is hydrated with batched "key in (...)" searches rather
+     * than one GET per issue, so the number of JIRA calls depends on the page count only.
      * 
-     * @param subtasks
+     * JIRA only embeds the first page of an issue's worklog in search results.  Issues whose
+     * embedded worklog is shorter than its total are fetched again through fetchWorklogs(); all
+     * other issues cost no extra calls.
+     * 
+     * @param jql
      * @param startDate
      * @param endDate
-     * @return JsonArray representing each subtask with parent story and aggregate worklog.
+     * @return ReportModel representing each subtask with parent story and aggregate worklog.
+     * @throws Exception if a search page or worklog fetch failed, since the rows would be incomplete
      * 
      */
-    JsonArray parseSubtaskQuery(JsonArray issues, String startDate, String endDate) {
-        JsonArray compressedSubtasks = new JsonArray();
+    ReportModel parseSubtaskQuery(String jql, String startDate, String endDate) throws Exception {
+        final ReportModel model = new ReportModel();
          
         try {
-            DateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd");
-            Date formattedStartDate = (Date)dateFormatter.parse(startDate);
-            Date formattedEndDate = (Date)dateFormatter.parse(endDate);
-
-            for (int i=0; i<issues.size(); i++ ) {
-                String issueKey = issues.get(i).getAsJsonObject().get("key").getAsString();
-                JsonObject subtask = issueQuery(issueKey);
-                JsonObject strippedSubtask = new JsonObject();
-                strippedSubtask.addProperty("subtaskKey", subtask.get("key").getAsString());
-                strippedSubtask.addProperty("storyKey", subtask.getAsJsonObject("fields").getAsJsonObject("parent").get("key").getAsString());
-                JsonObject worklog = subtask.getAsJsonObject("fields").getAsJsonObject("worklog");
-                JsonArray worklogs = worklog.getAsJsonArray("worklogs");
-                int timeSpentSeconds = 0;
-                for (int j=0; j<worklog.get("total").getAsInt(); j++) {
-                    JsonObject worklogEntry = worklogs.get(j).getAsJsonObject();
-                    String started = worklogEntry.get("started").getAsString();
-                    Date formattedStarted = (Date)dateFormatter.parse(started.substring(0, 10)); // Grab date string only.  Perhaps later we'll add time as well.
-                    if (formattedStarted.after(formattedStartDate) && formattedStarted.before(formattedEndDate)) {
-                        timeSpentSeconds += worklogEntry.get("timeSpentSeconds").getAsInt();
+            final int startDay = WorklogFilter.epochDay(startDate);
+            final int endDay = WorklogFilter.epochDay(endDate);
+            if (startDay == WorklogFilter.INVALID_DAY || endDay == WorklogFilter.INVALID_DAY) {
+                log.warn("Invalid report dates {} to {}", startDate, endDate);
+                return model;
+            }
+
+            // Rows stay in search order.  Incomplete issues leave a null slot that hydration fills in.
+            final List<ReportRow> rows = new ArrayList<ReportRow>();
+            final Map<String, Integer> missing = new LinkedHashMap<String, Integer>();
+            final Map<Integer, SubtaskRecord> truncated = new LinkedHashMap<Integer, SubtaskRecord>();
+
+            jqlQuery(jql, SUBTASK_FIELDS, new SearchPageParser.IssueHandler() {
+                public void issue(SubtaskRecord record) {
+                    if (record.isComplete() && record.isWorklogTruncated()) {
+                        truncated.put(rows.size(), record);
+                        rows.add(null);
+                    } else if (record.isComplete()) {
+                        rows.add(compressSubtask(model, record, startDay, endDay));
+                    } else {
+                        missing.put(record.getKey(), rows.size());
+                        rows.add(null);
+                    }
+                }
+            });
+
+            int batchSize = jiraSettings.getHydrationBatchSize();
+            List<String> missingKeys = new ArrayList<String>(missing.keySet());
+            for (int from=0; from<missingKeys.size(); from+=batchSize) {
+                List<String> batch = missingKeys.subList(from, Math.min(from + batchSize, missingKeys.size()));
+                String batchJql = "key in (" + String.join(",", batch) + ")";
+                jqlQuery(batchJql, SUBTASK_FIELDS, new SearchPageParser.IssueHandler() {
+                    public void issue(SubtaskRecord record) {
+                        Integer slot = missing.get(record.getKey());
+                        if (slot != null && record.isComplete() && record.isWorklogTruncated()) {
+                            truncated.put(slot, record);
+                        } else if (slot != null && record.isComplete()) {
+                            rows.set(slot, compressSubtask(model, record, startDay, endDay));
+                        }
                     }
+                });
+            }
+
+            List<SubtaskRecord> fullRecords = fetchWorklogs(new ArrayList<SubtaskRecord>(truncated.values()));
+            int i = 0;
+            for (Map.Entry<Integer, SubtaskRecord> slot : truncated.entrySet()) {
+                SubtaskRecord full = fullRecords.get(i++);
+                if (full == null) {
+                    jiraMetrics.recordError("worklogQuery");
+                    throw new JiraClientException("Worklog fetch for " + slot.getValue().getKey() + " failed", 0);
+                }
+                rows.set(slot.getKey(), compressSubtask(model, full, startDay, endDay));
+            }
+
+            for (ReportRow row : rows) {
+                if (row != null) {
+                    model.getRows().add(row);
                 }
-                strippedSubtask.addProperty("timeSpent", timeSpentSeconds);
-                compressedSubtasks.add(strippedSubtask);
             }
         } catch (Exception e) {
-            System.out.println("Exception in parseSubtaskQuery(); " + e);
+            jiraMetrics.recordError("parseSubtaskQuery");
+            throw e;
         }
         
-        return compressedSubtasks;
+        return model;
     }
     
     /**
-     * parseStoryList()
+     * indexedSubtaskQuery()
      * 
-     * Given a subtask list as an argument, this method sums all the subtask logged work and returns a JsonArray with 1
-     * entry per story.  Each contains the story key and logged work.
+     * Build the sub-task rows from the WorklogIndex rather than the worklogs on the search results.
+     * The index gives the seconds per issue id for the date range.  Only the parent and fixVersion
+     * of those issues are then searched for, in batches of "id in (...)", which also applies the
+     * usual sub-task and sprint filter.
      * 
-     * @param subtaskList
-     * @return JsonArray with 1 entry per story containing the logged work.
+     * @param startDate
+     * @param endDate
+     * @return ReportModel representing each subtask with parent story and aggregate worklog.
+     * @throws Exception if a search page failed
      * 
      */
-    JsonArray parseStoryList(JsonArray subtaskList) {
-        JsonArray list = new JsonArray();
-        
+    ReportModel indexedSubtaskQuery(String startDate, String endDate) throws Exception {
+        final ReportModel model = new ReportModel();
+
         try {
-            ArrayList<JsonObject> storyList = new ArrayList<JsonObject>();
-            String storyKey = "";
-            int timeSpent = 0;
-            int i = 0;
-            Iterator<JsonElement> iterator = subtaskList.iterator();
-            while (iterator.hasNext()) {
-                JsonObject subtask = iterator.next().getAsJsonObject();
-              // Case 1: Start of the subtask list
-                if (storyKey.isEmpty()) {  
-                    JsonObject story = new JsonObject();
-                    storyKey = subtask.get("storyKey").getAsString();
-                    story.addProperty("storyKey", storyKey);
-                    timeSpent += subtask.get("timeSpent").getAsInt();
-                    story.addProperty("timeSpent", timeSpent);
-                    storyList.add(story);
-              // Case 2: Story already exists in list    
-                } else if (storyKey.equals( subtask.get("storyKey").getAsString() ) ) {  
-                    JsonObject story = storyList.get(i).getAsJsonObject();
-                    timeSpent += subtask.get("timeSpent").getAsInt();
-                    story.addProperty("timeSpent", timeSpent);
-                    storyList.set(i, story);
-              // Case 3: New story for the lists
-                } else {  
-                    i++;
-                    JsonObject story = new JsonObject();
-                    storyKey = subtask.get("storyKey").getAsString();
-                    timeSpent = subtask.get("timeSpent").getAsInt();
-                    story.addProperty("storyKey", storyKey);
-                    story.addProperty("timeSpent", timeSpent);
-                    storyList.add(story);
-                }
+            int startDay = WorklogFilter.epochDay(startDate);
+            int endDay = WorklogFilter.epochDay(endDate);
+            if (startDay == WorklogFilter.INVALID_DAY || endDay == WorklogFilter.INVALID_DAY) {
+                log.warn("Invalid report dates {} to {}", startDate, endDate);
+                return model;
             }
-            
-            // This is horrible!  Fix soon.
-            for (int j=0; j<storyList.size(); j++)  {
-                list.add(storyList.get(j));
+
+            final Map<Long, Long> seconds = worklogIndex.secondsByIssue(startDay, endDay);
+            List<String> issueIds = new ArrayList<String>(seconds.size());
+            for (Long issueId : seconds.keySet()) {
+                issueIds.add(issueId.toString());
+            }
+
+            int batchSize = jiraSettings.getHydrationBatchSize();
+            for (int from=0; from<issueIds.size(); from+=batchSize) {
+                List<String> batch = issueIds.subList(from, Math.min(from + batchSize, issueIds.size()));
+                String batchJql = SUBTASK_JQL + " and id in (" + String.join(",", batch) + ")";
+                jqlQuery(batchJql, INDEXED_SUBTASK_FIELDS, new SearchPageParser.IssueHandler() {
+                    public void issue(SubtaskRecord record) {
+                        Long timeSpentSeconds = seconds.get(Long.valueOf(record.getId()));
+                        if (record.getParentKey() != null && timeSpentSeconds != null) {
+                            model.addRow(record.getParentKey(), record.getFixVersion(), timeSpentSeconds);
+                        }
+                    }
+                });
             }
         } catch (Exception e) {
-            System.out.println("Exception in parseStoryList(): " + e);
+            jiraMetrics.recordError("indexedSubtaskQuery");
+            throw e;
         }
-        
-        return list;
+
+        return model;
     }
     
     /**
-     * queryEpic()
+     * fetchWorklogs()
      * 
-     * Given a JSON Array list of stories passed as an argument, this method walks each
-     * and queries JIRA to get the parent Epic.  It's parsed from the JSON response.  Note 
-     * that the customfield_xxxxx is different for each JIRA instance.
+     * Fetch the complete worklog of each record from /rest/api/2/issue/{key}/worklog.  Each issue is
+     * paged on its own task and the tasks run on the shared JiraExecutor pool, so no more than
+     * getLookupParallelism() issues are fetched at once.
      * 
-     * Note that fixVersion is added as well but only 1.  It is possible to have multiple fixVersion
-     * strings.  If this is a valid workflow, it will need to be handled here.
-     * 
-     * The Epic key is added on as a new property to the list and returned.
-     * 
-     * @param storyList
-     * @return JSON Array representing a list of all stories, parent epics, fixVersion and work logged.
+     * @param records sub-tasks whose embedded worklog was truncated
+     * @return List of records holding every worklog entry, in the same order.  A record whose fetch
+     *         failed or timed out maps to null.
      * 
      */
-    JsonArray queryEpic(JsonArray storyList) {
-        JsonArray epicList = new JsonArray();
-        System.out.println("storyList size: " + storyList.size() );
-        try {
-            Iterator<JsonElement> iterator = storyList.iterator();
-            while (iterator.hasNext()) {                JsonObject storyElement = iterator.next().getAsJsonObject();
-                JsonObject story = issueQuery(storyElement.get("storyKey").getAsString());
-                JsonArray fixVersions = story.get("fields").getAsJsonObject().get("fixVersions").getAsJsonArray();
-                String fixVersion = "";
-                if ( fixVersions.size() > 0 ) {
-                    fixVersion = fixVersions.get(0).getAsJsonObject().get("name").getAsString();
-                }
-                // customfield_xxxxx is unique to each JIRA instance and represents the parent Epic
-                JsonObject fields = story.get("fields").getAsJsonObject();
-                String epicKey = "";
-                if ( !fields.isJsonNull() ) {
-                    try {
-                        epicKey = fields.get("customfield_10001").getAsString();
-                    } catch (Exception e) {
-                        // If the epic field is not populated, don't do anything.
-                        // Fill with an empty string and move on.
-                        //System.out.println("Can't get customfield_10001");
-                    }
+    List<SubtaskRecord> fetchWorklogs(List<SubtaskRecord> records) {
+        List<Callable<SubtaskRecord>> fetches = new ArrayList<Callable<SubtaskRecord>>(records.size());
+        for (final SubtaskRecord record : records) {
+            fetches.add(new Callable<SubtaskRecord>() {
+                public SubtaskRecord call() throws Exception {
+                    return worklogQuery(record);
                 }
-                storyElement.addProperty("fixVersion", fixVersion);
-                storyElement.addProperty("epicKey", epicKey);
-                epicList.add(storyElement);
-            }
-        } catch (Exception e) {
-            System.out.println("Exception in queryEpic(): " + e);
+            });
         }
-        
-        return epicList;
+        return jiraExecutor.invokeAll(fetches);
     }
     
     /**
-     * queryInitiative()
+     * worklogQuery()
      * 
-     * Given a JSON Array list containing epics passed as an argument, this method walks each 
-     * and queries JIRA to get the parent Initiative.  It's parsed from the JSON response.  Note 
-     * that the customfield_xxxxx is different for each JIRA instance.
-     * 
-     * The Initiative key is add on as a new property to the list and returned.
+     * Page through one issue's worklog, WORKLOG_PAGE_SIZE entries at a time, until JIRA's total
+     * is reached.
      * 
-     * @param epicList
-     * @return JSON Array representing a list of epics and there parent initiatives.
+     * @param record
+     * @return SubtaskRecord copy of record holding every worklog entry.
+     * @throws JiraClientException if any page fails
      * 
      */
-    JsonArray queryInitiative(JsonArray epicList) {
-        JsonArray initiativeList = new JsonArray();
-        
-        try {
-            Iterator<JsonElement> iterator = epicList.iterator();
-            while (iterator.hasNext()) {
-                JsonObject epicElement = iterator.next().getAsJsonObject();
-                String epicKey = epicElement.get("epicKey").getAsString();
-                String initiativeKey = "";
-                if (!epicKey.isEmpty()) {
-                    JsonObject epic = issueQuery(epicKey);
-                    JsonObject fields = epic.get("fields").getAsJsonObject();
-                    // customfield_xxxxx is unique to each JIRA instance and represents the parent Initiative
-                    try {
-                        initiativeKey = fields.get("customfield_10007").getAsString();
-                    } catch (Exception e) {
-                        // If initiative field is not populated, don't do anything.
-                        // Just populate with an empty string and move on.
-                        //System.out.println("Can't get customfield_10007");
-                    }
+    SubtaskRecord worklogQuery(SubtaskRecord record) throws JiraClientException {
+        SubtaskRecord full = record.copyWithoutWorklogs();
+        int startAt = 0;
+        while (true) {
+            JsonObject page = jiraClient.getWorklogs(record.getKey(), startAt, WORKLOG_PAGE_SIZE);
+            JsonArray worklogs = page.has("worklogs") ? page.getAsJsonArray("worklogs") : new JsonArray();
+            for (JsonElement worklog : worklogs) {
+                JsonObject entry = worklog.getAsJsonObject();
+                if (entry.has("started")) {
+                    int seconds = entry.has("timeSpentSeconds") ? entry.get("timeSpentSeconds").getAsInt() : 0;
+                    full.addWorklog(entry.get("started").getAsString(), seconds);
                 }
-                epicElement.addProperty("initiativeKey", initiativeKey);
-                initiativeList.add(epicElement);
             }
-        } catch (Exception e) {
-            System.out.println("Exception in queryInitiative(): " + e);
+            int total = page.has("total") ? page.get("total").getAsInt() : 0;
+            // Older JIRA servers ignore startAt and return everything on the first page.
+            startAt += worklogs.size();
+            if (worklogs.size() == 0 || startAt >= total) {
+                break;
+            }
         }
-        
-        return initiativeList;
+        return full;
     }
     
     /**
-     * formatCSV()
+     * compressSubtask()
      * 
-     * Given a JsonArray list of issues passed in as an argument, format into a comma-delimited
-     * string.
+     * Reduce one parsed sub-task to a row holding its story key, fixVersion and the seconds
+     * logged from startDay to endDay inclusive.  The row is not added to the model.
      * 
-     * @param issueList
-     * @return String representing CSV format of the data
+     * @param model
+     * @param record
+     * @param startDay epoch day, see WorklogFilter.epochDay()
+     * @param endDay epoch day
+     * @return ReportRow representing the compact sub-task.
      * 
      */
-    String formatCSV(JsonArray issueList) {
-        String response = "fixVersion,timeSpent,story,epic,initiative\n";
-        try {
-            Iterator<JsonElement> iterator = issueList.iterator();
-            
-            while (iterator.hasNext()) {
-                JsonObject issueElement = iterator.next().getAsJsonObject();
-                response += issueElement.get("fixVersion").getAsString() + ","
-                        + issueElement.get("timeSpent").getAsString() + ","
-                        + issueElement.get("storyKey").getAsString() + ","
-                        + issueElement.get("epicKey").getAsString() + ","
-                        + issueElement.get("initiativeKey").getAsString() 
-                        + "\n";
-            }
-            
-        } catch (Exception e) {
-            System.out.println("Exception in formatCSV(): " + e);
-        }
-        return response;
+    ReportRow compressSubtask(ReportModel model, SubtaskRecord record, int startDay, int endDay) {
+        long timeSpentSeconds = WorklogFilter.sumInRange(record, startDay, endDay);
+        return new ReportRow(model.intern(record.getParentKey()), model.fixVersionId(record.getFixVersion()), timeSpentSeconds);
     }
-
+    
     /**
-     * updateIssue()
+     * firstFixVersion()
      * 
-     * Defines the /updateissue REST endpoint and allows for the creation/update of an issue
-     * in JIRA.  Fields for this issue are passed in via requestData.  
+     * Return the name of the first fixVersion in an issue's fields or an empty string.
      * 
-     * @param requestData
-     * @return Response object representing the response from JIRA
+     * @param fields
+     * @return String representing the fixVersion name.
      * 
      */
-    @Path("/updateissue")
-    @POST
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces({MediaType.APPLICATION_JSON})
-    public Response updateIssue(String requestData) {
-        String response = appLinkPost(requestData);
-         
-        if (response.isEmpty()) {
-            return Response.serverError().build();
+    String firstFixVersion(JsonObject fields) {
+        String fixVersion = "";
+        if (fields != null && fields.has("fixVersions") && fields.get("fixVersions").isJsonArray()) {
+            JsonArray fixVersions = fields.getAsJsonArray("fixVersions");
+            if ( fixVersions.size() > 0 ) {
+                fixVersion = fixVersions.get(0).getAsJsonObject().get("name").getAsString();
+            }
         }
-
-        return Response.ok(response).build();
+        return fixVersion;
     }
     
     /**
-     * requestBody()
+     * queryEpic()
      * 
-     * Helper method that assembles the request data object that will be sent to JIRA via
-     * a POST.
+     * Given a model of sub-task rows passed as an argument, this method walks each
+     * story and queries JIRA to get the parent Epic.  It's parsed from the JSON response.  Note 
+     * that the customfield_xxxxx is different for each JIRA instance, so it is read from the
+     * JiraFieldMapping setting.  Stories shared by several rows are queried once.
      * 
-     * All cached page properties are assigned to a JSON object in a format needed by JIRA.
+     * Note that fixVersion is added as well but only 1.  It is possible to have multiple fixVersion
+     * strings.  If this is a valid workflow, it will need to be handled here.
      * 
-     * This method is very much a work in progress since all desired custom fields in JIRA
-     * that need to be set from Confluence must be mapped here.  As these fields are defined 
-     * and mapped to the macro text areas, they should be entered below.
+     * The Epic key and fixVersion are set on each row in place.
      * 
-     * @return String conversion of the JSON object that will be sent to JIRA.
+     * @param model
+     * @throws JiraClientException if any story could not be looked up, since its rows would be
+     *         reported without an Epic
      * 
      */
-    public String requestBody(String requestData) {
-        JsonObject request = new JsonObject();
-        JsonObject fields = new JsonObject();
-        JsonObject project = new JsonObject();
-        JsonObject issueType = new JsonObject();
+    void queryEpic(ReportModel model) throws JiraClientException {
+        List<ReportRow> storyList = model.getRows();
+        log.debug("subtask row count: {}", storyList.size());
         try {
-            JsonObject requestJson = (JsonObject) new JsonParser().parse(requestData);
-            
-            // These are basic fields needed to create/update a JIRA issue
-            project.addProperty("key", requestJson.get("project").getAsString());
-            issueType.addProperty("name", requestJson.get("issueType").getAsString());
+            List<String> storyKeys = new ArrayList<String>();
+            for (ReportRow row : storyList) {
+                storyKeys.add(row.getStoryKey());
+            }
+            // customfield_xxxxx is unique to each JIRA instance and represents the parent Epic
+            Map<String, HierarchyLink> stories = lookupParents(storyKeys, jiraSettings.getFieldMapping().getEpicLinkField());
 
-            fields.add("project", project);
-            fields.addProperty("summary", requestJson.get("title").getAsString());
-            fields.addProperty("description", requestJson.get("title").getAsString());
-            fields.add("issuetype", issueType);
-            String projectProperty = requestJson.get("project").getAsString();
-            
-            // Below are the JIRA custom fields.  The extent of these are still being determined and should be 
-            // added here as needed.  Note that they are bypassed if using a project "TEST".  This allows 
-            // development using a sandbox JIRA with a simple "TEST" project defined.
-            if (!projectProperty.equals("TEST")) {
-                fields.addProperty("customfield_11301", requestJson.get("submitDate").getAsString());
-                //fields.addProperty("customfield_11601", "{value:" + pageProperties.get("customer").getAsString() + "}");
-                fields.addProperty("customfield_11302", requestJson.get("summary").getAsString());
-                fields.addProperty("customfield_10600", requestJson.get("deliveryDate").getAsString());
-                // fields.addProperty("customfield_TBD", pageProperties.get("statement").getAsString());  // not in JIRA yet
-                fields.addProperty("customfield_11303", requestJson.get("outcome").getAsString());
-                fields.addProperty("customfield_11304", requestJson.get("justification").getAsString());
-                fields.addProperty("customfield_11307", requestJson.get("revenue").getAsString());
-                //fields.addProperty("customfield_10405", "{value:" + pageProperties.get("opportunity").getAsString() + "}");
-                // fields.addProperty("customfield_TBD", pageProperties.get("expense").getAsString()); // not in JIRA yet
+            for (ReportRow row : storyList) {
+                HierarchyLink story = stories.get(row.getStoryKey());
+                // Prefer the story's own fixVersion and fall back on the one carried up from its sub-tasks.
+                if ( !story.getFixVersion().isEmpty() ) {
+                    row.setFixVersion(model.fixVersionId(story.getFixVersion()));
+                }
+                row.setEpicKey(model.intern(story.getParentKey()));
             }
-            request.add("fields", fields);
         } catch (Exception e) {
-            System.out.println("Exception on creating request body: " + e);
+            // Logged once, by buildIssueReport().
+            jiraMetrics.recordError("queryEpic");
+            throw e;
         }
-        return request.toString();
     }
     
     /**
-     * appLinkPost()
+     * queryInitiative()
      * 
-     * Helper method that will do the actual POST to JIRA.  It assembles a request object from the ApplicationLink
-     * to JIRA.
+     * Given a model whose rows carry Epics passed as an argument, this method walks each 
+     * and queries JIRA to get the parent Initiative.  It's parsed from the JSON response.  Note 
+     * that the customfield_xxxxx is different for each JIRA instance, so it is read from the
+     * JiraFieldMapping setting.
      * 
-     * This helper is used both to create and update JIRA issues.  The issueKey parameter (inside JSON container) defines which is used.  
-     * If null, a new issue is created via a PUT.  Otherwise, the existing issue is updated via a POST.  The
-     * request headers are set.  The body of the request is set via a call to the requestBody() helper method.
+     * Each distinct epic is only queried once even when many stories share it.
      * 
-     * The response from the JIRA PUT/POST is returned.
-     *   
-     * @param requestData
-     * @return String representing Application Link JIRA POST response.
+     * The Initiative key is set on each row in place.
+     * 
+     * @param model
+     * @throws JiraClientException if any Epic could not be looked up
      * 
      */
-    public String appLinkPost(String requestData) {
-        String response = "";
-
+    void queryInitiative(ReportModel model) throws JiraClientException {
         try {
-            JsonObject jsonRequest = (JsonObject) new JsonParser().parse(requestData);
-            ApplicationLinkRequestFactory requestFactory = jiraApplicationLink.createAuthenticatedRequestFactory();
-            String endpoint = "/rest/api/2/issue";
-            String issueKey = jsonRequest.get("issueKey").getAsString();
-            if (!issueKey.isEmpty()) {  // Update issue scenario
-                endpoint += "/" + issueKey;
-                request = requestFactory.createRequest(MethodType.PUT, endpoint);
-            } else {   // Create issue scenario
-                request = requestFactory.createRequest(MethodType.POST, endpoint);
+            List<String> epicKeys = new ArrayList<String>();
+            for (ReportRow row : model.getRows()) {
+                if (!row.getEpicKey().isEmpty()) {
+                    epicKeys.add(row.getEpicKey());
+                }
             }
-            
-            request.setHeader("Content-Type", MediaType.APPLICATION_JSON);
-            String requestBody = requestBody(requestData);
-            System.out.println("Request to JIRA body: " + requestBody);
-            request.setRequestBody(requestBody);
-            response = request.execute();
-
-            // If the response back from JIRA is empty, store it as {"key": issueKey}
-            if (response.equals("")) {
-                JsonObject responseJson = new JsonObject();
-                responseJson.addProperty("key", issueKey);
-                response = responseJson.toString();
+            // customfield_xxxxx is unique to each JIRA instance and represents the parent Initiative
+            Map<String, HierarchyLink> epics = lookupParents(epicKeys, jiraSettings.getFieldMapping().getInitiativeLinkField());
+
+            for (ReportRow row : model.getRows()) {
+                if (!row.getEpicKey().isEmpty()) {
+                    row.setInitiativeKey(model.intern(epics.get(row.getEpicKey()).getParentKey()));
+                }
             }
         } catch (Exception e) {
-            System.out.println("Exception in appLinkPost(): " + e);
+            // Logged once, by buildIssueReport().
+            jiraMetrics.recordError("queryInitiative");
+            throw e;
         }
-
-        return response;
     }
     
     /**
-     * getIssueStatus()
+     * lookupParents()
      * 
-     * Fetch the details on a given JIRA issue passed in whith issueKey.  The complete JSON
-     * response is returned and it is up to the consumer to parse out the issue status.
-     *
+     * Resolve the parent key held in parentField, plus the first fixVersion, for each issue key.
+     * The IssueHierarchyCache is checked first and only the misses are queried from JIRA via
+     * issueQueries().  Successful lookups are written back to the cache.  An issue JIRA no longer
+     * has gets an empty link that is not cached.
+     * 
+     * @param issueKeys
+     * @param parentField
+     * @return Map of issue key to its HierarchyLink.  Every key passed in is present.
+     * @throws JiraClientException if any lookup failed or timed out
+     * 
+     */
+    Map<String, HierarchyLink> lookupParents(List<String> issueKeys, String parentField) throws JiraClientException {
+        Map<String, HierarchyLink> links = new HashMap<String, HierarchyLink>();
+        List<String> misses = new ArrayList<String>();
+        for (String issueKey : issueKeys) {
+            if (links.containsKey(issueKey)) {
+                continue;
+            }
+            HierarchyLink link = hierarchyCache.get(issueKey);
+            links.put(issueKey, link);
+            if (link == null) {
+                misses.add(issueKey);
+            }
+        }
+
+        Map<String, JsonObject> issues = issueQueries(misses, new String[] { parentField, "fixVersions" });
+        for (Map.Entry<String, JsonObject> issue : issues.entrySet()) {
+            JsonObject fields = issue.getValue().getAsJsonObject("fields");
+            if (fields == null) {
+                links.put(issue.getKey(), new HierarchyLink(parentField, "", ""));
+                continue;
+            }
+            String parentKey = "";
+            try {
+                parentKey = fields.get(parentField).getAsString();
+            } catch (Exception e) {
+                // If the parent field is not populated, don't do anything.
+                // Fill with an empty string and move on.
+            }
+            HierarchyLink link = new HierarchyLink(parentField, parentKey, firstFixVersion(fields));
+            hierarchyCache.put(issue.getKey(), link);
+            links.put(issue.getKey(), link);
+        }
+
+        return links;
+    }
+    
+    /**
+     * issueQueries()
+     * 
+     * Run issueQuery() for each distinct key on the shared JiraExecutor pool.  An issue JIRA
+     * answers 404 for maps to an empty JsonObject, like an unpopulated issue.  Any other failure,
+     * including a call refused by the circuit breaker or a timeout, fails the whole lookup so it is
+     * never mistaken for an issue without a parent.  Each failed key is counted in JiraMetrics.
+     * 
+     * @param issueKeys
+     * @param fields asked for on every issue
+     * @return Map of issue key to the JIRA response, in first-seen key order.
+     * @throws JiraClientException if any lookup failed, carrying the first failure as its cause
+     * 
+     */
+    Map<String, JsonObject> issueQueries(List<String> issueKeys, final String[] fields) throws JiraClientException {
+        Map<String, JsonObject> issues = new LinkedHashMap<String, JsonObject>();
+        for (String issueKey : issueKeys) {
+            issues.put(issueKey, null);
+        }
+
+        List<String> keys = new ArrayList<String>(issues.keySet());
+        final Map<String, JiraClientException> failures = new ConcurrentHashMap<String, JiraClientException>();
+        List<Callable<JsonObject>> lookups = new ArrayList<Callable<JsonObject>>(keys.size());
+        for (final String issueKey : keys) {
+            lookups.add(new Callable<JsonObject>() {
+                public JsonObject call() throws JiraClientException {
+                    try {
+                        return issueQuery(issueKey, fields);
+                    } catch (JiraClientException e) {
+                        if (e.getStatusCode() == 404) {
+                            return new JsonObject();
+                        }
+                        failures.put(issueKey, e);
+                        throw e;
+                    }
+                }
+            });
+        }
+
+        // A null result is a lookup that threw or timed out.
+        List<JsonObject> results = jiraExecutor.invokeAll(lookups);
+        List<String> failed = new ArrayList<String>();
+        for (int i=0; i<keys.size(); i++) {
+            JsonObject result = results.get(i);
+            if (result == null) {
+                jiraMetrics.recordError("issueQuery");
+                failed.add(keys.get(i));
+            } else {
+                issues.put(keys.get(i), result);
+            }
+        }
+        if (!failed.isEmpty()) {
+            String message = failed.size() + " of " + keys.size() + " issue lookups failed, first " + failed.get(0);
+            JiraClientException cause = failures.get(failed.get(0));
+            throw cause != null ? new JiraClientException(message, cause) : new JiraClientException(message, 0);
+        }
+
+        return issues;
+    }
+    
+    /**
+     * formatCSV()
+     * 
+     * Given a report model passed in as an argument, write one comma-delimited row
+     * per row of the groupBy level to the CsvWriter.  The header row is written by the caller.
+     * 
+     * @param model
+     * @param groupBy
+     * @param csv
+     * @throws IOException if the client has gone away
+     * 
+     */
+    void formatCSV(ReportModel model, ReportRollup.GroupBy groupBy, CsvWriter csv) throws IOException {
+        for (ReportRow row : model.getRows(groupBy)) {
+            csv.writeRow(model.fixVersionName(row.getFixVersion()),
+                    Long.toString(row.getTimeSpentSeconds()),
+                    row.getStoryKey(),
+                    row.getEpicKey(),
+                    row.getInitiativeKey());
+        }
+    }
+
+    /**
+     * updateIssue()
+     * 
+     * Defines the /updateissue REST endpoint and allows for the creation/update of an issue
+     * in JIRA.  Fields for this issue are passed in via requestData.  
+     * 
+     * When requestData names the Charter page in pageId, the caller must be able to edit that page.
+     * The submitted charter fields, the issue key and a hash of each JIRA field sent are then stored
+     * on the page so /updateissue/bulk can sync it again later.  An update of such a page sends only
+     * the fields whose value changed since the last sync, and makes no JIRA call at all when none did.
+     * "force": true sends every field regardless, e.g. after the issue was edited in JIRA directly.
+     * 
+     * @param requestData
+     * @return Response holding the issue's key, status and browse link as for getIssueStatus(), plus
+     *         "fields", the JIRA field ids sent.  400 if requestData is not a charter or its issueKey
+     *         is not a JIRA key, 403 if the caller cannot edit the page named by pageId, or an error
+     *         status from jiraErrorResponse() if JIRA refused the change.
+     * 
+     */
+    @Path("/updateissue")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response updateIssue(String requestData) {
+        JsonObject requestJson;
+        JsonObject fields;
+        Page page = null;
+        try {
+            requestJson = (JsonObject) new JsonParser().parse(requestData);
+            fields = ((JsonObject) new JsonParser().parse(requestBody(requestData))).getAsJsonObject("fields");
+            if (requestJson.has("pageId") && !requestJson.get("pageId").getAsString().isEmpty()) {
+                page = pageManager.getPage(requestJson.get("pageId").getAsLong());
+            }
+        } catch (Exception e) {
+            log.warn("Exception in updateIssue(): {}", e.toString());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (fields == null) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (page != null && !permissionManager.hasPermission(AuthenticatedUserThreadLocal.get(), Permission.EDIT, page)) {
+            log.warn("updateIssue() refused: no edit permission on page {}", page.getId());
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        String issueKey = requestJson.has("issueKey") ? requestJson.get("issueKey").getAsString() : "";
+        if (!issueKey.isEmpty() && !ISSUE_KEY.matcher(issueKey).matches()) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        CharterProperties charter = page != null ? CharterProperties.load(page) : null;
+        boolean force = requestJson.has("force") && requestJson.get("force").getAsBoolean();
+        JsonObject changed = charter != null && !force && !issueKey.isEmpty() ? charter.unsynced(fields) : fields;
+
+        try {
+            issueKey = appLinkPost(issueKey, changed);
+        } catch (JiraClientException e) {
+            jiraMetrics.recordError("appLinkPost");
+            log.warn("Exception in appLinkPost(): {}", e.getMessage());
+            return jiraErrorResponse(e);
+        }
+
+        // A changed parent link or fix version moves the issue in the hierarchy.  Editing fields never
+        // transitions an issue, so its cached status still holds.
+        if (changed.entrySet().size() > 0) {
+            hierarchyCache.invalidate(issueKey);
+        }
+        if (charter != null) {
+            try {
+                storeCharter(charter, requestJson, issueKey, changed);
+            } catch (Exception e) {
+                log.warn("Exception storing the charter after an update", e);
+            }
+        }
+
+        JsonObject result;
+        try {
+            result = lookupStatus(issueKey).toJson();
+        } catch (JiraClientException e) {
+            // The change is in JIRA; the page fetches the status itself.
+            log.warn("Exception looking up the status of {} after an update: {}", issueKey, e.getMessage());
+            result = new JsonObject();
+            result.addProperty("key", issueKey);
+        }
+        JsonArray sent = new JsonArray();
+        for (Map.Entry<String, JsonElement> field : changed.entrySet()) {
+            sent.add(new JsonPrimitive(field.getKey()));
+        }
+        result.add("fields", sent);
+        return Response.ok(result.toString()).build();
+    }
+    
+    /**
+     * bulkUpdateIssues()
+     * 
+     * Defines the /updateissue/bulk REST endpoint, which creates or updates the JIRA issues of many
+     * Charter pages in one request.  The body is {"pageIds": [...]}.  Each page's charter is read from
+     * its page properties and turned into a requestBody() payload.  Pages without an issue key are
+     * created through /rest/api/2/issue/bulk, BULK_CREATE_CHUNK at a time, and the new keys are
+     * written back to the pages.  JIRA has no bulk update, so pages with a key are updated with one
+     * PUT each on the JiraExecutor pool, holding only the fields changed since the page was last
+     * synced.  Pages with no changes are not sent at all.
+     * 
+     * @param requestData is a JSON string holding the page ids
+     * @return Response object holding one result per page, in request order, with pageId, title,
+     *         status (created, updated, unchanged or failed), issueKey and any error.  400 if the page ids are
+     *         missing or more than MAX_BULK_PAGES, or 403 unless the caller is a system administrator.
+     * 
+     */
+    @Path("/updateissue/bulk")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response bulkUpdateIssues(String requestData) {
+        if (!isSystemAdmin()) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        List<Long> pageIds = new ArrayList<Long>();
+        try {
+            Set<Long> distinct = new LinkedHashSet<Long>();
+            for (JsonElement pageId : ((JsonObject) new JsonParser().parse(requestData)).getAsJsonArray("pageIds")) {
+                distinct.add(pageId.getAsLong());
+            }
+            pageIds.addAll(distinct);
+        } catch (Exception e) {
+            log.warn("Exception in bulkUpdateIssues(): {}", e.toString());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (pageIds.isEmpty() || pageIds.size() > MAX_BULK_PAGES) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        long started = System.nanoTime();
+        JsonArray results = bulkSync(pageIds);
+        jiraMetrics.recordStage("bulkSync", System.nanoTime() - started);
+        return Response.ok(results.toString()).build();
+    }
+    
+    /**
+     * bulkSync()
+     * 
+     * Create or update the issue behind each Charter page, see bulkUpdateIssues().
+     * 
+     * @param pageIds
+     * @return JsonArray holding one result per page id, in the same order.
+     * 
+     */
+    JsonArray bulkSync(List<Long> pageIds) {
+        final List<CharterProperties> charters = new ArrayList<CharterProperties>();
+        final List<JsonObject> results = new ArrayList<JsonObject>();
+        List<Integer> creates = new ArrayList<Integer>();
+        List<JsonObject> createBodies = new ArrayList<JsonObject>();
+        List<Integer> updates = new ArrayList<Integer>();
+        List<JsonObject> updateFields = new ArrayList<JsonObject>();
+        List<Callable<String>> updateCalls = new ArrayList<Callable<String>>();
+
+        for (Long pageId : pageIds) {
+            JsonObject result = new JsonObject();
+            result.addProperty("pageId", pageId);
+            results.add(result);
+            Page page = pageManager.getPage(pageId);
+            if (page == null) {
+                charters.add(null);
+                bulkFailed(result, "Page not found");
+                continue;
+            }
+            result.addProperty("title", page.getTitle());
+
+            CharterProperties stored = CharterProperties.load(page);
+            charters.add(stored);
+            JsonObject charter = charterData(stored, page.getTitle());
+            if (charter.get("project").getAsString().isEmpty()) {
+                bulkFailed(result, "No project is set on the page");
+                continue;
+            }
+            final String issueKey = charter.get("issueKey").getAsString();
+            if (!issueKey.isEmpty() && !ISSUE_KEY.matcher(issueKey).matches()) {
+                bulkFailed(result, "Invalid issue key on the page");
+                continue;
+            }
+            JsonObject body = (JsonObject) new JsonParser().parse(requestBody(charter.toString()));
+            if (issueKey.isEmpty()) {
+                creates.add(results.size() - 1);
+                createBodies.add(body);
+            } else {
+                result.addProperty("issueKey", issueKey);
+                final JsonObject changed = stored.unsynced(body.getAsJsonObject("fields"));
+                if (changed.entrySet().size() == 0) {
+                    result.addProperty("status", "unchanged");
+                    continue;
+                }
+                final JsonObject update = new JsonObject();
+                update.add("fields", changed);
+                updates.add(results.size() - 1);
+                updateFields.add(changed);
+                updateCalls.add(new Callable<String>() {
+                    public String call() {
+                        try {
+                            jiraClient.updateIssue(issueKey, update.toString());
+                            return "";
+                        } catch (JiraClientException e) {
+                            return e.getMessage();
+                        }
+                    }
+                });
+            }
+        }
+
+        List<String> updateErrors = jiraExecutor.invokeAll(updateCalls);
+        for (int i=0; i<updates.size(); i++) {
+            JsonObject result = results.get(updates.get(i));
+            String error = i < updateErrors.size() ? updateErrors.get(i) : null;
+            if (error == null || !error.isEmpty()) {
+                bulkFailed(result, error != null ? error : "JIRA update timed out");
+            } else {
+                result.addProperty("status", "updated");
+                hierarchyCache.invalidate(result.get("issueKey").getAsString());
+                CharterProperties charter = charters.get(updates.get(i));
+                charter.markSynced(updateFields.get(i));
+                charter.flush();
+            }
+        }
+
+        for (int from=0; from<creates.size(); from+=BULK_CREATE_CHUNK) {
+            int to = Math.min(from + BULK_CREATE_CHUNK, creates.size());
+            List<String> keys = bulkCreate(createBodies.subList(from, to), results, creates.subList(from, to));
+            for (int i=0; i<keys.size(); i++) {
+                if (keys.get(i) != null) {
+                    int slot = creates.get(from + i);
+                    CharterProperties charter = charters.get(slot);
+                    charter.set("issueKey", keys.get(i));
+                    charter.markSynced(createBodies.get(from + i).getAsJsonObject("fields"));
+                    charter.flush();
+                }
+            }
+        }
+
+        JsonArray resultArray = new JsonArray();
+        for (JsonObject result : results) {
+            resultArray.add(result);
+        }
+        return resultArray;
+    }
+    
+    /**
+     * bulkCreate()
+     * 
+     * Send one chunk of new issues to /rest/api/2/issue/bulk and record the outcome of each on its
+     * result.  JIRA lists the created issues in order and the rejected ones by position, so the two
+     * are merged back by walking the chunk.
+     * 
+     * @param bodies requestBody() payloads
+     * @param results every page result
+     * @param slots index into results of each payload
+     * @return List holding the new issue key of each payload, or null where it failed.
+     * 
+     */
+    List<String> bulkCreate(List<JsonObject> bodies, List<JsonObject> results, List<Integer> slots) {
+        List<String> keys = new ArrayList<String>();
+        JsonArray issueUpdates = new JsonArray();
+        for (JsonObject body : bodies) {
+            issueUpdates.add(body);
+        }
+        JsonObject bulkBody = new JsonObject();
+        bulkBody.add("issueUpdates", issueUpdates);
+
+        JsonObject response;
+        try {
+            response = jiraClient.createIssues(bulkBody.toString());
+        } catch (JiraClientException e) {
+            jiraMetrics.recordError("bulkCreate");
+            log.warn("Exception in bulkCreate(): {}", e.getMessage());
+            for (Integer slot : slots) {
+                bulkFailed(results.get(slot), e.getMessage());
+                keys.add(null);
+            }
+            return keys;
+        }
+
+        Map<Integer, String> errors = new HashMap<Integer, String>();
+        if (response.has("errors")) {
+            for (JsonElement error : response.getAsJsonArray("errors")) {
+                JsonObject errorJson = error.getAsJsonObject();
+                errors.put(errorJson.get("failedElementNumber").getAsInt(),
+                        errorJson.has("elementErrors") ? errorJson.get("elementErrors").toString() : errorJson.toString());
+            }
+        }
+        JsonArray issues = response.has("issues") ? response.getAsJsonArray("issues") : new JsonArray();
+        int created = 0;
+        for (int i=0; i<slots.size(); i++) {
+            JsonObject result = results.get(slots.get(i));
+            if (errors.containsKey(i) || created >= issues.size()) {
+                bulkFailed(result, errors.containsKey(i) ? errors.get(i) : "JIRA did not create the issue");
+                keys.add(null);
+                continue;
+            }
+            String issueKey = issues.get(created++).getAsJsonObject().get("key").getAsString();
+            result.addProperty("status", "created");
+            result.addProperty("issueKey", issueKey);
+            keys.add(issueKey);
+        }
+        return keys;
+    }
+    
+    private static void bulkFailed(JsonObject result, String error) {
+        result.addProperty("status", "failed");
+        result.addProperty("error", error);
+    }
+    
+    /**
+     * charterData()
+     * 
+     * Turn a Charter page's stored values into the form /updateissue accepts.  Missing values are
+     * empty strings, except the title, which falls back on the page title, and the issue type, which
+     * falls back on Initiative.
+     * 
+     * @param stored the page's CharterProperties
+     * @param pageTitle
+     * @return JsonObject holding the base fields and every charter field of the JiraFieldMapping.
+     * 
+     */
+    JsonObject charterData(CharterProperties stored, String pageTitle) {
+        List<String> fields = new ArrayList<String>();
+        for (String field : CHARTER_BASE_FIELDS) {
+            fields.add(field);
+        }
+        fields.addAll(jiraSettings.getFieldMapping().getCharterFields().keySet());
+
+        JsonObject charter = new JsonObject();
+        for (String field : fields) {
+            charter.addProperty(field, stored.get(field));
+        }
+        if (charter.get("title").getAsString().isEmpty()) {
+            charter.addProperty("title", pageTitle);
+        }
+        if (charter.get("issueType").getAsString().isEmpty()) {
+            charter.addProperty("issueType", "Initiative");
+        }
+        return charter;
+    }
+    
+    /**
+     * storeCharter()
+     * 
+     * Keep the values submitted from a Charter page, the key of its issue and the hashes of the JIRA
+     * fields just sent in the page's CharterProperties.  Only the form's fields and the charter fields
+     * of the JiraFieldMapping are kept; anything else in the request, such as "force", is not.  Only
+     * changes mark it dirty, and all of them go out in one write.
+     * 
+     * @param charter the page's CharterProperties
+     * @param requestJson as posted to /updateissue
      * @param issueKey
-     * @return JSON representing the response from JIRA on the given issue
+     * @param synced JIRA fields now matching the page
+     * 
+     */
+    void storeCharter(CharterProperties charter, JsonObject requestJson, String issueKey, JsonObject synced) {
+        Set<String> charterFields = new HashSet<String>(CharterProperties.FIELDS);
+        charterFields.addAll(jiraSettings.getFieldMapping().getCharterFields().keySet());
+        for (Map.Entry<String, JsonElement> field : requestJson.entrySet()) {
+            if (charterFields.contains(field.getKey()) && field.getValue().isJsonPrimitive()) {
+                charter.set(field.getKey(), field.getValue().getAsString());
+            }
+        }
+        charter.set("issueKey", issueKey);
+        charter.markSynced(synced);
+        charter.flush();
+    }
+    
+    /**
+     * requestBody()
+     * 
+     * Helper method that assembles the request data object that will be sent to JIRA via
+     * a POST.
+     * 
+     * All cached page properties are assigned to a JSON object in a format needed by JIRA.
+     * 
+     * The custom fields set from Confluence are mapped from the macro text areas to JIRA field
+     * ids by the charter fields of the JiraFieldMapping setting.  As new fields are defined in JIRA
+     * they are added to the mapping through the /settings/fieldmapping endpoint.
+     * 
+     * @return String conversion of the JSON object that will be sent to JIRA.
+     * 
+     */
+    public String requestBody(String requestData) {
+        JsonObject request = new JsonObject();
+        JsonObject fields = new JsonObject();
+        JsonObject project = new JsonObject();
+        JsonObject issueType = new JsonObject();
+        try {
+            JsonObject requestJson = (JsonObject) new JsonParser().parse(requestData);
+            
+            // These are basic fields needed to create/update a JIRA issue
+            project.addProperty("key", requestJson.get("project").getAsString());
+            issueType.addProperty("name", requestJson.get("issueType").getAsString());
+
+            fields.add("project", project);
+            fields.addProperty("summary", requestJson.get("title").getAsString());
+            fields.addProperty("description", requestJson.get("title").getAsString());
+            fields.add("issuetype", issueType);
+            String projectProperty = requestJson.get("project").getAsString();
+            
+            // Below are the JIRA custom fields.  The extent of these are still being determined and should be 
+            // added here as needed.  Note that they are bypassed if using a project "TEST".  This allows 
+            // development using a sandbox JIRA with a simple "TEST" project defined.
+            if (!projectProperty.equals("TEST")) {
+                for (Map.Entry<String, String> field : jiraSettings.getFieldMapping().getCharterFields().entrySet()) {
+                    fields.addProperty(field.getValue(), requestJson.get(field.getKey()).getAsString());
+                }
+                // Not mapped yet: customer (customfield_11601) and opportunity (customfield_10405) need
+                // {value: ...} select values, statement and expense are not in JIRA yet.
+            }
+            request.add("fields", fields);
+        } catch (Exception e) {
+            log.warn("Exception on creating request body", e);
+        }
+        return request.toString();
+    }
+    
+    /**
+     * appLinkPost()
+     * 
+     * Helper method that will do the actual POST to JIRA through the JiraClient.
+     * 
+     * This helper is used both to create and update JIRA issues.  The issueKey parameter defines which
+     * is used.  If empty, a new issue is created via a POST.  Otherwise, the existing issue is updated
+     * via a PUT, which is skipped when no field is left to send.
+     *   
+     * @param issueKey
+     * @param fields JIRA field id to value, as built by requestBody()
+     * @return String holding the key of the issue, the new one for a create.
+     * 
+     */
+    public String appLinkPost(String issueKey, JsonObject fields) throws JiraClientException {
+        JsonObject request = new JsonObject();
+        request.add("fields", fields);
+        log.debug("Request to JIRA body: {}", request);
+        if (issueKey.isEmpty()) {   // Create issue scenario
+            return jiraClient.createIssue(request.toString()).get("key").getAsString();
+        }
+        if (fields.entrySet().size() > 0) {  // Update issue scenario
+            jiraClient.updateIssue(issueKey, request.toString());
+        }
+        return issueKey;
+    }
+    
+    /**
+     * getIssueStatus()
+     * 
+     * Defines the POST /issuestatus REST endpoint returning the status of the JIRA issue passed in
+     * with issueKey.  Only the key, status name and browse link are sent back, as
+     * {"key": ..., "status": ..., "link": ...}.  Statuses are kept in the IssueStatusCache for a
+     * short TTL so repeated Charter page views share one JIRA call.  The response carries an ETag,
+     * and a request whose If-None-Match still matches is answered with 304 and no body.
+     *
+     * @param issueKey
+     * @param ifNoneMatch ETag of the status the caller already has, or null
+     * @return Response holding the trimmed status, 304, or an error status from jiraErrorResponse()
+     *         if JIRA could not answer.
      * 
      */
     @Path("/issuestatus")
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces({MediaType.APPLICATION_JSON})
-    public Response getIssueStatus(String issueKey) {
-        String response = "";
+    public Response getIssueStatus(String issueKey, @HeaderParam("If-None-Match") String ifNoneMatch) {
+        return issueStatus(issueKey == null ? "" : issueKey.trim(), ifNoneMatch);
+    }
+    
+    /**
+     * getIssueStatusByKey()
+     * 
+     * Defines GET /issuestatus/{issueKey}, the same as POST /issuestatus but cacheable by the browser,
+     * which revalidates with If-None-Match by itself once max-age has passed.
+     * 
+     * @param issueKey
+     * @param ifNoneMatch
+     * @return Response as for getIssueStatus().
+     * 
+     */
+    @Path("/issuestatus/{issueKey}")
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getIssueStatusByKey(@PathParam("issueKey") String issueKey, @HeaderParam("If-None-Match") String ifNoneMatch) {
+        return issueStatus(issueKey, ifNoneMatch);
+    }
+    
+    private Response issueStatus(String issueKey, String ifNoneMatch) {
+        IssueStatus status;
+        try {
+            status = lookupStatus(issueKey);
+        } catch (JiraClientException e) {
+            jiraMetrics.recordError("getIssueStatus");
+            log.warn("Exception in getIssueStatus() for {}: {}", issueKey, e.getMessage());
+            return jiraErrorResponse(e);
+        }
+        return conditionalResponse(status.toJson().toString(), ifNoneMatch);
+    }
+    
+    /**
+     * Status of an issue from the caller's IssueStatusCache entries, fetched from JIRA and cached
+     * under the requested key on a miss.  A moved issue comes back under its new key.
+     */
+    private IssueStatus lookupStatus(String issueKey) throws JiraClientException {
+        String userKey = statusCacheUser();
+        IssueStatus status = statusCache.get(userKey, issueKey);
+        if (status == null) {
+            JsonObject issue = jiraClient.getIssue(issueKey, STATUS_FIELDS, null);
+            String key = issue.has("key") ? issue.get("key").getAsString() : issueKey;
+            String name = "";
+            JsonObject fields = issue.getAsJsonObject("fields");
+            if (fields != null && fields.has("status") && fields.get("status").isJsonObject()) {
+                name = fields.getAsJsonObject("status").get("name").getAsString();
+            }
+            status = new IssueStatus(key, name, jiraClient.getBrowseUrl(key));
+            statusCache.put(userKey, issueKey, status);
+        }
+        return status;
+    }
+    
+    /**
+     * The user IssueStatusCache entries are kept for: the one whose JIRA permissions the Application
+     * Link fetches them with.
+     */
+    private static String statusCacheUser() {
+        ConfluenceUser user = AuthenticatedUserThreadLocal.get();
+        return user != null && user.getKey() != null ? user.getKey().getStringValue() : "";
+    }
+    
+    /**
+     * getIssueStatuses()
+     * 
+     * Defines the POST /issuestatus/batch REST endpoint for pages listing many Charters.  The body is
+     * a JSON array of issue keys.  Keys missing from the IssueStatusCache are looked up with
+     * "key in (...)" searches, one per search page of keys, instead of one GET per issue.  A moved
+     * issue comes back from the search under its new key, which nobody asked for.  When that happens
+     * the keys the search did not answer are looked up one at a time, as getIssueStatus() would, so
+     * each status is still reported under the key that was requested.
+     * 
+     * @param requestData JSON array of issue keys
+     * @param ifNoneMatch
+     * @return Response holding an object from each found key to its trimmed status, with an ETag as
+     *         for getIssueStatus().  Only requested keys appear, and keys JIRA does not know are left
+     *         out.  400 if the body is not a list of at most MAX_STATUS_KEYS keys.
+     * 
+     */
+    @Path("/issuestatus/batch")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getIssueStatuses(String requestData, @HeaderParam("If-None-Match") String ifNoneMatch) {
+        Set<String> issueKeys = new LinkedHashSet<String>();
+        try {
+            for (JsonElement issueKey : (JsonArray) new JsonParser().parse(requestData)) {
+                issueKeys.add(issueKey.getAsString().trim());
+            }
+        } catch (Exception e) {
+            log.warn("Exception in getIssueStatuses(): {}", e.toString());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (issueKeys.size() > MAX_STATUS_KEYS) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        String userKey = statusCacheUser();
+        Map<String, IssueStatus> statuses = new LinkedHashMap<String, IssueStatus>();
+        List<String> missing = new ArrayList<String>();
+        for (String issueKey : issueKeys) {
+            IssueStatus status = statusCache.get(userKey, issueKey);
+            statuses.put(issueKey, status);
+            if (status == null && ISSUE_KEY.matcher(issueKey).matches()) {
+                missing.add(issueKey);
+            }
+        }
 
+        long started = System.nanoTime();
         try {
-            ApplicationLinkRequestFactory requestFactory = jiraApplicationLink.createAuthenticatedRequestFactory();
-            String endpoint = "/rest/api/2/issue/" + issueKey;
-            request = requestFactory.createRequest(MethodType.GET, endpoint);
-            
-            request.setHeader("Content-Type", MediaType.APPLICATION_JSON);
-            response = request.execute();
+            boolean moved = false;
+            for (IssueStatus status : searchStatuses(missing)) {
+                if (statuses.containsKey(status.getKey())) {
+                    statusCache.put(userKey, status.getKey(), status);
+                    statuses.put(status.getKey(), status);
+                } else {
+                    moved = true;
+                }
+            }
+            if (moved) {
+                for (String issueKey : missing) {
+                    if (statuses.get(issueKey) == null) {
+                        statuses.put(issueKey, lookupMovedStatus(issueKey));
+                    }
+                }
+            }
+        } catch (JiraClientException e) {
+            jiraMetrics.recordError("getIssueStatuses");
+            log.warn("Exception in getIssueStatuses(): {}", e.getMessage());
+            return jiraErrorResponse(e);
+        }
+        stageDone("statusBatch", started);
+
+        JsonObject response = new JsonObject();
+        for (Map.Entry<String, IssueStatus> status : statuses.entrySet()) {
+            if (status.getValue() != null) {
+                JsonObject json = status.getValue().toJson();
+                json.remove("key");
+                response.add(status.getKey(), json);
+            }
+        }
+        return conditionalResponse(response.toString(), ifNoneMatch);
+    }
+    
+    /**
+     * Status of a key the batch search did not answer, or null if JIRA does not know it.
+     */
+    private IssueStatus lookupMovedStatus(String issueKey) throws JiraClientException {
+        try {
+            return lookupStatus(issueKey);
+        } catch (JiraClientException e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * searchStatuses()
+     * 
+     * Fetch the status of each issue with "key in (...)" searches asking for the status field only.
+     * validateQuery is off so a key that has since been deleted or moved does not fail the batch.
+     * 
+     * @param issueKeys
+     * @return List of the IssueStatus of each issue JIRA found.
+     * @throws JiraClientException
+     * 
+     */
+    List<IssueStatus> searchStatuses(List<String> issueKeys) throws JiraClientException {
+        final List<IssueStatus> statuses = new ArrayList<IssueStatus>();
+        int batchSize = jiraSettings.getSearchPageSize();
+        for (int from=0; from<issueKeys.size(); from+=batchSize) {
+            List<String> batch = issueKeys.subList(from, Math.min(from + batchSize, issueKeys.size()));
+            JsonObject searchBody = new JsonObject();
+            searchBody.addProperty("jql", "key in (" + String.join(",", batch) + ")");
+            searchBody.addProperty("maxResults", batch.size());
+            searchBody.addProperty("validateQuery", false);
+            JsonArray fieldList = new JsonArray();
+            fieldList.add(STATUS_FIELDS[0]);
+            searchBody.add("fields", fieldList);
+
+            final List<SubtaskRecord> records = new ArrayList<SubtaskRecord>();
+            jiraClient.search(searchBody, new SearchPageParser.IssueHandler() {
+                public void issue(SubtaskRecord record) {
+                    records.add(record);
+                }
+            });
+            for (SubtaskRecord record : records) {
+                statuses.add(new IssueStatus(record.getKey(), record.getStatus(), jiraClient.getBrowseUrl(record.getKey())));
+            }
+        }
+        return statuses;
+    }
+    
+    /**
+     * conditionalResponse()
+     * 
+     * Send json with a strong ETag of its content and let the browser reuse it for the status cache
+     * TTL.  When ifNoneMatch names the same ETag the body is left off and 304 is returned.
+     * 
+     * @param json
+     * @param ifNoneMatch
+     * @return Response object
+     * 
+     */
+    Response conditionalResponse(String json, String ifNoneMatch) {
+        String etag = etag(json);
+        String cacheControl = "private, max-age=" + jiraSettings.getStatusCacheTtlSeconds();
+        if (ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag))) {
+            return Response.notModified().header("ETag", etag).header("Cache-Control", cacheControl).build();
+        }
+        return Response.ok(json).header("ETag", etag).header("Cache-Control", cacheControl).build();
+    }
+    
+    static String etag(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder etag = new StringBuilder("\"");
+            for (int i=0; i<8; i++) {
+                etag.append(String.format("%02x", digest[i]));
+            }
+            return etag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            return "\"" + Integer.toHexString(content.hashCode()) + "\"";
+        }
+    }
+    
+    /**
+     * jiraErrorResponse()
+     * 
+     * Map a failed JIRA call onto the response sent to the browser: 404 for a missing issue, 503 with
+     * JIRA's Retry-After while JIRA is throttling us or the circuit breaker is open, and 502 for
+     * anything else.
+     * 
+     * @param e
+     * @return Response object carrying the status.
+     * 
+     */
+    Response jiraErrorResponse(JiraClientException e) {
+        if (e.getStatusCode() == 404) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (e.isThrottled()) {
+            Response.ResponseBuilder builder = Response.status(Response.Status.SERVICE_UNAVAILABLE);
+            if (e.getRetryAfterMillis() >= 0) {
+                builder.header("Retry-After", Long.toString((e.getRetryAfterMillis() + 999) / 1000));
+            }
+            return builder.build();
+        }
+        return Response.status(502).build();
+    }
+    
+    /**
+     * getFieldMapping()
+     * 
+     * Defines the GET /settings/fieldmapping REST endpoint returning the JIRA field ids the plugin
+     * uses for the Epic and Initiative links and the charter form fields.
+     * 
+     * @return Response object holding the JiraFieldMapping as JSON, or 403 unless the caller is a
+     *         system administrator.
+     * 
+     */
+    @Path("/settings/fieldmapping")
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getFieldMapping() {
+        if (!isSystemAdmin()) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        return Response.ok(jiraSettings.getFieldMapping().toJson().toString()).build();
+    }
+    
+    /**
+     * setFieldMapping()
+     * 
+     * Defines the PUT /settings/fieldmapping REST endpoint.  The body is in the form returned by
+     * GET; entries left out keep their defaults.  Cached hierarchy links were read through the old
+     * fields so the IssueHierarchyCache is cleared.
+     * 
+     * @param requestData is a JSON string holding the mapping
+     * @return Response object holding the stored mapping, 400 if it is not valid or 403 unless the
+     *         caller is a system administrator.
+     * 
+     */
+    @Path("/settings/fieldmapping")
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response setFieldMapping(String requestData) {
+        if (!isSystemAdmin()) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        JiraFieldMapping mapping;
+        try {
+            mapping = JiraFieldMapping.fromJson((JsonObject) new JsonParser().parse(requestData));
+        } catch (Exception e) {
+            log.warn("Exception in setFieldMapping(): {}", e.toString());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        jiraSettings.setFieldMapping(mapping);
+        hierarchyCache.invalidateAll();
+        return Response.ok(mapping.toJson().toString()).build();
+    }
+    
+    /**
+     * getSettings()
+     * 
+     * Defines the GET /settings REST endpoint returning the plugin's tunables, see JiraSettings.toJson().
+     * 
+     * @return Response object holding the settings as JSON, or 403 unless the caller is a system
+     *         administrator.
+     * 
+     */
+    @Path("/settings")
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getSettings() {
+        if (!isSystemAdmin()) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        return Response.ok(jiraSettings.toJson().toString()).build();
+    }
+    
+    /**
+     * setSettings()
+     * 
+     * Defines the PUT /settings REST endpoint.  The body is in the form returned by GET; settings
+     * left out keep their values.  worklogSyncUser must name an existing user, and the worklog index
+     * can only be turned on once it has one.  worklogSyncMinutes is read when the plugin starts.
+     * 
+     * @param requestData is a JSON string holding the settings to change
+     * @return Response object holding every setting after the change, 400 with {"error": ...} if
+     *         any setting is not valid, in which case none are changed, or 403 unless the caller is
+     *         a system administrator.
+     * 
+     */
+    @Path("/settings")
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response setSettings(String requestData) {
+        if (!isSystemAdmin()) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        JsonObject changes;
+        try {
+            changes = (JsonObject) new JsonParser().parse(requestData);
         } catch (Exception e) {
-            System.out.println("Exception in getIssueStatus(): " + e);
+            log.warn("Exception in setSettings(): {}", e.toString());
+            return Response.status(Response.Status.BAD_REQUEST).build();
         }
 
-        return Response.ok(response).build();
+        String error = null;
+        JsonObject settings = jiraSettings.toJson();
+        for (Map.Entry<String, JsonElement> change : changes.entrySet()) {
+            settings.add(change.getKey(), change.getValue());
+        }
+        JsonElement syncUserValue = settings.get("worklogSyncUser");
+        String syncUser = syncUserValue.isJsonPrimitive() ? syncUserValue.getAsString().trim() : "";
+        if (changes.has("worklogSyncUser") && !syncUser.isEmpty() && userManager.getUserProfile(syncUser) == null) {
+            error = "No user named " + syncUser;
+        } else if (isTrue(settings.get("worklogIndexEnabled")) && syncUser.isEmpty()) {
+            error = "worklogIndexEnabled needs a worklogSyncUser";
+        } else {
+            try {
+                jiraSettings.update(changes);
+            } catch (IllegalArgumentException e) {
+                error = e.getMessage();
+            }
+        }
+        if (error != null) {
+            log.warn("setSettings() refused: {}", error);
+            JsonObject errorJson = new JsonObject();
+            errorJson.addProperty("error", error);
+            return Response.status(Response.Status.BAD_REQUEST).entity(errorJson.toString()).build();
+        }
+        return Response.ok(jiraSettings.toJson().toString()).build();
+    }
+    
+    private static boolean isTrue(JsonElement value) {
+        return value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean() && value.getAsBoolean();
+    }
+    
+    /**
+     * getMetrics()
+     * 
+     * Defines the GET /metrics REST endpoint returning the JiraMetrics snapshot: latency per report
+     * stage and per JIRA call, bytes received, failures, cache hit rates and error counts.  The same
+     * values are published over JMX.
+     * 
+     * @return Response object holding the metrics as JSON, or 403 unless the caller is a system
+     *         administrator.
+     * 
+     */
+    @Path("/metrics")
+    @GET
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getMetrics() {
+        if (!isSystemAdmin()) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        return Response.ok(jiraMetrics.snapshot().toString()).build();
+    }
+    
+    /**
+     * resetMetrics()
+     * 
+     * Defines the DELETE /metrics REST endpoint, which clears the stage, call and error counters.
+     * 
+     * @return Response object, 204 once cleared or 403 unless the caller is a system administrator.
+     * 
+     */
+    @Path("/metrics")
+    @DELETE
+    public Response resetMetrics() {
+        if (!isSystemAdmin()) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        jiraMetrics.reset();
+        return Response.noContent().build();
+    }
+    
+    /**
+     * isSystemAdmin()
+     * 
+     * @return true if the user making the current request is a Confluence system administrator.
+     * 
+     */
+    boolean isSystemAdmin() {
+        UserKey userKey = userManager.getRemoteUserKey();
+        return userKey != null && userManager.isSystemAdmin(userKey);
     }
 }
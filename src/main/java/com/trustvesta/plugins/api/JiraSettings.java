@@ -0,0 +1,203 @@
+/**
+ * JiraSettings.java
+ * 
+ * Defines the plugin-wide tunables used when talking to JIRA.  Values are stored in the global
+ * plugin settings so they survive restarts and can be changed without a redeploy.  Sensible defaults
+ * are returned when nothing has been stored.  System administrators change them through the
+ * /settings REST endpoint, which reads and writes them with toJson() and update().
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import com.google.gson.JsonObject;
+
+public interface JiraSettings
+{
+    /**
+     * Number of issue keys sent in a single "key in (...)" search when issues have to be
+     * hydrated after the initial JQL search.
+     */
+    int getHydrationBatchSize();
+
+    void setHydrationBatchSize(int batchSize);
+
+    /**
+     * Maximum number of JIRA lookups the shared JiraExecutor runs at once.
+     */
+    int getLookupParallelism();
+
+    void setLookupParallelism(int parallelism);
+
+    /**
+     * How long, in seconds, to wait on a single JIRA lookup before giving up on it.
+     */
+    int getLookupTimeoutSeconds();
+
+    void setLookupTimeoutSeconds(int seconds);
+
+    /**
+     * Maximum number of issues held in the IssueHierarchyCache.
+     */
+    int getHierarchyCacheSize();
+
+    void setHierarchyCacheSize(int size);
+
+    /**
+     * How long, in minutes, a cached parent link stays valid.
+     */
+    int getHierarchyCacheTtlMinutes();
+
+    void setHierarchyCacheTtlMinutes(int minutes);
+
+    /**
+     * Maximum number of issues held in the IssueStatusCache.
+     */
+    int getStatusCacheSize();
+
+    void setStatusCacheSize(int size);
+
+    /**
+     * How long, in seconds, a cached issue status stays valid.  Also the max-age the browser is
+     * told it may reuse a status response for.
+     */
+    int getStatusCacheTtlSeconds();
+
+    void setStatusCacheTtlSeconds(int seconds);
+
+    /**
+     * Maximum number of rendered macro fragments held in the FragmentCache.
+     */
+    int getFragmentCacheSize();
+
+    void setFragmentCacheSize(int size);
+
+    /**
+     * How long, in minutes, a rendered macro fragment is reused.
+     */
+    int getFragmentCacheTtlMinutes();
+
+    void setFragmentCacheTtlMinutes(int minutes);
+
+    /**
+     * maxResults asked for on each JIRA search page.  JIRA may cap this lower.
+     */
+    int getSearchPageSize();
+
+    void setSearchPageSize(int pageSize);
+
+    /**
+     * Maximum number of search pages requested at once after the first page.
+     */
+    int getSearchParallelism();
+
+    void setSearchParallelism(int parallelism);
+
+    /**
+     * Number of background threads running asynchronous report jobs.
+     */
+    int getReportJobThreads();
+
+    void setReportJobThreads(int threads);
+
+    /**
+     * How long, in minutes, a finished report job and its result are kept.
+     */
+    int getReportRetentionMinutes();
+
+    void setReportRetentionMinutes(int minutes);
+
+    /**
+     * Maximum number of finished reports for past date ranges kept for reuse.
+     */
+    int getReportCacheSize();
+
+    void setReportCacheSize(int size);
+
+    /**
+     * How long, in minutes, a finished report for a past date range is reused.
+     */
+    int getReportCacheMinutes();
+
+    void setReportCacheMinutes(int minutes);
+
+    /**
+     * Most JIRA calls the plugin has in flight at once.  The adaptive limit in front of the
+     * Application Link grows up to this while JIRA keeps up and backs off when it throttles.
+     */
+    int getJiraMaxConcurrency();
+
+    void setJiraMaxConcurrency(int concurrency);
+
+    /**
+     * JIRA response time, in milliseconds, above which a call counts as a sign JIRA is overloaded.
+     */
+    int getJiraLatencyTargetMillis();
+
+    void setJiraLatencyTargetMillis(int millis);
+
+    /**
+     * How many times a call JIRA answered with 429 or 503 is retried.
+     */
+    int getJiraRetryAttempts();
+
+    void setJiraRetryAttempts(int attempts);
+
+    /**
+     * When true, reports are answered from the local WorklogIndex, which a background sync keeps up
+     * to date from JIRA's worklog change feeds.  Off by default because the first sync reads every
+     * worklog in JIRA.
+     */
+    boolean isWorklogIndexEnabled();
+
+    void setWorklogIndexEnabled(boolean enabled);
+
+    /**
+     * Name of the Confluence user the WorklogIndex sync runs as.  The index is shared by every
+     * report, so this should be a service account whose JIRA identity can see every project.  The
+     * index is not synced, and reports search JIRA directly, while it is empty, which is the default.
+     */
+    String getWorklogSyncUser();
+
+    void setWorklogSyncUser(String username);
+
+    /**
+     * How long, in minutes, the background WorklogIndex sync waits between runs.  Read when the
+     * plugin starts.
+     */
+    int getWorklogSyncMinutes();
+
+    void setWorklogSyncMinutes(int minutes);
+
+    /**
+     * Shared secret JIRA passes as the secret query parameter of the /webhook URL it posts to.
+     * Webhooks are refused while it is empty, which is the default.
+     */
+    String getWebhookSecret();
+
+    void setWebhookSecret(String secret);
+
+    /**
+     * JIRA field ids for the Epic and Initiative links and the charter form fields.  These differ
+     * between JIRA instances; JiraFieldMapping.DEFAULT until an administrator sets them.
+     */
+    JiraFieldMapping getFieldMapping();
+
+    void setFieldMapping(JiraFieldMapping mapping);
+
+    /**
+     * The settings an administrator can change through /settings, by name, with their current
+     * values.  The field mapping and webhook secret have their own endpoints and are not included.
+     */
+    JsonObject toJson();
+
+    /**
+     * Store each setting named in json, in the form returned by toJson().  Settings left out are
+     * not changed.
+     * 
+     * @throws IllegalArgumentException if a name is unknown or a value is not of the setting's
+     *         type, or a number is not a positive whole number; nothing is stored then
+     */
+    void update(JsonObject json);
+}
@@ -0,0 +1,138 @@
+/**
+ * JiraWebhook.java
+ * 
+ * Defines the /webhook REST endpoint of the jirarequest module, which JIRA posts issue and worklog
+ * webhooks to.  Each event is handed to the JiraWebhookHandler, which pushes the change into the
+ * plugin's caches.  JIRA calls it without a Confluence login, so the request is checked against
+ * the shared secret in JiraSettings instead.
+ * 
+ * In JIRA, register a webhook for issue created/updated/deleted and worklog created/updated/deleted
+ * events with the URL {confluence}/rest/jirarequest/1.0/webhook?secret={secret}.
+ * 
+ * @author michael.howard
+ *     
+ */
+
+package com.trustvesta.plugins.api;
+
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.plugins.rest.common.security.AnonymousAllowed;
+import com.atlassian.sal.api.user.UserKey;
+import com.atlassian.sal.api.user.UserManager;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/** 
+ * JiraWebhook class definition.  Like JiraRequest it holds no per-request state.
+ * 
+ */
+@Path("/webhook")
+public class JiraWebhook {
+
+    private static final Logger log = LoggerFactory.getLogger(JiraWebhook.class);
+
+    private final JiraWebhookHandler webhookHandler;
+    private final JiraSettings jiraSettings;
+    private final UserManager userManager;
+
+    /**
+     * JiraWebhook() constructor.
+     * 
+     * @param webhookHandler
+     * @param jiraSettings
+     * @param userManager
+     * 
+     */
+    @Autowired
+    public JiraWebhook(JiraWebhookHandler webhookHandler, JiraSettings jiraSettings, @ComponentImport UserManager userManager) {
+        this.webhookHandler = webhookHandler;
+        this.jiraSettings = jiraSettings;
+        this.userManager = userManager;
+    }
+
+    /**
+     * receive()
+     * 
+     * Defines the POST /webhook REST endpoint JIRA sends its webhook events to.
+     * 
+     * @param secret the secret query parameter of the webhook URL
+     * @param requestData the webhook body
+     * @return Response object holding {"outcome": ...}, see JiraWebhookHandler.Outcome; 400 if the
+     *         body is not an event, 403 if the secret does not match, or 404 while no secret is set.
+     * 
+     */
+    @POST
+    @AnonymousAllowed
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response receive(@QueryParam("secret") String secret, String requestData) {
+        String expected = jiraSettings.getWebhookSecret();
+        if (expected.isEmpty()) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (secret == null || !MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8))) {
+            log.warn("Webhook refused: wrong secret");
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+
+        JsonObject event;
+        try {
+            event = (JsonObject) new JsonParser().parse(requestData);
+        } catch (Exception e) {
+            log.warn("Exception in receive(): {}", e.toString());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        JiraWebhookHandler.Outcome outcome = webhookHandler.handle(event);
+        if (outcome == JiraWebhookHandler.Outcome.INVALID) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        JsonObject response = new JsonObject();
+        response.addProperty("outcome", outcome.name().toLowerCase());
+        return Response.ok(response.toString()).build();
+    }
+
+    /**
+     * setSecret()
+     * 
+     * Defines the PUT /webhook/secret REST endpoint.  The body is {"secret": ...}; an empty secret
+     * turns webhooks off.
+     * 
+     * @param requestData
+     * @return Response object, 204 once stored, 400 if the body has no secret, or 403 unless the
+     *         caller is a system administrator.
+     * 
+     */
+    @Path("/secret")
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response setSecret(String requestData) {
+        UserKey userKey = userManager.getRemoteUserKey();
+        if (userKey == null || !userManager.isSystemAdmin(userKey)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        try {
+            jiraSettings.setWebhookSecret(((JsonObject) new JsonParser().parse(requestData)).get("secret").getAsString().trim());
+        } catch (Exception e) {
+            log.warn("Exception in setSecret(): {}", e.toString());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.noContent().build();
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * JiraWebhookHandler.java
+ * 
+ * Defines how issue and worklog webhooks posted by JIRA are applied to the plugin's caches, so
+ * status, parent link and worklog changes reach them as they happen instead of on the next poll.
+ * Each event carries the whole issue or worklog, so only the newest event per issue or worklog
+ * matters: events are ordered by JIRA's timestamp, older ones are dropped as stale and repeats of
+ * the newest are dropped as duplicates.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import com.google.gson.JsonObject;
+
+public interface JiraWebhookHandler
+{
+    /**
+     * What became of one webhook event.
+     */
+    enum Outcome
+    {
+        APPLIED, DUPLICATE, STALE, IGNORED, INVALID;
+    }
+
+    /**
+     * Apply one webhook event as posted by JIRA.
+     * 
+     * @param event the webhook body, holding timestamp, webhookEvent and the issue or worklog
+     * @return Outcome of the event.  INVALID if it has no timestamp or no issue or worklog id,
+     *         IGNORED for event types the plugin does not cache.
+     */
+    Outcome handle(JsonObject event);
+}
@@ -0,0 +1,144 @@
+/**
+ * ReportJob.java
+ * 
+ * State of one asynchronous report run.  The job is created by the ReportJobManager when the report
+ * is submitted, updated from the background thread through the ReportProgress callback and read by
+ * the status and result endpoints.  All fields are volatile so readers always see the latest stage.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import com.google.gson.JsonObject;
+import com.trustvesta.plugins.report.ReportModel;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ReportJob implements ReportProgress
+{
+    public enum State { QUEUED, RUNNING, DONE, FAILED }
+
+    private final String id;
+    private final String startDate;
+    private final String endDate;
+    private volatile State state = State.QUEUED;
+    private volatile String stage = "Queued";
+    private volatile int percent;
+    private volatile String error;
+    private volatile ReportModel result;
+    private volatile long finishedAt;
+    private volatile long lastAccessed = System.currentTimeMillis();
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    public ReportJob(String id, String startDate, String endDate)
+    {
+        this.id = id;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    public void stage(String stage, int percent)
+    {
+        this.state = State.RUNNING;
+        this.stage = stage;
+        this.percent = percent;
+    }
+
+    public void complete(ReportModel result)
+    {
+        this.result = result;
+        this.stage = "Done";
+        this.percent = 100;
+        this.finishedAt = System.currentTimeMillis();
+        this.lastAccessed = finishedAt;
+        this.state = State.DONE;
+        finished.countDown();
+    }
+
+    public void fail(String error)
+    {
+        this.error = error;
+        this.stage = "Failed";
+        this.finishedAt = System.currentTimeMillis();
+        this.lastAccessed = finishedAt;
+        this.state = State.FAILED;
+        finished.countDown();
+    }
+
+    /**
+     * await()
+     * 
+     * Block until the job has finished or the timeout passes.
+     * 
+     * @param timeout
+     * @param unit
+     * @return true if the job finished in time.
+     * @throws InterruptedException
+     * 
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * Record that someone has just asked for this job so it is not purged from under them.
+     */
+    public void touch()
+    {
+        this.lastAccessed = System.currentTimeMillis();
+    }
+
+    public String getId() { return id; }
+    public String getStartDate() { return startDate; }
+    public String getEndDate() { return endDate; }
+    public State getState() { return state; }
+    public String getStage() { return stage; }
+    public int getPercent() { return percent; }
+    public String getError() { return error; }
+
+    /**
+     * The finished report, or null until the job is DONE.
+     */
+    public ReportModel getResult() { return result; }
+
+    /**
+     * When the job finished in epoch milliseconds, or 0 while it is still queued or running.
+     */
+    public long getFinishedAt() { return finishedAt; }
+
+    /**
+     * When the job was last submitted, polled or finished, in epoch milliseconds.
+     */
+    public long getLastAccessed() { return lastAccessed; }
+
+    public boolean isFinished()
+    {
+        return state == State.DONE || state == State.FAILED;
+    }
+
+    /**
+     * toJson()
+     * 
+     * Status document returned by the job status endpoint.
+     * 
+     * @return JsonObject with jobId, state, stage, percent and error (if any).
+     * 
+     */
+    public JsonObject toJson()
+    {
+        JsonObject json = new JsonObject();
+        json.addProperty("jobId", id);
+        json.addProperty("startDate", startDate);
+        json.addProperty("endDate", endDate);
+        json.addProperty("state", state.name());
+        json.addProperty("stage", stage);
+        json.addProperty("percent", percent);
+        if (error != null) {
+            json.addProperty("error", error);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * ReportJobManager.java
+ * 
+ * Runs reports on a small background pool owned by the plugin so long date ranges never hold a
+ * Confluence request thread or run into proxy timeouts.  Finished jobs are kept for a configurable
+ * time so the browser can collect the result after polling for status.
+ * 
+ * Identical requests are coalesced: while a report for a date range is queued or running, every
+ * further submit for the same range joins that job instead of starting a new one.  Reports for
+ * ranges that end before today cannot change any more and are cached after they finish.  Both are
+ * keyed on the submitting user as well as the date range: a report is built with that user's JIRA
+ * permissions, so it is never handed to anyone else.  Reports that fail are not cached.
+ * 
+ * Worklogs can still be logged, moved or deleted on past days, so a worklog webhook drops the cached
+ * reports it may have changed through invalidateReports().
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+public interface ReportJobManager
+{
+    /**
+     * Queue a report and return its job straight away.  The returned job may be an in-flight or
+     * cached job of the same user for the same date range, in which case task is not run.
+     * 
+     * @throws java.util.concurrent.RejectedExecutionException if the job queue is full
+     */
+    ReportJob submit(String startDate, String endDate, ReportTask task);
+
+    /**
+     * Return the job with this id, or null if it is unknown or its result has expired.
+     */
+    ReportJob getJob(String jobId);
+
+    /**
+     * Drop the cached reports whose date range includes epochDay, or every cached report when
+     * epochDay is WorklogFilter.INVALID_DAY.  Jobs still running are not cached when they finish.
+     */
+    void invalidateReports(int epochDay);
+
+    /**
+     * Number of submits answered by joining an in-flight job.
+     */
+    long getCoalescedCount();
+
+    /**
+     * Number of submits answered from the finished report cache.
+     */
+    long getCacheHitCount();
+}
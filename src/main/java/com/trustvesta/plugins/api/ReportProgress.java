@@ -0,0 +1,19 @@
+/**
+ * ReportProgress.java
+ * 
+ * Callback through which a running report announces which pipeline stage it has reached and roughly
+ * how far through the whole report it is.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+public interface ReportProgress
+{
+    /**
+     * @param stage short human readable stage name, e.g. "Searching sub-tasks"
+     * @param percent overall completion from 0 to 100
+     */
+    void stage(String stage, int percent);
+}
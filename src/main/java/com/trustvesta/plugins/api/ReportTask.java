@@ -0,0 +1,17 @@
+/**
+ * ReportTask.java
+ * 
+ * A unit of report work handed to the ReportJobManager.  It runs on a background thread and returns
+ * the finished report model.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import com.trustvesta.plugins.report.ReportModel;
+
+public interface ReportTask
+{
+    ReportModel run(ReportProgress progress) throws Exception;
+}
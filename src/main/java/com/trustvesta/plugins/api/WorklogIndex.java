@@ -0,0 +1,64 @@
+/**
+ * WorklogIndex.java
+ * 
+ * Defines a persistent local index of JIRA worklog entries: the issue, author, started day and seconds
+ * of each worklog.  The index is kept current from JIRA's /worklog/updated and /worklog/deleted change
+ * feeds using a high-water mark, so a sync only reads what changed since the last one and any report
+ * date range can then be summed locally.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.api;
+
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+
+public interface WorklogIndex
+{
+    /**
+     * Bring the index up to date with JIRA, as the configured sync user rather than whoever calls.
+     * Implementations run this in the background; reports never wait for it.  The first sync reads
+     * every worklog.
+     * 
+     * @return true if the index is now current, false if no sync user is set or JIRA could not be
+     *         reached, in which case the index should not be trusted for a report.
+     */
+    boolean sync();
+
+    /**
+     * Whether the last sync succeeded, so a report may be answered from the index.
+     */
+    boolean isCurrent();
+
+    /**
+     * Apply one worklog pushed from JIRA, in the form /worklog/list returns, to the index in memory.
+     * It is not stored; the next sync() reads the same change from JIRA's change feed and stores it.
+     */
+    void applyWorklog(JsonObject worklog);
+
+    /**
+     * Drop a worklog JIRA reported as deleted from the index in memory, see applyWorklog().
+     */
+    void removeWorklog(long worklogId);
+
+    /**
+     * Sum the indexed seconds per issue for worklogs started from startDay to endDay inclusive.
+     * 
+     * @param startDay epoch day
+     * @param endDay epoch day
+     * @return Map of JIRA issue id to seconds logged in the range.
+     */
+    Map<Long, Long> secondsByIssue(int startDay, int endDay);
+
+    /**
+     * The high-water mark, in epoch milliseconds, that the next sync starts from.  0 before the first sync.
+     */
+    long getSince();
+
+    /**
+     * Number of worklog entries in the index.
+     */
+    int size();
+}
@@ -0,0 +1,259 @@
+/**
+ * CharterProperties.java
+ * 
+ * The charter values stored on a Charter page.  All fields are kept together as one JSON object in
+ * a single text property, so loading a charter is one property read however many fields the form
+ * has, and a save is one write.  An instance lives for one render or one request: reads are served
+ * from the loaded copy and set() only marks it dirty until flush() persists every change at once.
+ * 
+ * Next to the form values the charter keeps a short hash of each JIRA field as it was last sent,
+ * so a sync can send only the fields that changed since.
+ * 
+ * Not thread safe; each render or request loads its own copy.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.charter;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CharterProperties {
+
+    private static final Logger log = LoggerFactory.getLogger(CharterProperties.class);
+
+    /**
+     * Name of the page text property holding the charter JSON.  A text property is used since
+     * charter sections run past the 255 characters a string property holds.
+     */
+    public static final String PROPERTY = "charter";
+
+    /**
+     * Every field the charter form posts to /updateissue, in form order.
+     */
+    public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(
+            "issueKey", "issueType", "title", "submitDate", "customer", "project", "summary", "deliveryDate",
+            "statement", "outcome", "justification", "revenue", "opportunity", "expense", "introduction",
+            "audience", "background", "objective", "stakeholders", "assumptions", "outofscope", "dependencies",
+            "techimpact", "opimpact", "overview", "description", "performance", "constraints", "milestones",
+            "analysis", "risks", "payImpact", "rmImpact", "finImpact", "isImpact", "eaImpact", "nfRequirements",
+            "devEstimate", "otherEstimate", "approval", "score"));
+
+    /**
+     * Member of the charter JSON holding the hash of each JIRA field id as last sent to JIRA.
+     */
+    static final String SYNCED = "synced";
+
+    // Before PROPERTY, each field was its own page property: a text property named LEGACY_PREFIX +
+    // field, as /updateissue wrote them, or a string property named after the field.
+    static final String LEGACY_PREFIX = "charter.";
+
+    private final ContentEntityObject page;
+    private final String stored;
+    private final Map<String, String> values;
+    private final Map<String, String> synced;
+    private boolean dirty;
+
+    private CharterProperties(ContentEntityObject page, String stored, Map<String, String> values, Map<String, String> synced) {
+        this.page = page;
+        this.stored = stored != null ? stored : "";
+        this.values = values;
+        this.synced = synced;
+    }
+
+    /**
+     * load()
+     * 
+     * Read every stored charter field of the page in one pass.  A page with no charter, or one
+     * whose property cannot be parsed, loads as empty.  A page saved before the charter property
+     * existed loads from its per-field properties instead, see loadLegacy(); the charter property
+     * replaces them the next time the charter is flushed.
+     * 
+     * @param page
+     * @return CharterProperties holding the page's current values.
+     * 
+     */
+    public static CharterProperties load(ContentEntityObject page) {
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        Map<String, String> synced = new LinkedHashMap<String, String>();
+        String stored = page.getProperties().getTextProperty(PROPERTY);
+        if (stored == null) {
+            return loadLegacy(page);
+        }
+        if (!stored.isEmpty()) {
+            try {
+                for (Map.Entry<String, JsonElement> field : ((JsonObject) new JsonParser().parse(stored)).entrySet()) {
+                    if (field.getValue().isJsonPrimitive()) {
+                        values.put(field.getKey(), field.getValue().getAsString());
+                    } else if (field.getKey().equals(SYNCED) && field.getValue().isJsonObject()) {
+                        for (Map.Entry<String, JsonElement> hash : field.getValue().getAsJsonObject().entrySet()) {
+                            synced.put(hash.getKey(), hash.getValue().getAsString());
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("Unreadable charter on page {}: {}", page.getId(), e.toString());
+            }
+        }
+        return new CharterProperties(page, stored, values, synced);
+    }
+
+    /**
+     * loadLegacy()
+     * 
+     * Read each of FIELDS from the per-field properties used before the charter property.  Nothing
+     * is written; the values reach the charter property with the next flush() that has a change.
+     * 
+     * @param page
+     * @return CharterProperties holding the old values, fingerprinted by their JSON form.
+     * 
+     */
+    private static CharterProperties loadLegacy(ContentEntityObject page) {
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        JsonObject json = new JsonObject();
+        for (String field : FIELDS) {
+            String value = page.getProperties().getTextProperty(LEGACY_PREFIX + field);
+            if (value == null) {
+                value = page.getProperties().getStringProperty(field);
+            }
+            if (value != null) {
+                values.put(field, value);
+                json.addProperty(field, value);
+            }
+        }
+        return new CharterProperties(page, values.isEmpty() ? "" : json.toString(), values,
+                new LinkedHashMap<String, String>());
+    }
+
+    /**
+     * Stored value of a field, or an empty string when it has none.
+     */
+    public String get(String field) {
+        String value = values.get(field);
+        return value != null ? value : "";
+    }
+
+    /**
+     * Change a field in the loaded copy.  Nothing is written until flush().
+     */
+    public void set(String field, String value) {
+        String current = values.get(field);
+        if (value == null ? current != null : !value.equals(current)) {
+            if (value == null) {
+                values.remove(field);
+            } else {
+                values.put(field, value);
+            }
+            dirty = true;
+        }
+    }
+
+    public Map<String, String> getAll() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * unsynced()
+     * 
+     * Pick out the JIRA fields whose value differs from the one last recorded by markSynced().
+     * Every field is unsynced on a charter that has never been synced.
+     * 
+     * @param fields JIRA field id to value, as in the "fields" of an issue update
+     * @return JsonObject holding only the changed fields, empty when JIRA is up to date.
+     * 
+     */
+    public JsonObject unsynced(JsonObject fields) {
+        JsonObject changed = new JsonObject();
+        for (Map.Entry<String, JsonElement> field : fields.entrySet()) {
+            if (!hash(field.getValue()).equals(synced.get(field.getKey()))) {
+                changed.add(field.getKey(), field.getValue());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Record the fields as now matching JIRA.  Nothing is written until flush().
+     */
+    public void markSynced(JsonObject fields) {
+        for (Map.Entry<String, JsonElement> field : fields.entrySet()) {
+            String hash = hash(field.getValue());
+            if (!hash.equals(synced.put(field.getKey(), hash))) {
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Short digest of the charter as it was loaded.  Any change to the stored charter changes it,
+     * so it can key anything rendered from the charter.
+     */
+    public String fingerprint() {
+        return Integer.toHexString(stored.hashCode()) + "-" + stored.length();
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * flush()
+     * 
+     * Persist every change since load() or the last flush() as a single property write.  Does
+     * nothing when no field changed.
+     * 
+     * @return true if the page property was written.
+     * 
+     */
+    public boolean flush() {
+        if (!dirty) {
+            return false;
+        }
+        JsonObject json = new JsonObject();
+        for (Map.Entry<String, String> field : values.entrySet()) {
+            json.addProperty(field.getKey(), field.getValue());
+        }
+        if (!synced.isEmpty()) {
+            JsonObject hashes = new JsonObject();
+            for (Map.Entry<String, String> hash : synced.entrySet()) {
+                hashes.addProperty(hash.getKey(), hash.getValue());
+            }
+            json.add(SYNCED, hashes);
+        }
+        page.getProperties().setTextProperty(PROPERTY, json.toString());
+        dirty = false;
+        return true;
+    }
+
+    /**
+     * First 8 bytes of the SHA-1 of a field's JSON, as hex.  Short enough to keep one per field in
+     * the page property, long enough that a changed value is not mistaken for the synced one.
+     */
+    private static String hash(JsonElement value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i=0; i<8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return value.toString();
+        }
+    }
+}
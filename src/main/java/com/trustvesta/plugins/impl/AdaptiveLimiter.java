@@ -0,0 +1,128 @@
+package com.trustvesta.plugins.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AdaptiveLimiter class definition.  An AIMD limit on the number of JIRA calls in flight: every call
+ * that comes back in time raises the limit by 1/limit, so it grows by about one per round of calls,
+ * and a throttled, failed or slow call cuts it by BACKOFF_RATIO.  Like TCP, only calls started after
+ * the last cut can cut it again, so one burst of 429s halves the limit once rather than to the floor.
+ * 
+ */
+public class AdaptiveLimiter
+{
+    static final double BACKOFF_RATIO = 0.5;
+
+    private final Object lock = new Object();
+    private double limit;
+    private int maxLimit;
+    private int inFlight;
+    private long lastDecrease = System.nanoTime();
+
+    public AdaptiveLimiter(int initialLimit, int maxLimit)
+    {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+    }
+
+    /**
+     * Wait up to timeoutMillis for a free slot.  Every true return must be followed by exactly one
+     * of onSuccess(), onOverload() or onIgnore().
+     * 
+     * @return true if a slot was taken, false on timeout.
+     * @throws InterruptedException
+     */
+    public boolean acquire(long timeoutMillis) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (lock) {
+            while (inFlight >= (int) limit) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            inFlight++;
+            return true;
+        }
+    }
+
+    /**
+     * Release a slot for a call that succeeded.  A call slower than targetNanos is treated as a sign
+     * of overload.
+     * 
+     * @param startedNanos System.nanoTime() when the call was sent
+     * @param targetNanos
+     */
+    public void onSuccess(long startedNanos, long targetNanos)
+    {
+        long latency = System.nanoTime() - startedNanos;
+        synchronized (lock) {
+            if (latency > targetNanos) {
+                decrease(startedNanos);
+            } else {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            release();
+        }
+    }
+
+    /**
+     * Release a slot for a call that JIRA throttled or that failed for want of a response.
+     */
+    public void onOverload(long startedNanos)
+    {
+        synchronized (lock) {
+            decrease(startedNanos);
+            release();
+        }
+    }
+
+    /**
+     * Release a slot without touching the limit, e.g. for a 404.
+     */
+    public void onIgnore()
+    {
+        synchronized (lock) {
+            release();
+        }
+    }
+
+    public void setMaxLimit(int maxLimit)
+    {
+        synchronized (lock) {
+            this.maxLimit = Math.max(1, maxLimit);
+            limit = Math.min(limit, this.maxLimit);
+            lock.notifyAll();
+        }
+    }
+
+    public double getLimit()
+    {
+        synchronized (lock) {
+            return limit;
+        }
+    }
+
+    public int getInFlight()
+    {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    private void decrease(long startedNanos)
+    {
+        if (startedNanos - lastDecrease >= 0) {
+            limit = Math.max(1, limit * BACKOFF_RATIO);
+            lastDecrease = System.nanoTime();
+        }
+    }
+
+    private void release()
+    {
+        inFlight--;
+        lock.notifyAll();
+    }
+}
@@ -0,0 +1,91 @@
+package com.trustvesta.plugins.impl;
+
+/**
+ * CircuitBreaker class definition.  After failureThreshold JIRA calls in a row fail the breaker
+ * opens and calls are refused at once, so Confluence threads are not left waiting on a JIRA that
+ * cannot answer.  Once openMillis (or a longer Retry-After) has passed, one trial call is let through:
+ * if it succeeds the breaker closes, otherwise it opens again.
+ * 
+ */
+public class CircuitBreaker
+{
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(int failureThreshold, long openMillis)
+    {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Return true if a call may be made now.  In the half-open state only the single trial call is
+     * allowed; it must be followed by onSuccess(), onFailure() or onCancel().
+     */
+    public synchronized boolean allowRequest()
+    {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void onSuccess()
+    {
+        state = State.CLOSED;
+        failures = 0;
+        trialInFlight = false;
+    }
+
+    /**
+     * Count a failed call.
+     * 
+     * @param retryAfterMillis how long JIRA asked us to wait, or -1; the breaker stays open at
+     *        least this long if it opens
+     */
+    public synchronized void onFailure(long retryAfterMillis)
+    {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + Math.max(openMillis, retryAfterMillis);
+            failures = 0;
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * Hand back an allowed call that was never made.
+     */
+    public synchronized void onCancel()
+    {
+        trialInFlight = false;
+    }
+
+    public synchronized State getState()
+    {
+        return state;
+    }
+
+    /**
+     * Return how long until the breaker lets a trial call through, 0 unless it is open.
+     */
+    public synchronized long getRetryAfterMillis()
+    {
+        return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+}
@@ -0,0 +1,103 @@
+package com.trustvesta.plugins.impl;
+
+import com.trustvesta.plugins.api.FragmentCache;
+import com.trustvesta.plugins.api.JiraSettings;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * FragmentCacheImpl class definition.  Laid out like IssueHierarchyCacheImpl: an access-ordered
+ * LinkedHashMap guarded by its own monitor, with each entry remembering when it expires.  The TTL
+ * bounds how long anything outside the key, such as the page creator's display name, can be stale.
+ * 
+ */
+@Named ("fragmentCache")
+public class FragmentCacheImpl implements FragmentCache
+{
+    private final JiraSettings jiraSettings;
+    private final Map<String, CacheEntry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private int maxSize;
+
+    @Inject
+    public FragmentCacheImpl(final JiraSettings jiraSettings)
+    {
+        this.jiraSettings = jiraSettings;
+        this.entries = new LinkedHashMap<String, CacheEntry>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public String get(String key)
+    {
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.html;
+        }
+    }
+
+    public void put(String key, String html)
+    {
+        long ttl = TimeUnit.MINUTES.toMillis(jiraSettings.getFragmentCacheTtlMinutes());
+        int size = jiraSettings.getFragmentCacheSize();
+        synchronized (entries) {
+            maxSize = size;
+            entries.put(key, new CacheEntry(html, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    public void invalidateAll()
+    {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    private static class CacheEntry
+    {
+        private final String html;
+        private final long expiresAt;
+
+        CacheEntry(String html, long expiresAt)
+        {
+            this.html = html;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
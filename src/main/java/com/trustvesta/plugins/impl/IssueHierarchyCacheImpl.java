@@ -0,0 +1,123 @@
+package com.trustvesta.plugins.impl;
+
+import com.trustvesta.plugins.api.HierarchyLink;
+import com.trustvesta.plugins.api.IssueHierarchyCache;
+import com.trustvesta.plugins.api.JiraSettings;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * IssueHierarchyCacheImpl class definition.  An access-ordered LinkedHashMap guarded by its own
+ * monitor gives LRU eviction.  Each entry remembers when it expires so stale links are dropped on read.
+ * 
+ */
+@Named ("issueHierarchyCache")
+public class IssueHierarchyCacheImpl implements IssueHierarchyCache
+{
+    private final JiraSettings jiraSettings;
+    private final Map<String, CacheEntry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private int maxSize;
+
+    @Inject
+    public IssueHierarchyCacheImpl(final JiraSettings jiraSettings)
+    {
+        this.jiraSettings = jiraSettings;
+        this.entries = new LinkedHashMap<String, CacheEntry>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public HierarchyLink get(String issueKey)
+    {
+        synchronized (entries) {
+            CacheEntry entry = entries.get(issueKey);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(issueKey);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.link;
+        }
+    }
+
+    public void put(String issueKey, HierarchyLink link)
+    {
+        long ttl = TimeUnit.MINUTES.toMillis(jiraSettings.getHierarchyCacheTtlMinutes());
+        int size = jiraSettings.getHierarchyCacheSize();
+        synchronized (entries) {
+            maxSize = size;
+            entries.put(issueKey, new CacheEntry(link, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    public boolean refresh(String issueKey, HierarchyLink link)
+    {
+        long ttl = TimeUnit.MINUTES.toMillis(jiraSettings.getHierarchyCacheTtlMinutes());
+        synchronized (entries) {
+            CacheEntry entry = entries.get(issueKey);
+            if (entry == null || !entry.link.getParentField().equals(link.getParentField())) {
+                return false;
+            }
+            entries.put(issueKey, new CacheEntry(link, System.currentTimeMillis() + ttl));
+            return true;
+        }
+    }
+
+    public void invalidate(String issueKey)
+    {
+        synchronized (entries) {
+            entries.remove(issueKey);
+        }
+    }
+
+    public void invalidateAll()
+    {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    private static class CacheEntry
+    {
+        private final HierarchyLink link;
+        private final long expiresAt;
+
+        CacheEntry(HierarchyLink link, long expiresAt)
+        {
+            this.link = link;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
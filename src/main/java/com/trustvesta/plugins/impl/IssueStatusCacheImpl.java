@@ -0,0 +1,158 @@
+package com.trustvesta.plugins.impl;
+
+import com.trustvesta.plugins.api.IssueStatus;
+import com.trustvesta.plugins.api.IssueStatusCache;
+import com.trustvesta.plugins.api.JiraSettings;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * IssueStatusCacheImpl class definition.  Laid out like IssueHierarchyCacheImpl: an access-ordered
+ * LinkedHashMap guarded by its own monitor, with each entry remembering when it expires.  The map
+ * is keyed by issue and holds a small map of entries by user, so the size limit counts issues and a
+ * webhook reaches every user's copy of an issue in one lookup.
+ * 
+ */
+@Named ("issueStatusCache")
+public class IssueStatusCacheImpl implements IssueStatusCache
+{
+    private final JiraSettings jiraSettings;
+    private final Map<String, Map<String, CacheEntry>> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private int maxSize;
+
+    @Inject
+    public IssueStatusCacheImpl(final JiraSettings jiraSettings)
+    {
+        this.jiraSettings = jiraSettings;
+        this.entries = new LinkedHashMap<String, Map<String, CacheEntry>>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, CacheEntry>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public IssueStatus get(String userKey, String issueKey)
+    {
+        synchronized (entries) {
+            Map<String, CacheEntry> users = entries.get(issueKey);
+            CacheEntry entry = users != null ? users.get(userKey) : null;
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                users.remove(userKey);
+                if (users.isEmpty()) {
+                    entries.remove(issueKey);
+                }
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.status;
+        }
+    }
+
+    public void put(String userKey, String issueKey, IssueStatus status)
+    {
+        long ttl = TimeUnit.SECONDS.toMillis(jiraSettings.getStatusCacheTtlSeconds());
+        int size = jiraSettings.getStatusCacheSize();
+        synchronized (entries) {
+            maxSize = size;
+            long now = System.currentTimeMillis();
+            Map<String, CacheEntry> users = entries.get(issueKey);
+            if (users == null) {
+                users = new HashMap<String, CacheEntry>();
+                entries.put(issueKey, users);
+            }
+            removeExpired(users, now);
+            users.put(userKey, new CacheEntry(status, now + ttl));
+        }
+    }
+
+    public boolean refresh(String issueKey, String status)
+    {
+        long ttl = TimeUnit.SECONDS.toMillis(jiraSettings.getStatusCacheTtlSeconds());
+        synchronized (entries) {
+            Map<String, CacheEntry> users = entries.get(issueKey);
+            if (users == null) {
+                return false;
+            }
+            // Expired entries are dropped rather than revived: that user may no longer see the issue.
+            long now = System.currentTimeMillis();
+            removeExpired(users, now);
+            if (users.isEmpty()) {
+                entries.remove(issueKey);
+                return false;
+            }
+            for (Map.Entry<String, CacheEntry> user : users.entrySet()) {
+                IssueStatus cached = user.getValue().status;
+                user.setValue(new CacheEntry(new IssueStatus(cached.getKey(), status, cached.getLink()), now + ttl));
+            }
+            return true;
+        }
+    }
+
+    public void invalidate(String issueKey)
+    {
+        synchronized (entries) {
+            entries.remove(issueKey);
+        }
+    }
+
+    public void invalidateAll()
+    {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    private static void removeExpired(Map<String, CacheEntry> users, long now)
+    {
+        Iterator<CacheEntry> entry = users.values().iterator();
+        while (entry.hasNext()) {
+            if (entry.next().expiresAt < now) {
+                entry.remove();
+            }
+        }
+    }
+
+    private static class CacheEntry
+    {
+        private final IssueStatus status;
+        private final long expiresAt;
+
+        CacheEntry(IssueStatus status, long expiresAt)
+        {
+            this.status = status;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
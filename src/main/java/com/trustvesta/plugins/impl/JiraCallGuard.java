@@ -0,0 +1,216 @@
+package com.trustvesta.plugins.impl;
+
+import com.trustvesta.plugins.api.JiraClientException;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraSettings;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JiraCallGuard class definition.  Every JIRA call is passed through here, which:
+ * 
+ *   - refuses it at once while the CircuitBreaker is open,
+ *   - waits up to PERMIT_WAIT_MILLIS for a slot under the AdaptiveLimiter,
+ *   - retries a 429 or 503 up to getJiraRetryAttempts() times after a jittered exponential backoff,
+ *     or after the Retry-After JIRA sent when that is no longer than MAX_RETRY_AFTER_MILLIS.
+ * 
+ * Only throttled calls are retried.  JIRA did not act on them and their response body was never
+ * read, so this is safe for searches that stream into a handler and for creates alike.  The slot is
+ * given back while a retry waits.
+ * 
+ * Calls refused here throw a JiraClientException with status 503 and, where known, a Retry-After.
+ * 
+ */
+public class JiraCallGuard
+{
+    static final long PERMIT_WAIT_MILLIS = 5000;
+    static final long BASE_BACKOFF_MILLIS = 250;
+    static final long MAX_BACKOFF_MILLIS = 8000;
+    static final long MAX_RETRY_AFTER_MILLIS = 10000;
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_MILLIS = 30000;
+
+    /**
+     * One attempt at a JIRA call.
+     */
+    public interface Call<T>
+    {
+        T run() throws JiraClientException;
+    }
+
+    private final JiraSettings jiraSettings;
+    private final JiraMetrics jiraMetrics;
+    private final AdaptiveLimiter limiter;
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS);
+
+    public JiraCallGuard(final JiraSettings jiraSettings, final JiraMetrics jiraMetrics)
+    {
+        this.jiraSettings = jiraSettings;
+        this.jiraMetrics = jiraMetrics;
+        int maxConcurrency = jiraSettings.getJiraMaxConcurrency();
+        this.limiter = new AdaptiveLimiter(Math.max(1, maxConcurrency / 2), maxConcurrency);
+    }
+
+    /**
+     * execute()
+     * 
+     * Make the call under the breaker, limiter and retry policy.
+     * 
+     * @param call
+     * @return whatever the call returns.
+     * @throws JiraClientException from the last attempt, or with status 503 if the call was refused
+     * 
+     */
+    public <T> T execute(Call<T> call) throws JiraClientException
+    {
+        int retries = jiraSettings.getJiraRetryAttempts();
+        for (int attempt=0; ; attempt++) {
+            try {
+                return attempt(call);
+            } catch (Refused e) {
+                throw e;
+            } catch (JiraClientException e) {
+                if (!e.isThrottled() || attempt >= retries || circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+                    throw e;
+                }
+                long backoff = backoffMillis(attempt, e.getRetryAfterMillis());
+                if (backoff < 0) {
+                    throw e;
+                }
+                jiraMetrics.recordError("jiraRetry");
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public AdaptiveLimiter getLimiter()
+    {
+        return limiter;
+    }
+
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return circuitBreaker;
+    }
+
+    private <T> T attempt(Call<T> call) throws JiraClientException
+    {
+        if (!circuitBreaker.allowRequest()) {
+            jiraMetrics.recordError("jiraCircuitOpen");
+            throw new Refused("JIRA circuit breaker is open", circuitBreaker.getRetryAfterMillis());
+        }
+
+        limiter.setMaxLimit(jiraSettings.getJiraMaxConcurrency());
+        boolean permitted;
+        try {
+            permitted = limiter.acquire(PERMIT_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permitted = false;
+        }
+        if (!permitted) {
+            circuitBreaker.onCancel();
+            jiraMetrics.recordError("jiraLimitReached");
+            throw new Refused("Too many JIRA calls in flight", -1);
+        }
+
+        long started = System.nanoTime();
+        try {
+            T result = call.run();
+            limiter.onSuccess(started, TimeUnit.MILLISECONDS.toNanos(jiraSettings.getJiraLatencyTargetMillis()));
+            circuitBreaker.onSuccess();
+            return result;
+        } catch (JiraClientException e) {
+            // A 4xx other than 429 is JIRA answering normally about a bad request or missing issue.
+            int status = e.getStatusCode();
+            if (status >= 400 && status < 500 && status != 429) {
+                limiter.onIgnore();
+                circuitBreaker.onSuccess();
+            } else {
+                if (e.isThrottled()) {
+                    jiraMetrics.recordError("jiraThrottled");
+                }
+                limiter.onOverload(started);
+                circuitBreaker.onFailure(e.getRetryAfterMillis());
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            limiter.onIgnore();
+            circuitBreaker.onCancel();
+            throw e;
+        }
+    }
+
+    /**
+     * backoffMillis()
+     * 
+     * How long to wait before retry number attempt + 1.  A Retry-After from JIRA is honoured, plus up
+     * to BASE_BACKOFF_MILLIS of jitter so waiting callers do not all return at once.  Otherwise the
+     * wait is drawn from the upper half of an exponential window capped at MAX_BACKOFF_MILLIS.
+     * 
+     * @param attempt 0 for the first retry
+     * @param retryAfterMillis from JIRA, or -1
+     * @return long holding the wait, or -1 if JIRA asked for longer than MAX_RETRY_AFTER_MILLIS.
+     * 
+     */
+    public static long backoffMillis(int attempt, long retryAfterMillis)
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (retryAfterMillis >= 0) {
+            if (retryAfterMillis > MAX_RETRY_AFTER_MILLIS) {
+                return -1;
+            }
+            return retryAfterMillis + random.nextLong(BASE_BACKOFF_MILLIS + 1);
+        }
+        long window = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return window / 2 + random.nextLong(window / 2 + 1);
+    }
+
+    /**
+     * parseRetryAfter()
+     * 
+     * Read a Retry-After header, given either as delay seconds or as an HTTP date.
+     * 
+     * @param value header value, may be null
+     * @param nowMillis
+     * @return long holding the delay in milliseconds, or -1 if the header is missing or not valid.
+     * 
+     */
+    public static long parseRetryAfter(String value, long nowMillis)
+    {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        String trimmed = value.trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(trimmed)));
+        } catch (NumberFormatException e) {
+            // Not delay seconds, so try an HTTP date.
+        }
+        try {
+            long at = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, at - nowMillis);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A call refused before it reached JIRA.  Never retried here.
+     */
+    private static class Refused extends JiraClientException
+    {
+        Refused(String message, long retryAfterMillis)
+        {
+            super(message, 503, retryAfterMillis);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.trustvesta.plugins.impl;
+
+import com.atlassian.applinks.api.ApplicationId;
+import com.atlassian.applinks.api.ApplicationLink;
+import com.atlassian.applinks.api.ApplicationLinkRequest;
+import com.atlassian.applinks.api.ApplicationLinkRequestFactory;
+import com.atlassian.applinks.api.ApplicationLinkService;
+import com.atlassian.applinks.api.application.jira.JiraApplicationType;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.net.Request.MethodType;
+import com.atlassian.sal.api.net.Response;
+import com.atlassian.sal.api.net.ResponseException;
+import com.atlassian.sal.api.net.ReturningResponseHandler;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.JiraClient;
+import com.trustvesta.plugins.api.JiraClientException;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.report.SearchPageParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * JiraClientImpl class definition.  The authenticated request factory is created once for the primary
+ * JIRA link and reused for every call, so the Application Link's pooled HTTP connections and
+ * authentication setup are shared rather than rebuilt per request.  If the primary link changes the
+ * factory is rebuilt on the next call.  Every request object is local to its call.
+ * 
+ * Each call is timed and the response bytes counted as they are read, and both are recorded in
+ * JiraMetrics under the name of the method that made the call.
+ * 
+ * Every call goes through a JiraCallGuard, which limits how many are in flight as JIRA's response
+ * times and 429s dictate, retries throttled calls and stops calling JIRA while it keeps failing.
+ * 
+ */
+@Named ("jiraClient")
+public class JiraClientImpl implements JiraClient
+{
+    @ComponentImport
+    private final ApplicationLinkService applicationLinkService;
+    private final JiraMetrics jiraMetrics;
+    private final JiraCallGuard callGuard;
+
+    private volatile LinkFactory linkFactory;
+
+    @Inject
+    public JiraClientImpl(final ApplicationLinkService applicationLinkService, final JiraSettings jiraSettings,
+            final JiraMetrics jiraMetrics)
+    {
+        this.applicationLinkService = applicationLinkService;
+        this.jiraMetrics = jiraMetrics;
+        this.callGuard = new JiraCallGuard(jiraSettings, jiraMetrics);
+    }
+
+    public SearchPageParser.PageInfo search(JsonObject searchBody, final SearchPageParser.IssueHandler handler) throws JiraClientException
+    {
+        return execute("search", MethodType.POST, "/rest/api/latest/search", searchBody.toString(),
+                new CountingHandler<SearchPageParser.PageInfo>() {
+            SearchPageParser.PageInfo read(InputStream in) throws IOException {
+                return SearchPageParser.parse(new InputStreamReader(in, StandardCharsets.UTF_8), handler);
+            }
+        });
+    }
+
+    public String getBrowseUrl(String issueKey) throws JiraClientException
+    {
+        String displayUrl = primaryLink().getDisplayUrl().toString();
+        if (displayUrl.endsWith("/")) {
+            displayUrl = displayUrl.substring(0, displayUrl.length() - 1);
+        }
+        return displayUrl + "/browse/" + issueKey;
+    }
+
+    public JsonObject getIssue(String issueKey, String[] fields, String[] expand) throws JiraClientException
+    {
+        StringBuilder endpoint = new StringBuilder("/rest/api/latest/issue/").append(issuePath(issueKey));
+        char separator = '?';
+        if (fields != null) {
+            endpoint.append(separator).append("fields=").append(encode(String.join(",", fields)));
+            separator = '&';
+        }
+        if (expand != null) {
+            endpoint.append(separator).append("expand=").append(encode(String.join(",", expand)));
+        }
+        return parseObject(execute("getIssue", MethodType.GET, endpoint.toString(), null, new BodyHandler()));
+    }
+
+    public JsonObject createIssue(String issueBody) throws JiraClientException
+    {
+        return parseObject(execute("createIssue", MethodType.POST, "/rest/api/2/issue", issueBody, new BodyHandler()));
+    }
+
+    public JsonObject createIssues(String bulkBody) throws JiraClientException
+    {
+        return parseObject(execute("createIssues", MethodType.POST, "/rest/api/2/issue/bulk", bulkBody, new BodyHandler() {
+            boolean accepts(int statusCode) {
+                return statusCode == 400 || super.accepts(statusCode);
+            }
+        }));
+    }
+
+    public void updateIssue(String issueKey, String issueBody) throws JiraClientException
+    {
+        execute("updateIssue", MethodType.PUT, "/rest/api/2/issue/" + issuePath(issueKey), issueBody, new BodyHandler());
+    }
+
+    public JsonObject getWorklogs(String issueKey, int startAt, int maxResults) throws JiraClientException
+    {
+        String endpoint = "/rest/api/2/issue/" + issuePath(issueKey) + "/worklog?startAt=" + startAt + "&maxResults=" + maxResults;
+        return parseObject(execute("getWorklogs", MethodType.GET, endpoint, null, new BodyHandler()));
+    }
+
+    public JsonObject getUpdatedWorklogs(long since) throws JiraClientException
+    {
+        return parseObject(execute("getUpdatedWorklogs", MethodType.GET, "/rest/api/2/worklog/updated?since=" + since, null,
+                new BodyHandler()));
+    }
+
+    public JsonObject getDeletedWorklogs(long since) throws JiraClientException
+    {
+        return parseObject(execute("getDeletedWorklogs", MethodType.GET, "/rest/api/2/worklog/deleted?since=" + since, null,
+                new BodyHandler()));
+    }
+
+    public JsonArray listWorklogs(List<Long> worklogIds) throws JiraClientException
+    {
+        JsonObject body = new JsonObject();
+        JsonArray ids = new JsonArray();
+        for (Long worklogId : worklogIds) {
+            ids.add(worklogId);
+        }
+        body.add("ids", ids);
+        String response = execute("listWorklogs", MethodType.POST, "/rest/api/2/worklog/list", body.toString(), new BodyHandler());
+        if (response == null || response.trim().isEmpty()) {
+            return new JsonArray();
+        }
+        return (JsonArray) new JsonParser().parse(response);
+    }
+
+    /**
+     * execute()
+     * 
+     * Build a request for the endpoint on the primary JIRA link, send it and hand the response to
+     * the handler, through the JiraCallGuard.  The time taken, bytes read and outcome of each attempt
+     * are recorded in JiraMetrics under call.
+     * 
+     * @param call name the call is recorded under
+     * @param method
+     * @param endpoint
+     * @param body request body, or null for none
+     * @param handler
+     * @return whatever the handler returns.
+     * @throws JiraClientException on any failure, carrying the HTTP status where there was one
+     * 
+     */
+    <T> T execute(final String call, final MethodType method, final String endpoint, final String body,
+            final CountingHandler<T> handler) throws JiraClientException
+    {
+        return callGuard.execute(new JiraCallGuard.Call<T>() {
+            public T run() throws JiraClientException {
+                return send(call, method, endpoint, body, handler);
+            }
+        });
+    }
+
+    private <T> T send(String call, MethodType method, String endpoint, String body, CountingHandler<T> handler)
+            throws JiraClientException
+    {
+        long started = System.nanoTime();
+        boolean failed = true;
+        handler.bytesReceived = 0;
+        try {
+            ApplicationLinkRequest request = requestFactory().createRequest(method, endpoint);
+            request.setHeader("Content-Type", MediaType.APPLICATION_JSON);
+            if (body != null) {
+                request.setRequestBody(body);
+            }
+            T result = request.executeAndReturn(handler);
+            failed = false;
+            return result;
+        } catch (JiraClientException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JiraClientException(method + " " + endpoint + " failed", e);
+        } finally {
+            jiraMetrics.recordCall(call, System.nanoTime() - started, handler.bytesReceived, failed);
+        }
+    }
+
+    private ApplicationLink primaryLink() throws JiraClientException
+    {
+        ApplicationLink link = applicationLinkService.getPrimaryApplicationLink(JiraApplicationType.class);
+        if (link == null) {
+            throw new JiraClientException("No primary JIRA application link is configured", 0);
+        }
+        return link;
+    }
+
+    private ApplicationLinkRequestFactory requestFactory() throws JiraClientException
+    {
+        ApplicationLink link = primaryLink();
+        LinkFactory current = linkFactory;
+        if (current == null || !current.linkId.equals(link.getId())) {
+            current = new LinkFactory(link.getId(), link.createAuthenticatedRequestFactory());
+            linkFactory = current;
+        }
+        return current.factory;
+    }
+
+    private static JiraClientException statusException(Response response)
+    {
+        return new JiraClientException("JIRA returned " + response.getStatusCode() + " " + response.getStatusText(),
+                response.getStatusCode(), JiraCallGuard.parseRetryAfter(response.getHeader("Retry-After"), System.currentTimeMillis()));
+    }
+
+    /**
+     * An issue key or id as one encoded path segment.  URLEncoder leaves dots alone, so "." and ".."
+     * are refused rather than let them walk up to another JIRA endpoint.
+     */
+    private static String issuePath(String issueKey) throws JiraClientException
+    {
+        if (issueKey == null || issueKey.isEmpty() || issueKey.equals(".") || issueKey.equals("..")) {
+            throw new JiraClientException("Invalid issue key: " + issueKey, 400);
+        }
+        return encode(issueKey);
+    }
+
+    private static String encode(String value) throws JiraClientException
+    {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new JiraClientException("UTF-8 is not supported", e);
+        }
+    }
+
+    private static JsonObject parseObject(String body)
+    {
+        if (body == null || body.trim().isEmpty()) {
+            return new JsonObject();
+        }
+        return (JsonObject) new JsonParser().parse(body);
+    }
+
+    /**
+     * Checks the status and reads the response body through a counting stream.  A new handler is
+     * made for every call since it keeps that call's byte count.  Only 2xx responses are read unless
+     * accepts() is overridden.
+     */
+    private abstract static class CountingHandler<T> implements ReturningResponseHandler<Response, T>
+    {
+        private volatile long bytesReceived;
+
+        public T handle(Response response) throws ResponseException
+        {
+            if (!accepts(response.getStatusCode())) {
+                throw statusException(response);
+            }
+            InputStream body = response.getResponseBodyAsStream();
+            CountingInputStream in = new CountingInputStream(body != null ? body : new ByteArrayInputStream(new byte[0]));
+            try {
+                return read(in);
+            } catch (IOException e) {
+                throw new JiraClientException("Unable to read response", e);
+            } finally {
+                bytesReceived = in.count;
+            }
+        }
+
+        boolean accepts(int statusCode)
+        {
+            return statusCode >= 200 && statusCode < 300;
+        }
+
+        abstract T read(InputStream in) throws IOException;
+    }
+
+    private static class BodyHandler extends CountingHandler<String>
+    {
+        String read(InputStream in) throws IOException
+        {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private long count;
+
+        CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    private static class LinkFactory
+    {
+        private final ApplicationId linkId;
+        private final ApplicationLinkRequestFactory factory;
+
+        LinkFactory(ApplicationId linkId, ApplicationLinkRequestFactory factory)
+        {
+            this.linkId = linkId;
+            this.factory = factory;
+        }
+    }
+}
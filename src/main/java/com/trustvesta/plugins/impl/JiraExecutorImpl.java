@@ -0,0 +1,199 @@
+package com.trustvesta.plugins.impl;
+
+import com.atlassian.confluence.user.AuthenticatedUserThreadLocal;
+import com.atlassian.confluence.user.ConfluenceUser;
+import com.trustvesta.plugins.api.JiraExecutor;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraSettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * JiraExecutorImpl class definition.  A fixed-size pool of daemon threads which is resized when the
+ * parallelism setting changes and shut down when the plugin is disabled.  Timed out lookups are
+ * counted in JiraMetrics.
+ * 
+ * The calling user is carried over to the worker thread for each task, as ReportJobManagerImpl does
+ * for report jobs, so Application Link requests are made on their behalf.  The lookup timeout is
+ * counted for each task from when it starts on a worker, so tasks queued behind a large batch are
+ * not cut short by the time they spent waiting.
+ * 
+ */
+@Named ("jiraExecutor")
+public class JiraExecutorImpl implements JiraExecutor, DisposableBean
+{
+    private static final Logger log = LoggerFactory.getLogger(JiraExecutorImpl.class);
+
+    private final JiraSettings jiraSettings;
+    private final JiraMetrics jiraMetrics;
+    private final ThreadPoolExecutor pool;
+
+    @Inject
+    public JiraExecutorImpl(final JiraSettings jiraSettings, final JiraMetrics jiraMetrics)
+    {
+        this.jiraSettings = jiraSettings;
+        this.jiraMetrics = jiraMetrics;
+        int parallelism = jiraSettings.getLookupParallelism();
+        this.pool = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    public <T> List<T> invokeAll(List<Callable<T>> tasks)
+    {
+        resize(jiraSettings.getLookupParallelism());
+        long timeout = jiraSettings.getLookupTimeoutSeconds();
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(timeout);
+        ConfluenceUser user = AuthenticatedUserThreadLocal.get();
+
+        List<TimedTask<T>> timedTasks = new ArrayList<TimedTask<T>>(tasks.size());
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            TimedTask<T> timedTask = new TimedTask<T>(user, task);
+            timedTasks.add(timedTask);
+            futures.add(pool.submit(timedTask));
+        }
+
+        List<T> results = new ArrayList<T>(tasks.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Future<T> future = futures.get(i);
+            T result = null;
+            try {
+                result = await(future, timedTasks.get(i), timeoutNanos);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                jiraMetrics.recordError("lookupTimeout");
+                log.warn("JIRA lookup timed out after {}s", timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelAll(futures);
+                break;
+            } catch (Exception e) {
+                log.warn("Exception in JIRA lookup", e.getCause());
+            }
+            results.add(result);
+        }
+        // Pad out the list if we were interrupted so callers can still index by position.
+        while (results.size() < tasks.size()) {
+            results.add(null);
+        }
+
+        return results;
+    }
+
+    public void destroy()
+    {
+        pool.shutdownNow();
+    }
+
+    private void resize(int parallelism)
+    {
+        if (parallelism == pool.getMaximumPoolSize()) {
+            return;
+        }
+        synchronized (pool) {
+            // Order matters: core size may never exceed the maximum.
+            if (parallelism > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(parallelism);
+                pool.setCorePoolSize(parallelism);
+            } else {
+                pool.setCorePoolSize(parallelism);
+                pool.setMaximumPoolSize(parallelism);
+            }
+        }
+    }
+
+    /**
+     * await()
+     * 
+     * Wait for the task's result.  While the task is still queued there is no limit; once it has
+     * started it gets timeoutNanos from its start time.
+     * 
+     * @param future
+     * @param task the task behind future, which records when it started
+     * @param timeoutNanos
+     * @return the task's result
+     * @throws TimeoutException if the task has run for longer than timeoutNanos
+     * 
+     */
+    private static <T> T await(Future<T> future, TimedTask<T> task, long timeoutNanos)
+            throws InterruptedException, ExecutionException, TimeoutException
+    {
+        while (true) {
+            long started = task.started;
+            long wait = started != 0L ? started + timeoutNanos - System.nanoTime() : timeoutNanos;
+            try {
+                return future.get(Math.max(0L, wait), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // Only give up on a task that had started before this wait began.
+                if (started != 0L) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the task as the given user, leaving the worker thread with no user afterwards, and
+     * records when it started.
+     */
+    private static class TimedTask<T> implements Callable<T>
+    {
+        private final ConfluenceUser user;
+        private final Callable<T> task;
+        private volatile long started;
+
+        TimedTask(ConfluenceUser user, Callable<T> task)
+        {
+            this.user = user;
+            this.task = task;
+        }
+
+        public T call() throws Exception
+        {
+            started = System.nanoTime();
+            AuthenticatedUserThreadLocal.set(user);
+            try {
+                return task.call();
+            } finally {
+                AuthenticatedUserThreadLocal.reset();
+            }
+        }
+    }
+
+    private static <T> void cancelAll(List<Future<T>> futures)
+    {
+        for (Future<T> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "SwissArmyKnife-jira-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
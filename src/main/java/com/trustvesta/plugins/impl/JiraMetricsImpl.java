@@ -0,0 +1,282 @@
+package com.trustvesta.plugins.impl;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.trustvesta.plugins.api.FragmentCache;
+import com.trustvesta.plugins.api.IssueHierarchyCache;
+import com.trustvesta.plugins.api.IssueStatusCache;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.ReportJobManager;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * JiraMetricsImpl class definition.  Timers and counters are created on first use and kept in
+ * concurrent maps, so recording never takes a lock.  Cache hit rates are read from the caches'
+ * own counters when a snapshot is taken.
+ * 
+ * While the plugin is enabled the snapshot is also registered as a JMX bean named OBJECT_NAME,
+ * with one read-only attribute per value, e.g. "calls.search.p99Millis", and a reset operation.
+ * 
+ */
+@Named ("jiraMetrics")
+public class JiraMetricsImpl implements JiraMetrics, InitializingBean, DisposableBean
+{
+    public static final String OBJECT_NAME = "com.trustvesta.plugins:type=JiraMetrics,name=SwissArmyKnife";
+
+    private static final Logger log = LoggerFactory.getLogger(JiraMetricsImpl.class);
+
+    private final IssueHierarchyCache hierarchyCache;
+    private final IssueStatusCache statusCache;
+    private final FragmentCache fragmentCache;
+    private final ReportJobManager reportJobManager;
+    private final ConcurrentMap<String, LatencyHistogram> stages = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentMap<String, CallStats> calls = new ConcurrentHashMap<String, CallStats>();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+    @Inject
+    public JiraMetricsImpl(final IssueHierarchyCache hierarchyCache, final IssueStatusCache statusCache,
+            final FragmentCache fragmentCache, final ReportJobManager reportJobManager)
+    {
+        this.hierarchyCache = hierarchyCache;
+        this.statusCache = statusCache;
+        this.fragmentCache = fragmentCache;
+        this.reportJobManager = reportJobManager;
+    }
+
+    public void recordStage(String stage, long elapsedNanos)
+    {
+        LatencyHistogram histogram = stages.get(stage);
+        if (histogram == null) {
+            stages.putIfAbsent(stage, new LatencyHistogram());
+            histogram = stages.get(stage);
+        }
+        histogram.record(elapsedNanos);
+    }
+
+    public void recordCall(String call, long elapsedNanos, long bytesReceived, boolean failed)
+    {
+        CallStats stats = calls.get(call);
+        if (stats == null) {
+            calls.putIfAbsent(call, new CallStats());
+            stats = calls.get(call);
+        }
+        stats.latency.record(elapsedNanos);
+        stats.bytesReceived.addAndGet(bytesReceived);
+        if (failed) {
+            stats.failures.incrementAndGet();
+        }
+    }
+
+    public void recordError(String source)
+    {
+        AtomicLong count = errors.get(source);
+        if (count == null) {
+            errors.putIfAbsent(source, new AtomicLong());
+            count = errors.get(source);
+        }
+        count.incrementAndGet();
+    }
+
+    public JsonObject snapshot()
+    {
+        JsonObject snapshot = new JsonObject();
+
+        JsonObject stageJson = new JsonObject();
+        for (Map.Entry<String, LatencyHistogram> stage : new TreeMap<String, LatencyHistogram>(stages).entrySet()) {
+            stageJson.add(stage.getKey(), stage.getValue().toJson());
+        }
+        snapshot.add("stages", stageJson);
+
+        JsonObject callJson = new JsonObject();
+        for (Map.Entry<String, CallStats> call : new TreeMap<String, CallStats>(calls).entrySet()) {
+            JsonObject json = call.getValue().latency.toJson();
+            json.addProperty("failures", call.getValue().failures.get());
+            json.addProperty("bytesReceived", call.getValue().bytesReceived.get());
+            callJson.add(call.getKey(), json);
+        }
+        snapshot.add("calls", callJson);
+
+        JsonObject cacheJson = new JsonObject();
+        cacheJson.add("hierarchy", cacheJson(hierarchyCache.getHitCount(), hierarchyCache.getMissCount()));
+        cacheJson.add("status", cacheJson(statusCache.getHitCount(), statusCache.getMissCount()));
+        cacheJson.add("fragment", cacheJson(fragmentCache.getHitCount(), fragmentCache.getMissCount()));
+        JsonObject reportJson = new JsonObject();
+        reportJson.addProperty("cacheHits", reportJobManager.getCacheHitCount());
+        reportJson.addProperty("coalesced", reportJobManager.getCoalescedCount());
+        cacheJson.add("report", reportJson);
+        snapshot.add("caches", cacheJson);
+
+        JsonObject errorJson = new JsonObject();
+        for (Map.Entry<String, AtomicLong> error : new TreeMap<String, AtomicLong>(errors).entrySet()) {
+            errorJson.addProperty(error.getKey(), error.getValue().get());
+        }
+        snapshot.add("errors", errorJson);
+
+        return snapshot;
+    }
+
+    public void reset()
+    {
+        stages.clear();
+        calls.clear();
+        errors.clear();
+    }
+
+    public void afterPropertiesSet()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            // A plugin reload that skipped destroy() leaves the old bean behind.
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MetricsBean(), name);
+        } catch (Exception e) {
+            log.warn("Unable to register JMX bean " + OBJECT_NAME, e);
+        }
+    }
+
+    public void destroy()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            log.warn("Unable to unregister JMX bean " + OBJECT_NAME, e);
+        }
+    }
+
+    private static JsonObject cacheJson(long hits, long misses)
+    {
+        JsonObject json = new JsonObject();
+        json.addProperty("hits", hits);
+        json.addProperty("misses", misses);
+        json.addProperty("hitRate", hits + misses == 0 ? 0 : hits / (double) (hits + misses));
+        return json;
+    }
+
+    /**
+     * flatten()
+     * 
+     * Collect the numbers in a snapshot under dotted names, e.g. "stages.epics.count".
+     * 
+     */
+    static void flatten(String prefix, JsonObject json, Map<String, Object> values)
+    {
+        for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+            String name = prefix.isEmpty() ? entry.getKey() : prefix + "." + entry.getKey();
+            if (entry.getValue().isJsonObject()) {
+                flatten(name, entry.getValue().getAsJsonObject(), values);
+            } else if (entry.getValue().isJsonPrimitive() && entry.getValue().getAsJsonPrimitive().isNumber()) {
+                Number number = entry.getValue().getAsNumber();
+                values.put(name, number instanceof Double ? (Object) number.doubleValue() : (Object) number.longValue());
+            }
+        }
+    }
+
+    private static class CallStats
+    {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+    }
+
+    /**
+     * Read-only view of the current snapshot.  The attribute list follows whatever stages and calls
+     * have been recorded so far.
+     */
+    private class MetricsBean implements DynamicMBean
+    {
+        public Object getAttribute(String attribute) throws AttributeNotFoundException
+        {
+            Object value = values().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+        {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        public AttributeList getAttributes(String[] attributes)
+        {
+            Map<String, Object> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        public AttributeList setAttributes(AttributeList attributes)
+        {
+            return new AttributeList();
+        }
+
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException
+        {
+            if ("reset".equals(actionName)) {
+                reset();
+                return null;
+            }
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        public MBeanInfo getMBeanInfo()
+        {
+            List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            for (Map.Entry<String, Object> value : values().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                        value.getKey(), true, false, false));
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clear the stage, call and error counters",
+                    new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(JiraMetricsImpl.class.getName(), "Swiss Army Knife JIRA bridge metrics",
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+                    new MBeanOperationInfo[] { reset }, null);
+        }
+
+        private Map<String, Object> values()
+        {
+            Map<String, Object> values = new TreeMap<String, Object>();
+            flatten("", snapshot(), values);
+            return values;
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package com.trustvesta.plugins.impl;
+
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.trustvesta.plugins.api.JiraFieldMapping;
+import com.trustvesta.plugins.api.JiraSettings;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JiraSettingsImpl class definition.  Settings are kept as strings in the global PluginSettings under
+ * a key prefixed with the plugin key.
+ * 
+ */
+@Named ("jiraSettings")
+public class JiraSettingsImpl implements JiraSettings
+{
+    private static final Logger log = LoggerFactory.getLogger(JiraSettingsImpl.class);
+
+    private static final String PREFIX = "com.trustvesta.plugins.SwissArmyKnife.";
+
+    static final int DEFAULT_HYDRATION_BATCH_SIZE = 50;
+    static final int DEFAULT_LOOKUP_PARALLELISM = 8;
+    static final int DEFAULT_LOOKUP_TIMEOUT_SECONDS = 30;
+    static final int DEFAULT_HIERARCHY_CACHE_SIZE = 20000;
+    static final int DEFAULT_HIERARCHY_CACHE_TTL_MINUTES = 240;
+    static final int DEFAULT_STATUS_CACHE_SIZE = 5000;
+    static final int DEFAULT_STATUS_CACHE_TTL_SECONDS = 60;
+    static final int DEFAULT_FRAGMENT_CACHE_SIZE = 500;
+    static final int DEFAULT_FRAGMENT_CACHE_TTL_MINUTES = 60;
+    static final int DEFAULT_SEARCH_PAGE_SIZE = 100;
+    static final int DEFAULT_SEARCH_PARALLELISM = 4;
+    static final int DEFAULT_REPORT_JOB_THREADS = 2;
+    static final int DEFAULT_REPORT_RETENTION_MINUTES = 30;
+    static final int DEFAULT_REPORT_CACHE_SIZE = 20;
+    static final int DEFAULT_REPORT_CACHE_MINUTES = 720;
+    static final int DEFAULT_JIRA_MAX_CONCURRENCY = 16;
+    static final int DEFAULT_JIRA_LATENCY_TARGET_MILLIS = 5000;
+    static final int DEFAULT_JIRA_RETRY_ATTEMPTS = 3;
+    static final int DEFAULT_WORKLOG_SYNC_MINUTES = 5;
+
+    // Whole-number settings exposed through toJson() and update(), with their defaults.
+    private static final Map<String, Integer> INT_SETTINGS = new LinkedHashMap<String, Integer>();
+    static {
+        INT_SETTINGS.put("hydrationBatchSize", DEFAULT_HYDRATION_BATCH_SIZE);
+        INT_SETTINGS.put("lookupParallelism", DEFAULT_LOOKUP_PARALLELISM);
+        INT_SETTINGS.put("lookupTimeoutSeconds", DEFAULT_LOOKUP_TIMEOUT_SECONDS);
+        INT_SETTINGS.put("hierarchyCacheSize", DEFAULT_HIERARCHY_CACHE_SIZE);
+        INT_SETTINGS.put("hierarchyCacheTtlMinutes", DEFAULT_HIERARCHY_CACHE_TTL_MINUTES);
+        INT_SETTINGS.put("statusCacheSize", DEFAULT_STATUS_CACHE_SIZE);
+        INT_SETTINGS.put("statusCacheTtlSeconds", DEFAULT_STATUS_CACHE_TTL_SECONDS);
+        INT_SETTINGS.put("fragmentCacheSize", DEFAULT_FRAGMENT_CACHE_SIZE);
+        INT_SETTINGS.put("fragmentCacheTtlMinutes", DEFAULT_FRAGMENT_CACHE_TTL_MINUTES);
+        INT_SETTINGS.put("searchPageSize", DEFAULT_SEARCH_PAGE_SIZE);
+        INT_SETTINGS.put("searchParallelism", DEFAULT_SEARCH_PARALLELISM);
+        INT_SETTINGS.put("reportJobThreads", DEFAULT_REPORT_JOB_THREADS);
+        INT_SETTINGS.put("reportRetentionMinutes", DEFAULT_REPORT_RETENTION_MINUTES);
+        INT_SETTINGS.put("reportCacheSize", DEFAULT_REPORT_CACHE_SIZE);
+        INT_SETTINGS.put("reportCacheMinutes", DEFAULT_REPORT_CACHE_MINUTES);
+        INT_SETTINGS.put("jiraMaxConcurrency", DEFAULT_JIRA_MAX_CONCURRENCY);
+        INT_SETTINGS.put("jiraLatencyTargetMillis", DEFAULT_JIRA_LATENCY_TARGET_MILLIS);
+        INT_SETTINGS.put("jiraRetryAttempts", DEFAULT_JIRA_RETRY_ATTEMPTS);
+        INT_SETTINGS.put("worklogSyncMinutes", DEFAULT_WORKLOG_SYNC_MINUTES);
+    }
+
+    @ComponentImport
+    private final PluginSettingsFactory pluginSettingsFactory;
+
+    @Inject
+    public JiraSettingsImpl(final PluginSettingsFactory pluginSettingsFactory)
+    {
+        this.pluginSettingsFactory = pluginSettingsFactory;
+    }
+
+    public int getHydrationBatchSize()
+    {
+        return getInt("hydrationBatchSize", DEFAULT_HYDRATION_BATCH_SIZE);
+    }
+
+    public void setHydrationBatchSize(int batchSize)
+    {
+        putInt("hydrationBatchSize", batchSize);
+    }
+
+    public int getLookupParallelism()
+    {
+        return getInt("lookupParallelism", DEFAULT_LOOKUP_PARALLELISM);
+    }
+
+    public void setLookupParallelism(int parallelism)
+    {
+        putInt("lookupParallelism", parallelism);
+    }
+
+    public int getLookupTimeoutSeconds()
+    {
+        return getInt("lookupTimeoutSeconds", DEFAULT_LOOKUP_TIMEOUT_SECONDS);
+    }
+
+    public void setLookupTimeoutSeconds(int seconds)
+    {
+        putInt("lookupTimeoutSeconds", seconds);
+    }
+
+    public int getHierarchyCacheSize()
+    {
+        return getInt("hierarchyCacheSize", DEFAULT_HIERARCHY_CACHE_SIZE);
+    }
+
+    public void setHierarchyCacheSize(int size)
+    {
+        putInt("hierarchyCacheSize", size);
+    }
+
+    public int getHierarchyCacheTtlMinutes()
+    {
+        return getInt("hierarchyCacheTtlMinutes", DEFAULT_HIERARCHY_CACHE_TTL_MINUTES);
+    }
+
+    public void setHierarchyCacheTtlMinutes(int minutes)
+    {
+        putInt("hierarchyCacheTtlMinutes", minutes);
+    }
+
+    public int getStatusCacheSize()
+    {
+        return getInt("statusCacheSize", DEFAULT_STATUS_CACHE_SIZE);
+    }
+
+    public void setStatusCacheSize(int size)
+    {
+        putInt("statusCacheSize", size);
+    }
+
+    public int getStatusCacheTtlSeconds()
+    {
+        return getInt("statusCacheTtlSeconds", DEFAULT_STATUS_CACHE_TTL_SECONDS);
+    }
+
+    public void setStatusCacheTtlSeconds(int seconds)
+    {
+        putInt("statusCacheTtlSeconds", seconds);
+    }
+
+    public int getFragmentCacheSize()
+    {
+        return getInt("fragmentCacheSize", DEFAULT_FRAGMENT_CACHE_SIZE);
+    }
+
+    public void setFragmentCacheSize(int size)
+    {
+        putInt("fragmentCacheSize", size);
+    }
+
+    public int getFragmentCacheTtlMinutes()
+    {
+        return getInt("fragmentCacheTtlMinutes", DEFAULT_FRAGMENT_CACHE_TTL_MINUTES);
+    }
+
+    public void setFragmentCacheTtlMinutes(int minutes)
+    {
+        putInt("fragmentCacheTtlMinutes", minutes);
+    }
+
+    public int getSearchPageSize()
+    {
+        return getInt("searchPageSize", DEFAULT_SEARCH_PAGE_SIZE);
+    }
+
+    public void setSearchPageSize(int pageSize)
+    {
+        putInt("searchPageSize", pageSize);
+    }
+
+    public int getSearchParallelism()
+    {
+        return getInt("searchParallelism", DEFAULT_SEARCH_PARALLELISM);
+    }
+
+    public void setSearchParallelism(int parallelism)
+    {
+        putInt("searchParallelism", parallelism);
+    }
+
+    public int getReportJobThreads()
+    {
+        return getInt("reportJobThreads", DEFAULT_REPORT_JOB_THREADS);
+    }
+
+    public void setReportJobThreads(int threads)
+    {
+        putInt("reportJobThreads", threads);
+    }
+
+    public int getReportRetentionMinutes()
+    {
+        return getInt("reportRetentionMinutes", DEFAULT_REPORT_RETENTION_MINUTES);
+    }
+
+    public void setReportRetentionMinutes(int minutes)
+    {
+        putInt("reportRetentionMinutes", minutes);
+    }
+
+    public int getReportCacheSize()
+    {
+        return getInt("reportCacheSize", DEFAULT_REPORT_CACHE_SIZE);
+    }
+
+    public void setReportCacheSize(int size)
+    {
+        putInt("reportCacheSize", size);
+    }
+
+    public int getReportCacheMinutes()
+    {
+        return getInt("reportCacheMinutes", DEFAULT_REPORT_CACHE_MINUTES);
+    }
+
+    public void setReportCacheMinutes(int minutes)
+    {
+        putInt("reportCacheMinutes", minutes);
+    }
+
+    public int getJiraMaxConcurrency()
+    {
+        return getInt("jiraMaxConcurrency", DEFAULT_JIRA_MAX_CONCURRENCY);
+    }
+
+    public void setJiraMaxConcurrency(int concurrency)
+    {
+        putInt("jiraMaxConcurrency", concurrency);
+    }
+
+    public int getJiraLatencyTargetMillis()
+    {
+        return getInt("jiraLatencyTargetMillis", DEFAULT_JIRA_LATENCY_TARGET_MILLIS);
+    }
+
+    public void setJiraLatencyTargetMillis(int millis)
+    {
+        putInt("jiraLatencyTargetMillis", millis);
+    }
+
+    public int getJiraRetryAttempts()
+    {
+        return getInt("jiraRetryAttempts", DEFAULT_JIRA_RETRY_ATTEMPTS);
+    }
+
+    public void setJiraRetryAttempts(int attempts)
+    {
+        putInt("jiraRetryAttempts", attempts);
+    }
+
+    public boolean isWorklogIndexEnabled()
+    {
+        return "true".equals(getString("worklogIndexEnabled"));
+    }
+
+    public void setWorklogIndexEnabled(boolean enabled)
+    {
+        pluginSettingsFactory.createGlobalSettings().put(PREFIX + "worklogIndexEnabled", Boolean.toString(enabled));
+    }
+
+    public String getWorklogSyncUser()
+    {
+        String value = getString("worklogSyncUser");
+        return value != null ? value : "";
+    }
+
+    public void setWorklogSyncUser(String username)
+    {
+        pluginSettingsFactory.createGlobalSettings().put(PREFIX + "worklogSyncUser", username);
+    }
+
+    public int getWorklogSyncMinutes()
+    {
+        return getInt("worklogSyncMinutes", DEFAULT_WORKLOG_SYNC_MINUTES);
+    }
+
+    public void setWorklogSyncMinutes(int minutes)
+    {
+        putInt("worklogSyncMinutes", minutes);
+    }
+
+    public String getWebhookSecret()
+    {
+        String value = getString("webhookSecret");
+        return value != null ? value : "";
+    }
+
+    public void setWebhookSecret(String secret)
+    {
+        pluginSettingsFactory.createGlobalSettings().put(PREFIX + "webhookSecret", secret);
+    }
+
+    public JiraFieldMapping getFieldMapping()
+    {
+        String value = getString("fieldMapping");
+        if (value == null || value.isEmpty()) {
+            return JiraFieldMapping.DEFAULT;
+        }
+        try {
+            return JiraFieldMapping.fromJson((JsonObject) new JsonParser().parse(value));
+        } catch (Exception e) {
+            log.warn("Exception reading setting fieldMapping", e);
+            return JiraFieldMapping.DEFAULT;
+        }
+    }
+
+    public void setFieldMapping(JiraFieldMapping mapping)
+    {
+        pluginSettingsFactory.createGlobalSettings().put(PREFIX + "fieldMapping", mapping.toJson().toString());
+    }
+
+    public JsonObject toJson()
+    {
+        JsonObject json = new JsonObject();
+        for (Map.Entry<String, Integer> setting : INT_SETTINGS.entrySet()) {
+            json.addProperty(setting.getKey(), getInt(setting.getKey(), setting.getValue()));
+        }
+        json.addProperty("worklogIndexEnabled", isWorklogIndexEnabled());
+        json.addProperty("worklogSyncUser", getWorklogSyncUser());
+        return json;
+    }
+
+    public void update(JsonObject json)
+    {
+        // Check every value before storing any.
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, JsonElement> setting : json.entrySet()) {
+            values.put(setting.getKey(), settingValue(setting.getKey(), setting.getValue()));
+        }
+        PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            settings.put(PREFIX + value.getKey(), value.getValue());
+        }
+    }
+
+    /**
+     * settingValue()
+     * 
+     * Check a value sent to update() against its setting's type.
+     * 
+     * @param key
+     * @param value
+     * @return String holding the value as it is stored.
+     * @throws IllegalArgumentException if key is not a setting toJson() returns or value does not fit it
+     * 
+     */
+    static String settingValue(String key, JsonElement value)
+    {
+        JsonPrimitive primitive = value != null && value.isJsonPrimitive() ? value.getAsJsonPrimitive() : null;
+        if (INT_SETTINGS.containsKey(key)) {
+            try {
+                int parsed = primitive.getAsBigDecimal().intValueExact();
+                if (primitive.isNumber() && parsed > 0) {
+                    return Integer.toString(parsed);
+                }
+            } catch (Exception e) {
+                // Reported below.
+            }
+            throw new IllegalArgumentException(key + " must be a positive whole number");
+        }
+        if (key.equals("worklogIndexEnabled")) {
+            if (primitive == null || !primitive.isBoolean()) {
+                throw new IllegalArgumentException(key + " must be true or false");
+            }
+            return Boolean.toString(primitive.getAsBoolean());
+        }
+        if (key.equals("worklogSyncUser")) {
+            if (primitive == null || !primitive.isString()) {
+                throw new IllegalArgumentException(key + " must be a user name");
+            }
+            return primitive.getAsString().trim();
+        }
+        throw new IllegalArgumentException("Unknown setting " + key);
+    }
+
+    /**
+     * getInt()
+     * 
+     * Read an integer setting.  Missing, unparseable or non-positive values fall back to the default.
+     * 
+     * @param key
+     * @param defaultValue
+     * @return int representing the stored value or the default.
+     * 
+     */
+    int getInt(String key, int defaultValue)
+    {
+        if (pluginSettingsFactory == null) {
+            return defaultValue;
+        }
+        try {
+            String value = getString(key);
+            if (value != null) {
+                int parsed = Integer.parseInt(value);
+                if (parsed > 0) {
+                    return parsed;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Exception reading setting " + key, e);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * getString()
+     * 
+     * Read a setting as a trimmed string.
+     * 
+     * @param key
+     * @return String holding the stored value, or null if it is missing or settings are unavailable.
+     * 
+     */
+    String getString(String key)
+    {
+        if (pluginSettingsFactory == null) {
+            return null;
+        }
+        try {
+            PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
+            Object value = settings.get(PREFIX + key);
+            return value != null ? value.toString().trim() : null;
+        } catch (Exception e) {
+            log.warn("Exception reading setting " + key, e);
+            return null;
+        }
+    }
+
+    void putInt(String key, int value)
+    {
+        pluginSettingsFactory.createGlobalSettings().put(PREFIX + key, Integer.toString(value));
+    }
+}
@@ -0,0 +1,239 @@
+package com.trustvesta.plugins.impl;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.trustvesta.plugins.api.HierarchyLink;
+import com.trustvesta.plugins.api.IssueHierarchyCache;
+import com.trustvesta.plugins.api.IssueStatusCache;
+import com.trustvesta.plugins.api.JiraFieldMapping;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.api.JiraWebhookHandler;
+import com.trustvesta.plugins.api.ReportJobManager;
+import com.trustvesta.plugins.api.WorklogIndex;
+import com.trustvesta.plugins.report.WorklogFilter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JiraWebhookHandlerImpl class definition.  The newest timestamp applied for each issue id and
+ * worklog id is kept in a bounded LRU map, together with a digest of that event to recognise
+ * repeats.  Deletions are remembered the same way, so a late update cannot bring an issue or
+ * worklog back.  Issue events only refresh issues that are already cached.  Worklog events drop
+ * the cached reports they may change, whether or not the WorklogIndex is enabled.
+ * 
+ * The map's monitor is only held to decide whether an event is new.  The change is applied under
+ * one of APPLY_STRIPES locks chosen by id, so events for one id still land in order while a slow
+ * apply, such as the WorklogIndex finishing a sync batch, only holds up events that share its stripe.
+ * 
+ */
+@Named ("jiraWebhookHandler")
+public class JiraWebhookHandlerImpl implements JiraWebhookHandler
+{
+    private static final Logger log = LoggerFactory.getLogger(JiraWebhookHandlerImpl.class);
+
+    // Issues and worklogs whose last event is remembered.  An event for one that has been evicted
+    // is applied as new, which is only wrong if it is also older than one already applied.
+    static final int MAX_TRACKED = 50000;
+
+    static final int APPLY_STRIPES = 64;
+
+    private final IssueStatusCache statusCache;
+    private final IssueHierarchyCache hierarchyCache;
+    private final WorklogIndex worklogIndex;
+    private final ReportJobManager reportJobManager;
+    private final JiraSettings jiraSettings;
+    private final JiraMetrics jiraMetrics;
+    private final Map<String, LastEvent> lastEvents;
+    private final Object[] applyLocks = new Object[APPLY_STRIPES];
+
+    @Inject
+    public JiraWebhookHandlerImpl(final IssueStatusCache statusCache, final IssueHierarchyCache hierarchyCache,
+            final WorklogIndex worklogIndex, final ReportJobManager reportJobManager, final JiraSettings jiraSettings,
+            final JiraMetrics jiraMetrics)
+    {
+        this.statusCache = statusCache;
+        this.hierarchyCache = hierarchyCache;
+        this.worklogIndex = worklogIndex;
+        this.reportJobManager = reportJobManager;
+        this.jiraSettings = jiraSettings;
+        this.jiraMetrics = jiraMetrics;
+        this.lastEvents = new LinkedHashMap<String, LastEvent>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LastEvent> eldest) {
+                return size() > MAX_TRACKED;
+            }
+        };
+        for (int i = 0; i < APPLY_STRIPES; i++) {
+            applyLocks[i] = new Object();
+        }
+    }
+
+    public Outcome handle(JsonObject event)
+    {
+        long started = System.nanoTime();
+        String type = string(event, "webhookEvent");
+        long timestamp = event.has("timestamp") ? event.get("timestamp").getAsLong() : -1;
+
+        Outcome outcome;
+        if (timestamp < 0) {
+            outcome = Outcome.INVALID;
+        } else if (type.startsWith("jira:issue_") && event.has("issue") && event.get("issue").isJsonObject()) {
+            outcome = issueEvent(type, timestamp, event);
+        } else if (type.startsWith("worklog_") && event.has("worklog") && event.get("worklog").isJsonObject()) {
+            outcome = worklogEvent(type, timestamp, event);
+        } else {
+            outcome = Outcome.IGNORED;
+        }
+
+        log.debug("Webhook {} at {}: {}", type, timestamp, outcome);
+        jiraMetrics.recordStage("webhook", System.nanoTime() - started);
+        return outcome;
+    }
+
+    private Outcome issueEvent(String type, long timestamp, JsonObject event)
+    {
+        JsonObject issue = event.getAsJsonObject("issue");
+        String issueId = string(issue, "id");
+        String issueKey = string(issue, "key");
+        if (issueId.isEmpty() || issueKey.isEmpty()) {
+            return Outcome.INVALID;
+        }
+        String id = "issue:" + issueId;
+        synchronized (applyLock(id)) {
+            Outcome order = order(id, timestamp, event);
+            if (order != Outcome.APPLIED) {
+                return order;
+            }
+
+            if (type.equals("jira:issue_deleted")) {
+                statusCache.invalidate(issueKey);
+                hierarchyCache.invalidate(issueKey);
+                return Outcome.APPLIED;
+            }
+
+            JsonObject fields = issue.has("fields") && issue.get("fields").isJsonObject()
+                    ? issue.getAsJsonObject("fields") : new JsonObject();
+            if (fields.has("status") && fields.get("status").isJsonObject()) {
+                statusCache.refresh(issueKey, string(fields.getAsJsonObject("status"), "name"));
+            } else {
+                statusCache.invalidate(issueKey);
+            }
+
+            // An Epic's parent is its Initiative, anything else's is its Epic, as in lookupParents().
+            // The cache only takes the link read from the field its entry was looked up by.
+            JiraFieldMapping mapping = jiraSettings.getFieldMapping();
+            boolean refreshed = false;
+            if (fields.has("fixVersions")) {
+                for (String parentField : new String[] { mapping.getEpicLinkField(), mapping.getInitiativeLinkField() }) {
+                    if (fields.has(parentField)) {
+                        refreshed |= hierarchyCache.refresh(issueKey,
+                                new HierarchyLink(parentField, string(fields, parentField), firstFixVersion(fields)));
+                    }
+                }
+            }
+            if (!refreshed) {
+                hierarchyCache.invalidate(issueKey);
+            }
+            return Outcome.APPLIED;
+        }
+    }
+
+    private Outcome worklogEvent(String type, long timestamp, JsonObject event)
+    {
+        JsonObject worklog = event.getAsJsonObject("worklog");
+        String worklogId = string(worklog, "id");
+        if (worklogId.isEmpty()) {
+            return Outcome.INVALID;
+        }
+        String id = "worklog:" + worklogId;
+        synchronized (applyLock(id)) {
+            Outcome order = order(id, timestamp, event);
+            if (order != Outcome.APPLIED) {
+                return order;
+            }
+            // Only a new worklog's day is known for sure; an update or deletion may have moved work
+            // off a day the event does not name.
+            String started = string(worklog, "started");
+            reportJobManager.invalidateReports(type.equals("worklog_created")
+                    ? WorklogFilter.epochDay(started) : WorklogFilter.INVALID_DAY);
+            if (!jiraSettings.isWorklogIndexEnabled()) {
+                return Outcome.IGNORED;
+            }
+            if (type.equals("worklog_deleted")) {
+                worklogIndex.removeWorklog(Long.parseLong(worklogId));
+            } else {
+                worklogIndex.applyWorklog(worklog);
+            }
+            return Outcome.APPLIED;
+        }
+    }
+
+    /**
+     * order()
+     * 
+     * Decide whether an event is the newest seen for its issue or worklog and, if so, remember it.
+     * Called holding the id's apply lock, which keeps events for one id applied in order.
+     * 
+     * @param id
+     * @param timestamp
+     * @param event
+     * @return APPLIED if the event should be applied, otherwise STALE or DUPLICATE.
+     * 
+     */
+    private Outcome order(String id, long timestamp, JsonObject event)
+    {
+        int digest = event.toString().hashCode();
+        synchronized (lastEvents) {
+            LastEvent last = lastEvents.get(id);
+            if (last != null && timestamp < last.timestamp) {
+                return Outcome.STALE;
+            }
+            if (last != null && timestamp == last.timestamp && digest == last.digest) {
+                return Outcome.DUPLICATE;
+            }
+            lastEvents.put(id, new LastEvent(timestamp, digest));
+            return Outcome.APPLIED;
+        }
+    }
+
+    private Object applyLock(String id)
+    {
+        return applyLocks[(id.hashCode() & 0x7fffffff) % APPLY_STRIPES];
+    }
+
+    private static String firstFixVersion(JsonObject fields)
+    {
+        JsonElement fixVersions = fields.get("fixVersions");
+        if (fixVersions != null && fixVersions.isJsonArray() && fixVersions.getAsJsonArray().size() > 0
+                && fixVersions.getAsJsonArray().get(0).isJsonObject()) {
+            return string(fixVersions.getAsJsonArray().get(0).getAsJsonObject(), "name");
+        }
+        return "";
+    }
+
+    private static String string(JsonObject json, String member)
+    {
+        JsonElement value = json.get(member);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : "";
+    }
+
+    private static class LastEvent
+    {
+        private final long timestamp;
+        private final int digest;
+
+        LastEvent(long timestamp, int digest)
+        {
+            this.timestamp = timestamp;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.trustvesta.plugins.impl;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram class definition.  Latencies are counted into fixed millisecond buckets, so
+ * recording is lock free and the memory used does not grow with the number of samples.  Percentiles
+ * are read as the upper bound of the bucket they fall in, capped at the largest latency seen.
+ * 
+ */
+public class LatencyHistogram
+{
+    // Upper bound in milliseconds of each bucket.  One more bucket holds everything slower.
+    static final long[] BUCKET_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_MILLIS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long elapsedNanos)
+    {
+        long nanos = Math.max(0, elapsedNanos);
+        buckets.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public double getMeanMillis()
+    {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / (double) n / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMaxMillis()
+    {
+        return maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Return the latency in milliseconds that percent of the samples came in under, or 0 before any
+     * sample is recorded.
+     */
+    public double percentileMillis(double percent)
+    {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent / 100 * n));
+        long seen = 0;
+        for (int i=0; i<BUCKET_MILLIS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(BUCKET_MILLIS[i], getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Return the count, mean, p50, p90, p99 and max plus the non-empty buckets, keyed by their
+     * upper bound.
+     */
+    public JsonObject toJson()
+    {
+        JsonObject json = new JsonObject();
+        json.addProperty("count", getCount());
+        json.addProperty("meanMillis", getMeanMillis());
+        json.addProperty("p50Millis", percentileMillis(50));
+        json.addProperty("p90Millis", percentileMillis(90));
+        json.addProperty("p99Millis", percentileMillis(99));
+        json.addProperty("maxMillis", getMaxMillis());
+        JsonObject histogram = new JsonObject();
+        for (int i=0; i<buckets.length(); i++) {
+            long bucketCount = buckets.get(i);
+            if (bucketCount > 0) {
+                histogram.addProperty(i < BUCKET_MILLIS.length ? "le" + BUCKET_MILLIS[i] : "gt" + BUCKET_MILLIS[i - 1], bucketCount);
+            }
+        }
+        json.add("histogramMillis", histogram);
+        return json;
+    }
+
+    private static int bucket(long nanos)
+    {
+        for (int i=0; i<BUCKET_MILLIS.length; i++) {
+            if (nanos <= TimeUnit.MILLISECONDS.toNanos(BUCKET_MILLIS[i])) {
+                return i;
+            }
+        }
+        return BUCKET_MILLIS.length;
+    }
+}
@@ -0,0 +1,282 @@
+package com.trustvesta.plugins.impl;
+
+import com.atlassian.confluence.user.AuthenticatedUserThreadLocal;
+import com.atlassian.confluence.user.ConfluenceUser;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.api.ReportJob;
+import com.trustvesta.plugins.api.ReportJobManager;
+import com.trustvesta.plugins.api.ReportTask;
+import com.trustvesta.plugins.report.WorklogFilter;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * ReportJobManagerImpl class definition.  Jobs run on a fixed pool with a bounded queue and are
+ * kept in a map until getReportRetentionMinutes() after they were last asked for.  The pool is
+ * resized when getReportJobThreads() changes.  The submitting
+ * user is carried over to the worker thread so Application Link requests are made on their behalf.
+ * 
+ * In-flight jobs are indexed by user and date range so duplicate submits join them.  Successful jobs for
+ * ranges wholly in the past move to an LRU cache of getReportCacheSize() entries which expire after
+ * getReportCacheMinutes().  Every invalidateReports() call is counted, and a job only goes into the
+ * cache if there was none while it ran, since it may have read the worklogs before the change.
+ * 
+ */
+@Named ("reportJobManager")
+public class ReportJobManagerImpl implements ReportJobManager, DisposableBean
+{
+    private static final Logger log = LoggerFactory.getLogger(ReportJobManagerImpl.class);
+
+    static final int QUEUE_CAPACITY = 20;
+
+    private final JiraSettings jiraSettings;
+    private final ThreadPoolExecutor pool;
+    private final Map<String, ReportJob> jobs = new ConcurrentHashMap<String, ReportJob>();
+    private final Map<String, ReportJob> inFlight = new HashMap<String, ReportJob>();
+    private final Map<String, ReportJob> finishedReports;
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private long invalidations;
+    private int cacheSize;
+
+    @Inject
+    public ReportJobManagerImpl(final JiraSettings jiraSettings)
+    {
+        this.jiraSettings = jiraSettings;
+        int threads = jiraSettings.getReportJobThreads();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY), new JobThreadFactory());
+        this.pool.allowCoreThreadTimeOut(true);
+        this.finishedReports = new LinkedHashMap<String, ReportJob>(32, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ReportJob> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public ReportJob submit(String startDate, String endDate, final ReportTask task)
+    {
+        purgeExpired();
+        resize(jiraSettings.getReportJobThreads());
+
+        final ConfluenceUser user = AuthenticatedUserThreadLocal.get();
+        final String reportKey = reportKey(user, startDate, endDate);
+        final ReportJob job;
+        final long invalidationsAtSubmit;
+        synchronized (inFlight) {
+            ReportJob existing = inFlight.get(reportKey);
+            if (existing != null) {
+                coalesced.incrementAndGet();
+                return share(existing);
+            }
+            existing = finishedReports.get(reportKey);
+            if (existing != null) {
+                cacheHits.incrementAndGet();
+                return share(existing);
+            }
+
+            job = new ReportJob(UUID.randomUUID().toString(), startDate, endDate);
+            inFlight.put(reportKey, job);
+            invalidationsAtSubmit = invalidations;
+        }
+
+        final boolean cacheable = isPastRange(endDate);
+        jobs.put(job.getId(), job);
+        try {
+            pool.execute(new Runnable() {
+                public void run() {
+                    AuthenticatedUserThreadLocal.set(user);
+                    try {
+                        job.complete(task.run(job));
+                    } catch (Throwable t) {
+                        log.error("Exception in report job " + job.getId(), t);
+                        job.fail(t.toString());
+                    } finally {
+                        AuthenticatedUserThreadLocal.reset();
+                        finished(reportKey, job, cacheable, invalidationsAtSubmit);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            synchronized (inFlight) {
+                inFlight.remove(reportKey);
+            }
+            jobs.remove(job.getId());
+            throw e;
+        }
+
+        return job;
+    }
+
+    public ReportJob getJob(String jobId)
+    {
+        purgeExpired();
+        ReportJob job = jobs.get(jobId);
+        if (job != null) {
+            job.touch();
+        }
+        return job;
+    }
+
+    public void invalidateReports(int epochDay)
+    {
+        int dropped = 0;
+        synchronized (inFlight) {
+            invalidations++;
+            Iterator<ReportJob> cached = finishedReports.values().iterator();
+            while (cached.hasNext()) {
+                ReportJob job = cached.next();
+                if (epochDay == WorklogFilter.INVALID_DAY || (WorklogFilter.epochDay(job.getStartDate()) <= epochDay
+                        && epochDay <= WorklogFilter.epochDay(job.getEndDate()))) {
+                    cached.remove();
+                    dropped++;
+                }
+            }
+        }
+        if (dropped > 0) {
+            log.debug("Worklog change dropped {} cached reports", dropped);
+        }
+    }
+
+    public long getCoalescedCount()
+    {
+        return coalesced.get();
+    }
+
+    public long getCacheHitCount()
+    {
+        return cacheHits.get();
+    }
+
+    public void destroy()
+    {
+        pool.shutdownNow();
+        jobs.clear();
+        synchronized (inFlight) {
+            inFlight.clear();
+            finishedReports.clear();
+        }
+    }
+
+    private void resize(int threads)
+    {
+        if (threads == pool.getMaximumPoolSize()) {
+            return;
+        }
+        synchronized (pool) {
+            // Order matters: core size may never exceed the maximum.
+            if (threads > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(threads);
+                pool.setCorePoolSize(threads);
+            } else {
+                pool.setCorePoolSize(threads);
+                pool.setMaximumPoolSize(threads);
+            }
+        }
+    }
+
+    /**
+     * A job handed to a second caller must be reachable by id again even if it was purged.
+     */
+    private ReportJob share(ReportJob job)
+    {
+        job.touch();
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    private void finished(String reportKey, ReportJob job, boolean cacheable, long invalidationsAtSubmit)
+    {
+        int size = jiraSettings.getReportCacheSize();
+        synchronized (inFlight) {
+            inFlight.remove(reportKey);
+            if (cacheable && job.getState() == ReportJob.State.DONE && invalidations == invalidationsAtSubmit) {
+                cacheSize = size;
+                finishedReports.put(reportKey, job);
+            }
+        }
+    }
+
+    /**
+     * The job runs with the submitting user's Application Link identity, so its result is only valid
+     * for that user.
+     */
+    static String reportKey(ConfluenceUser user, String startDate, String endDate)
+    {
+        String userKey = user != null && user.getKey() != null ? user.getKey().getStringValue() : "";
+        return userKey + "|" + startDate + "|" + endDate;
+    }
+
+    /**
+     * isPastRange()
+     * 
+     * Worklogs can still be added for today, so only ranges ending before today are cacheable.
+     * 
+     * @param endDate
+     * @return true if endDate is a valid yyyy-MM-dd date before today.
+     * 
+     */
+    static boolean isPastRange(String endDate)
+    {
+        try {
+            return LocalDate.parse(endDate).isBefore(LocalDate.now());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void purgeExpired()
+    {
+        long now = System.currentTimeMillis();
+        long jobCutoff = now - TimeUnit.MINUTES.toMillis(jiraSettings.getReportRetentionMinutes());
+        Iterator<ReportJob> iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            ReportJob job = iterator.next();
+            if (job.isFinished() && job.getLastAccessed() < jobCutoff) {
+                iterator.remove();
+            }
+        }
+
+        long cacheCutoff = now - TimeUnit.MINUTES.toMillis(jiraSettings.getReportCacheMinutes());
+        synchronized (inFlight) {
+            Iterator<ReportJob> cached = finishedReports.values().iterator();
+            while (cached.hasNext()) {
+                if (cached.next().getFinishedAt() < cacheCutoff) {
+                    cached.remove();
+                }
+            }
+        }
+    }
+
+    private static class JobThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "SwissArmyKnife-report-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
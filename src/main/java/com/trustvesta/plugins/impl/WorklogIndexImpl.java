@@ -0,0 +1,462 @@
+package com.trustvesta.plugins.impl;
+
+import com.atlassian.confluence.user.AuthenticatedUserThreadLocal;
+import com.atlassian.confluence.user.ConfluenceUser;
+import com.atlassian.confluence.user.UserAccessor;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.trustvesta.plugins.api.JiraClient;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.api.WorklogIndex;
+import com.trustvesta.plugins.report.WorklogFilter;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * WorklogIndexImpl class definition.  Entries are held in memory in shards of one calendar month each,
+ * so a report only walks the months its date range covers.  Each shard is stored as one PluginSettings
+ * value and only the shards a sync touched are written back.  The high-water mark is saved last, so an
+ * interrupted sync simply repeats its delta next time.  All access to the entries is serialized on the
+ * instance.
+ * 
+ * A single daemon thread syncs every getWorklogSyncMinutes() while the index is enabled.  Each sync
+ * runs as getWorklogSyncUser(), so what the index holds does not depend on whose report came first.
+ * JIRA is called without holding the instance lock, so reports and webhooks are only held up while a
+ * fetched batch is applied.
+ * 
+ */
+@Named ("worklogIndex")
+public class WorklogIndexImpl implements WorklogIndex, DisposableBean
+{
+    private static final Logger log = LoggerFactory.getLogger(WorklogIndexImpl.class);
+
+    private static final String PREFIX = "com.trustvesta.plugins.SwissArmyKnife.worklogIndex.";
+
+    // Most ids JIRA accepts on one /worklog/list call.
+    static final int LIST_BATCH_SIZE = 1000;
+
+    private final JiraClient jiraClient;
+    private final JiraSettings jiraSettings;
+
+    @ComponentImport
+    private final PluginSettingsFactory pluginSettingsFactory;
+    @ComponentImport
+    private final UserAccessor userAccessor;
+
+    private final ScheduledExecutorService scheduler;
+    // Held for a whole sync so two never interleave their deltas.
+    private final Object syncLock = new Object();
+    private volatile boolean current;
+
+    // Month (year * 12 + month - 1) -> worklog id -> entry.
+    private final TreeMap<Integer, Map<Long, WorklogEntry>> shards = new TreeMap<Integer, Map<Long, WorklogEntry>>();
+    private final Map<Long, Integer> worklogMonths = new HashMap<Long, Integer>();
+    private long since;
+    private boolean loaded;
+
+    @Inject
+    public WorklogIndexImpl(final JiraClient jiraClient, final JiraSettings jiraSettings,
+            final PluginSettingsFactory pluginSettingsFactory, final UserAccessor userAccessor)
+    {
+        this.jiraClient = jiraClient;
+        this.jiraSettings = jiraSettings;
+        this.pluginSettingsFactory = pluginSettingsFactory;
+        this.userAccessor = userAccessor;
+        long minutes = Math.max(1, jiraSettings.getWorklogSyncMinutes());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new SyncThreadFactory());
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                scheduledSync();
+            }
+        }, minutes, minutes, TimeUnit.MINUTES);
+    }
+
+    public boolean sync()
+    {
+        synchronized (syncLock) {
+            ConfluenceUser syncUser = syncUser();
+            if (syncUser == null) {
+                current = false;
+                return false;
+            }
+            ConfluenceUser caller = AuthenticatedUserThreadLocal.get();
+            AuthenticatedUserThreadLocal.set(syncUser);
+            try {
+                current = syncDelta();
+            } finally {
+                if (caller != null) {
+                    AuthenticatedUserThreadLocal.set(caller);
+                } else {
+                    AuthenticatedUserThreadLocal.reset();
+                }
+            }
+            return current;
+        }
+    }
+
+    public boolean isCurrent()
+    {
+        return current;
+    }
+
+    public void destroy()
+    {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * syncDelta()
+     * 
+     * Read the worklogs updated and deleted since the high-water mark and apply them, one fetched
+     * batch at a time under the instance lock.  On failure nothing is thrown away: the entries applied
+     * so far, and any a webhook applied, stay in memory and the mark is not moved, so the next sync
+     * reads the same delta again and stores it.
+     * 
+     * @return true if every page was read and the result stored.
+     * 
+     */
+    private boolean syncDelta()
+    {
+        long from = getSince();
+        Set<Integer> dirty = new HashSet<Integer>();
+        try {
+            long updatedUntil = from;
+            boolean lastPage = false;
+            while (!lastPage) {
+                JsonObject page = jiraClient.getUpdatedWorklogs(updatedUntil);
+                List<Long> worklogIds = worklogIds(page);
+                for (int start=0; start<worklogIds.size(); start+=LIST_BATCH_SIZE) {
+                    List<Long> batch = worklogIds.subList(start, Math.min(start + LIST_BATCH_SIZE, worklogIds.size()));
+                    JsonArray worklogs = jiraClient.listWorklogs(batch);
+                    synchronized (this) {
+                        for (JsonElement worklog : worklogs) {
+                            put(worklog.getAsJsonObject(), dirty);
+                        }
+                    }
+                }
+                updatedUntil = page.has("until") ? page.get("until").getAsLong() : updatedUntil;
+                lastPage = worklogIds.isEmpty() || !page.has("lastPage") || page.get("lastPage").getAsBoolean();
+            }
+
+            long deletedUntil = from;
+            lastPage = false;
+            while (!lastPage) {
+                JsonObject page = jiraClient.getDeletedWorklogs(deletedUntil);
+                List<Long> worklogIds = worklogIds(page);
+                synchronized (this) {
+                    for (Long worklogId : worklogIds) {
+                        remove(worklogId, dirty);
+                    }
+                }
+                deletedUntil = page.has("until") ? page.get("until").getAsLong() : deletedUntil;
+                lastPage = worklogIds.isEmpty() || !page.has("lastPage") || page.get("lastPage").getAsBoolean();
+            }
+
+            synchronized (this) {
+                save(dirty, Math.min(updatedUntil, deletedUntil));
+            }
+            return true;
+        } catch (Exception e) {
+            log.warn("Worklog index sync from " + from + " failed", e);
+            return false;
+        }
+    }
+
+    private void scheduledSync()
+    {
+        try {
+            if (jiraSettings.isWorklogIndexEnabled()) {
+                sync();
+            } else {
+                // Whatever was synced before the index was turned off is stale by the time it is turned on.
+                current = false;
+            }
+        } catch (RuntimeException e) {
+            // An exception escaping here would cancel every later run.
+            log.warn("Worklog index sync failed", e);
+            current = false;
+        }
+    }
+
+    /**
+     * syncUser()
+     * 
+     * Resolve getWorklogSyncUser().
+     * 
+     * @return ConfluenceUser the sync runs as, or null if none is set or the user does not exist.
+     * 
+     */
+    private ConfluenceUser syncUser()
+    {
+        String username = jiraSettings.getWorklogSyncUser();
+        if (username.isEmpty()) {
+            log.debug("No worklog sync user is set; the worklog index is not synced");
+            return null;
+        }
+        ConfluenceUser user = userAccessor.getUserByName(username);
+        if (user == null) {
+            log.warn("Worklog sync user {} does not exist; the worklog index is not synced", username);
+        }
+        return user;
+    }
+
+    public synchronized void applyWorklog(JsonObject worklog)
+    {
+        load();
+        put(worklog, new HashSet<Integer>());
+    }
+
+    public synchronized void removeWorklog(long worklogId)
+    {
+        load();
+        remove(worklogId, new HashSet<Integer>());
+    }
+
+    public synchronized Map<Long, Long> secondsByIssue(int startDay, int endDay)
+    {
+        load();
+        Map<Long, Long> seconds = new HashMap<Long, Long>();
+        if (startDay > endDay) {
+            return seconds;
+        }
+        int startMonth = month(startDay);
+        int endMonth = month(endDay);
+        for (Map<Long, WorklogEntry> shard : shards.subMap(startMonth, true, endMonth, true).values()) {
+            for (WorklogEntry entry : shard.values()) {
+                if (entry.day >= startDay && entry.day <= endDay) {
+                    Long total = seconds.get(entry.issueId);
+                    seconds.put(entry.issueId, (total != null ? total : 0L) + entry.seconds);
+                }
+            }
+        }
+        return seconds;
+    }
+
+    public synchronized long getSince()
+    {
+        load();
+        return since;
+    }
+
+    public synchronized int size()
+    {
+        load();
+        return worklogMonths.size();
+    }
+
+    private void put(JsonObject worklog, Set<Integer> dirty)
+    {
+        if (!worklog.has("id") || !worklog.has("issueId") || !worklog.has("started")) {
+            return;
+        }
+        long worklogId = worklog.get("id").getAsLong();
+        int day = WorklogFilter.epochDay(worklog.get("started").getAsString());
+        if (day == WorklogFilter.INVALID_DAY) {
+            log.debug("Skipping worklog {} with bad start date {}", worklogId, worklog.get("started"));
+            return;
+        }
+        int seconds = worklog.has("timeSpentSeconds") ? worklog.get("timeSpentSeconds").getAsInt() : 0;
+        WorklogEntry entry = new WorklogEntry(worklog.get("issueId").getAsLong(), author(worklog), day, seconds);
+
+        // An edit can move a worklog to another month, so take it out of its old shard first.
+        remove(worklogId, dirty);
+        int month = month(day);
+        shard(month).put(worklogId, entry);
+        worklogMonths.put(worklogId, month);
+        dirty.add(month);
+    }
+
+    private void remove(Long worklogId, Set<Integer> dirty)
+    {
+        Integer month = worklogMonths.remove(worklogId);
+        if (month != null) {
+            shards.get(month).remove(worklogId);
+            dirty.add(month);
+        }
+    }
+
+    private Map<Long, WorklogEntry> shard(int month)
+    {
+        Map<Long, WorklogEntry> shard = shards.get(month);
+        if (shard == null) {
+            shard = new LinkedHashMap<Long, WorklogEntry>();
+            shards.put(month, shard);
+        }
+        return shard;
+    }
+
+    /**
+     * load()
+     * 
+     * Read the stored shards the first time the index is used.
+     * 
+     */
+    private void load()
+    {
+        if (loaded) {
+            return;
+        }
+        shards.clear();
+        worklogMonths.clear();
+        since = 0;
+
+        PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
+        Object storedMonths = settings.get(PREFIX + "months");
+        if (storedMonths != null && !storedMonths.toString().isEmpty()) {
+            for (String monthName : storedMonths.toString().split(",")) {
+                int month = parseMonth(monthName);
+                Object value = settings.get(PREFIX + monthName);
+                if (value == null) {
+                    continue;
+                }
+                Map<Long, WorklogEntry> shard = shard(month);
+                for (String line : value.toString().split("\n")) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    // worklogId,issueId,day,seconds,author - the author goes last as it may hold commas.
+                    String[] fields = line.split(",", 5);
+                    long worklogId = Long.parseLong(fields[0]);
+                    shard.put(worklogId, new WorklogEntry(Long.parseLong(fields[1]), fields.length > 4 ? fields[4] : "",
+                            Integer.parseInt(fields[2]), Integer.parseInt(fields[3])));
+                    worklogMonths.put(worklogId, month);
+                }
+            }
+        }
+        Object storedSince = settings.get(PREFIX + "since");
+        if (storedSince != null) {
+            since = Long.parseLong(storedSince.toString());
+        }
+        loaded = true;
+    }
+
+    /**
+     * save()
+     * 
+     * Write back the shards a sync changed, then the month list and finally the new high-water mark.
+     * 
+     * @param dirty months touched by the sync
+     * @param newSince
+     * 
+     */
+    private void save(Set<Integer> dirty, long newSince)
+    {
+        PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
+        for (Integer month : dirty) {
+            Map<Long, WorklogEntry> shard = shards.get(month);
+            if (shard == null || shard.isEmpty()) {
+                shards.remove(month);
+                settings.remove(PREFIX + monthName(month));
+                continue;
+            }
+            StringBuilder value = new StringBuilder(shard.size() * 40);
+            for (Map.Entry<Long, WorklogEntry> worklog : shard.entrySet()) {
+                WorklogEntry entry = worklog.getValue();
+                value.append(worklog.getKey()).append(',').append(entry.issueId).append(',')
+                        .append(entry.day).append(',').append(entry.seconds).append(',')
+                        .append(entry.author).append('\n');
+            }
+            settings.put(PREFIX + monthName(month), value.toString());
+        }
+
+        if (!dirty.isEmpty()) {
+            List<String> monthNames = new ArrayList<String>(shards.size());
+            for (Integer month : shards.keySet()) {
+                monthNames.add(monthName(month));
+            }
+            settings.put(PREFIX + "months", String.join(",", monthNames));
+        }
+        settings.put(PREFIX + "since", Long.toString(newSince));
+        since = newSince;
+    }
+
+    private static List<Long> worklogIds(JsonObject page)
+    {
+        List<Long> worklogIds = new ArrayList<Long>();
+        if (page.has("values") && page.get("values").isJsonArray()) {
+            for (JsonElement value : page.getAsJsonArray("values")) {
+                worklogIds.add(value.getAsJsonObject().get("worklogId").getAsLong());
+            }
+        }
+        return worklogIds;
+    }
+
+    private static String author(JsonObject worklog)
+    {
+        if (!worklog.has("author") || !worklog.get("author").isJsonObject()) {
+            return "";
+        }
+        JsonObject author = worklog.getAsJsonObject("author");
+        for (String field : new String[] { "accountId", "key", "name" }) {
+            if (author.has(field) && !author.get(field).isJsonNull()) {
+                return author.get(field).getAsString().replace("\n", " ");
+            }
+        }
+        return "";
+    }
+
+    private static int month(int epochDay)
+    {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    private static String monthName(int month)
+    {
+        return String.format("%04d-%02d", month / 12, month % 12 + 1);
+    }
+
+    private static int parseMonth(String monthName)
+    {
+        return Integer.parseInt(monthName.substring(0, 4)) * 12 + Integer.parseInt(monthName.substring(5, 7)) - 1;
+    }
+
+    private static class SyncThreadFactory implements ThreadFactory
+    {
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "SwissArmyKnife-worklog-sync");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static class WorklogEntry
+    {
+        private final long issueId;
+        private final String author;
+        private final int day;
+        private final int seconds;
+
+        WorklogEntry(long issueId, String author, int day, int seconds)
+        {
+            this.issueId = issueId;
+            this.author = author;
+            this.day = day;
+            this.seconds = seconds;
+        }
+    }
+}
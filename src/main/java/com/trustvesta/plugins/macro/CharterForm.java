@@ -16,102 +16,93 @@ import com.atlassian.confluence.macro.MacroExecutionException;
 import com.atlassian.confluence.renderer.radeox.macros.MacroUtils;
 import com.atlassian.confluence.user.ConfluenceUser;
 import com.atlassian.confluence.util.velocity.VelocityUtils;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.webresource.api.assembler.PageBuilderService;
+import com.trustvesta.plugins.api.FragmentCache;
+import com.trustvesta.plugins.charter.CharterProperties;
 import java.util.Map;
 
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /** 
  * CharterForm class definition implements com.atlassian.confluence.macro.Macro.
  * 
- * No component injection is needed here.
+ * The FragmentCache and PageBuilderService are injected so rendered forms can be reused.  Confluence
+ * shares one instance between every page, so nothing about a render is kept on it: each execute()
+ * hands the template its own Form holding that page's context and charter.
  *
  */
 public class CharterForm implements Macro {
 
-    private ConversionContext conversionContext;
-
-    /**
-     * execute()
-     * 
-     * Entry point into the macro.  It creates a context, renders CharterForm.vm into it and
-     * returns.
-     * 
-     * @param parameters
-     * @param body
-     * @param conversionContext
-     * @throws MacroExecutionException
-     * @return String representing the context with the rendered template.
-     */
-    public String execute(Map<String, String> parameters, String body, ConversionContext conversionContext) throws MacroExecutionException {
-        this.conversionContext = conversionContext;
-        
-        Map<String, Object> contextMap = MacroUtils.defaultVelocityContext();
-        contextMap.put("CharterFormMacroObject", this);
-        return VelocityUtils.getRenderedTemplate("templates/CharterForm.vm", contextMap);
-    }
+    private static final Logger log = LoggerFactory.getLogger(CharterForm.class);
 
-    /**
-     * setProperty()
-     * 
-     * Used to set a page property
-     * 
-     * @param property
-     * @param value
-     * 
-     */
-    public void setProperty(String property, String value) {
-        conversionContext.getEntity().getProperties().setStringProperty(property, value);
-    }
+    // Required on every view, whether or not the form is rendered, since a cached form still needs them.
+    static final String[] WEB_RESOURCES = {
+        "com.trustvesta.plugins.SwissArmyKnife:swiss-army-knife-web-resources",
+        "confluence.web.resources:ajs"
+    };
 
-    /**
-     * getProperty()
-     * 
-     * Used to get a page property
-     * 
-     * @param property
-     * @return String representing the property value.
-     * 
-     */
-    public String getProperty(String property) {
-        String value = conversionContext.getEntity().getProperties().getStringProperty(property);
-        if (value == null) { value = ""; }
-        return value;
-    }
+    private final FragmentCache fragmentCache;
+    private final PageBuilderService pageBuilderService;
 
     /**
-     * getTitle()
+     * CharterForm() constructor.
      * 
-     * Fetch the Confluence page title.
-     * 
-     * @return String represening the title.
+     * @param fragmentCache
+     * @param pageBuilderService
      * 
      */
-    public String getTitle() {
-        return conversionContext.getEntity().getTitle();
+    @Inject
+    public CharterForm(FragmentCache fragmentCache, @ComponentImport PageBuilderService pageBuilderService) {
+        this.fragmentCache = fragmentCache;
+        this.pageBuilderService = pageBuilderService;
     }
 
     /**
-     * getCreator()
+     * execute()
      * 
-     * Fetch the creator of the Confluence page the macro is on.
+     * Entry point into the macro.  It creates a context, renders CharterForm.vm into it and
+     * returns.  The page's charter is loaded once up front for the template's getProperty() calls,
+     * and any setProperty() changes made while rendering are written back in one flush at the end.
      * 
-     * @return String representing the creator's userid.
+     * The rendered form is kept in the FragmentCache under the page id and version, the macro
+     * parameters and the charter fingerprint, so later views of the same page and charter return
+     * it without rendering.  A render that changed the charter is not cached.
      * 
+     * @param parameters
+     * @param body
+     * @param conversionContext
+     * @throws MacroExecutionException
+     * @return String representing the context with the rendered template.
      */
-    public String getCreator() {
-        String name = "";
-        try {
-        ConversionContext context = conversionContext;
-        ContentEntityObject entity = context.getEntity();
-        ConfluenceUser user = entity.getCreator();
-        if (user != null) {
-            name = user.getFullName();
+    public String execute(Map<String, String> parameters, String body, ConversionContext conversionContext) throws MacroExecutionException {
+        for (String resource : WEB_RESOURCES) {
+            pageBuilderService.assembler().resources().requireWebResource(resource);
         }
-        } catch (Exception e) {
-            System.out.println("Exception in getCreator(): " + e);
+        CharterProperties charter = CharterProperties.load(conversionContext.getEntity());
+
+        String key = FragmentKey.of("charter-form", parameters, conversionContext, charter.fingerprint());
+        String html = key != null ? fragmentCache.get(key) : null;
+        if (html != null) {
+            return html;
         }
         
-        return name;
+        Map<String, Object> contextMap = MacroUtils.defaultVelocityContext();
+        contextMap.put("CharterFormMacroObject", new Form(conversionContext, charter));
+        try {
+            html = VelocityUtils.getRenderedTemplate("templates/CharterForm.vm", contextMap);
+            if (key != null && html != null && !charter.isDirty()) {
+                fragmentCache.put(key, html);
+            }
+            return html;
+        } finally {
+            charter.flush();
+        }
     }
-    
+
     /**
      * getBodyType()
      * 
@@ -131,4 +122,81 @@ public class CharterForm implements Macro {
      * 
      */
     public OutputType getOutputType() { return OutputType.BLOCK; }
+
+    /**
+     * Form class definition.  What CharterForm.vm sees as $CharterFormMacroObject for one render:
+     * the page being rendered and the charter loaded for it.
+     * 
+     */
+    public static class Form {
+
+        private final ConversionContext conversionContext;
+        private final CharterProperties charter;
+
+        Form(ConversionContext conversionContext, CharterProperties charter) {
+            this.conversionContext = conversionContext;
+            this.charter = charter;
+        }
+
+        /**
+         * setProperty()
+         * 
+         * Used to set a charter field.  The change is held until the render finishes.
+         * 
+         * @param property
+         * @param value
+         * 
+         */
+        public void setProperty(String property, String value) {
+            charter.set(property, value);
+        }
+
+        /**
+         * getProperty()
+         * 
+         * Used to get a charter field from the copy loaded for this render.
+         * 
+         * @param property
+         * @return String representing the property value, or an empty string if unset.
+         * 
+         */
+        public String getProperty(String property) {
+            return charter.get(property);
+        }
+
+        /**
+         * getTitle()
+         * 
+         * Fetch the Confluence page title.
+         * 
+         * @return String represening the title.
+         * 
+         */
+        public String getTitle() {
+            return conversionContext.getEntity().getTitle();
+        }
+
+        /**
+         * getCreator()
+         * 
+         * Fetch the creator of the Confluence page the macro is on.
+         * 
+         * @return String representing the creator's userid.
+         * 
+         */
+        public String getCreator() {
+            String name = "";
+            try {
+                ContentEntityObject entity = conversionContext.getEntity();
+                ConfluenceUser user = entity.getCreator();
+                if (user != null) {
+                    name = user.getFullName();
+                }
+            } catch (Exception e) {
+                log.warn("Exception in getCreator()", e);
+            }
+        
+            return name;
+        }
+    }
 }
\ No newline at end of file
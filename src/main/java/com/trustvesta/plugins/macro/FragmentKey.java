@@ -0,0 +1,53 @@
+/**
+ * FragmentKey.java
+ * 
+ * Builds the FragmentCache key for one macro on one page.  The key holds the page id and version,
+ * the output type the page is being rendered for, the macro name, its parameters in sorted order
+ * and any extra state the macro renders, such as the charter fingerprint.  Editing the page, or
+ * anything else the output depends on, gives a new key.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.macro;
+
+import com.atlassian.confluence.content.render.xhtml.ConversionContext;
+import com.atlassian.confluence.core.ContentEntityObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+final class FragmentKey {
+
+    private FragmentKey() {
+    }
+
+    /**
+     * of()
+     * 
+     * Key for a macro's output, or null when it should not be cached because it is not being
+     * rendered as part of a saved page, for example in the editor's preview of a new page.
+     * 
+     * @param macro
+     * @param parameters
+     * @param conversionContext
+     * @param state extra state the output depends on, or null
+     * @return String key, or null.
+     * 
+     */
+    static String of(String macro, Map<String, String> parameters, ConversionContext conversionContext, String state) {
+        ContentEntityObject page = conversionContext.getEntity();
+        if (page == null || page.getId() == 0) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(page.getId()).append(':').append(page.getVersion())
+                .append(':').append(conversionContext.getOutputType())
+                .append(':').append(macro)
+                .append(':').append(parameters != null ? new TreeMap<String, String>(parameters) : "{}");
+        if (state != null) {
+            key.append(':').append(state);
+        }
+        return key.toString();
+    }
+}
@@ -14,20 +14,51 @@ import com.atlassian.confluence.macro.Macro;
 import com.atlassian.confluence.macro.MacroExecutionException;
 import com.atlassian.confluence.renderer.radeox.macros.MacroUtils;
 import com.atlassian.confluence.util.velocity.VelocityUtils;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.webresource.api.assembler.PageBuilderService;
+import com.trustvesta.plugins.api.FragmentCache;
 import java.util.Map;
 
+import javax.inject.Inject;
+
 /**
  * JiraReport class definition.  This must implement the Atlassian SDK Macro class.
  *
  */
 public class JiraReport implements Macro {
 
+    // Required on every view, whether or not the form is rendered, since a cached form still needs them.
+    static final String[] WEB_RESOURCES = {
+        "com.trustvesta.plugins.SwissArmyKnife:swiss-army-knife-web-resources",
+        "confluence.web.resources:ajs",
+        "com.atlassian.auiplugin:aui-spinner"
+    };
+
+    private final FragmentCache fragmentCache;
+    private final PageBuilderService pageBuilderService;
+
+    /**
+     * JiraReport() constructor.
+     * 
+     * @param fragmentCache
+     * @param pageBuilderService
+     * 
+     */
+    @Inject
+    public JiraReport(FragmentCache fragmentCache, @ComponentImport PageBuilderService pageBuilderService) {
+        this.fragmentCache = fragmentCache;
+        this.pageBuilderService = pageBuilderService;
+    }
+
     /**
      * execute()
      * 
      * Entry point to the macro and is run upon accessing the macro via the Confluence page.  The UI is defined
      * via a velocity deplate which must be returned through the VelocityUtils object.
      * 
+     * The form only depends on the macro parameters, so the rendered template is kept in the
+     * FragmentCache under the page id and version and reused on later views.
+     * 
      * @param parameters: parameters set when editing the Confluence macro.
      * @param body: text body when editing Confluence macro.
      * @param conversionContext: ConversionContext object from Confluence page.
@@ -38,10 +69,21 @@ public class JiraReport implements Macro {
      * 
      */
     public String execute(Map<String, String> parameters, String body, ConversionContext conversionContext) throws MacroExecutionException {
-        
-        Map<String, Object> contextMap = MacroUtils.defaultVelocityContext();
-        contextMap.put("JiraReportMacroObject", this);
-        return VelocityUtils.getRenderedTemplate("templates/JiraReportForm.vm", contextMap);
+        for (String resource : WEB_RESOURCES) {
+            pageBuilderService.assembler().resources().requireWebResource(resource);
+        }
+
+        String key = FragmentKey.of("jira-report", parameters, conversionContext, null);
+        String html = key != null ? fragmentCache.get(key) : null;
+        if (html == null) {
+            Map<String, Object> contextMap = MacroUtils.defaultVelocityContext();
+            contextMap.put("JiraReportMacroObject", this);
+            html = VelocityUtils.getRenderedTemplate("templates/JiraReportForm.vm", contextMap);
+            if (key != null && html != null) {
+                fragmentCache.put(key, html);
+            }
+        }
+        return html;
     }
 
     /**
@@ -0,0 +1,75 @@
+/**
+ * CsvWriter.java
+ * 
+ * Minimal RFC 4180 CSV writer used to stream reports straight to the HTTP response.  Values holding
+ * a comma, double quote or line break are quoted and embedded quotes are doubled.  Rows are written
+ * through to the underlying Writer as they come so nothing is buffered beyond the Writer itself.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.report;
+
+import java.io.IOException;
+import java.io.Writer;
+
+public class CsvWriter {
+
+    private final Writer writer;
+
+    public CsvWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * writeRow()
+     * 
+     * Write one row terminated by a newline.  Null values are written as empty fields.
+     * 
+     * @param values
+     * @throws IOException
+     * 
+     */
+    public void writeRow(String... values) throws IOException {
+        for (int i=0; i<values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeField(values[i]);
+        }
+        writer.write('\n');
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    private void writeField(String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        if (!needsQuoting(value)) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i=0; i<value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private static boolean needsQuoting(String value) {
+        for (int i=0; i<value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * ReportModel.java
+ * 
+ * Holds the rows of one issue report together with the tables the rows refer to.  Issue keys are
+ * interned here so every row for the same story, Epic or Initiative shares one String, and each
+ * distinct fixVersion name is stored once and referred to by a small int id.
+ * 
+ * A model is built and mutated by one thread at a time.  Once a report has finished it is only read,
+ * so the pipeline sets the rollup before handing the model on.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.report;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ReportModel {
+
+    public static final int NO_FIX_VERSION = 0;
+
+    private final Map<String, String> keys = new HashMap<String, String>();
+    private final List<String> fixVersionNames = new ArrayList<String>();
+    private final Map<String, Integer> fixVersionIds = new HashMap<String, Integer>();
+    private List<ReportRow> rows = new ArrayList<ReportRow>();
+    private ReportRollup rollup;
+
+    public ReportModel() {
+        fixVersionNames.add("");
+        fixVersionIds.put("", NO_FIX_VERSION);
+    }
+
+    /**
+     * intern()
+     * 
+     * Return the shared instance of an issue key.  Null is treated as an empty key.
+     * 
+     * @param key
+     * @return String representing the canonical key.
+     * 
+     */
+    public String intern(String key) {
+        if (key == null || key.isEmpty()) {
+            return "";
+        }
+        String canonical = keys.get(key);
+        if (canonical == null) {
+            keys.put(key, key);
+            canonical = key;
+        }
+        return canonical;
+    }
+
+    /**
+     * fixVersionId()
+     * 
+     * Return the id for a fixVersion name, allocating one the first time the name is seen.
+     * 
+     * @param name
+     * @return int id; NO_FIX_VERSION for a null or empty name.
+     * 
+     */
+    public int fixVersionId(String name) {
+        if (name == null || name.isEmpty()) {
+            return NO_FIX_VERSION;
+        }
+        Integer id = fixVersionIds.get(name);
+        if (id == null) {
+            id = fixVersionNames.size();
+            fixVersionNames.add(name);
+            fixVersionIds.put(name, id);
+        }
+        return id;
+    }
+
+    public String fixVersionName(int id) {
+        return fixVersionNames.get(id);
+    }
+
+    public ReportRow addRow(String storyKey, String fixVersion, long timeSpentSeconds) {
+        ReportRow row = new ReportRow(intern(storyKey), fixVersionId(fixVersion), timeSpentSeconds);
+        rows.add(row);
+        return row;
+    }
+
+    public List<ReportRow> getRows() {
+        return rows;
+    }
+
+    public void setRows(List<ReportRow> rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * getRows()
+     * 
+     * Return the rows for a group-by level.  The rollup is built from the current rows the first
+     * time it is needed if the report pipeline has not already set it.
+     * 
+     * @param groupBy
+     * @return List of ReportRow for the level.
+     * 
+     */
+    public List<ReportRow> getRows(ReportRollup.GroupBy groupBy) {
+        if (rollup == null) {
+            rollup = ReportRollup.aggregate(this);
+        }
+        return rollup.getRows(groupBy);
+    }
+
+    public void setRollup(ReportRollup rollup) {
+        this.rollup = rollup;
+    }
+}
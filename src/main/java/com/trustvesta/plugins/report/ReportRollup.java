@@ -0,0 +1,136 @@
+/**
+ * ReportRollup.java
+ * 
+ * Sums report rows up to story, Epic, Initiative and fixVersion level in a single pass.  Each level is
+ * a hash table keyed on the interned key so rows do not need to arrive in any order, and each
+ * level keeps the order its keys were first seen in.
+ * 
+ * The rolled up rows reuse ReportRow.  Columns that do not belong to a level are left empty, so an
+ * Epic row carries its Initiative but no story or fixVersion.
+ * 
+ * A story row reports the fixVersion its sub-task rows agree on.  That is the story's own fixVersion
+ * when it has one, since the Epic stage copies it onto every sub-task row.  Otherwise it is the
+ * sub-tasks' fixVersion if they all share one, and none if they differ.  The fixVersion level is
+ * summed from the story rows, so grouping by story and by fixVersion always add up the same way.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.report;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ReportRollup {
+
+    /**
+     * Level a report can be grouped by.  STORY is the default.
+     */
+    public enum GroupBy {
+        STORY, EPIC, INITIATIVE, FIXVERSION;
+
+        /**
+         * parse()
+         * 
+         * Match a groupBy request value, ignoring case.
+         * 
+         * @param value
+         * @return GroupBy; STORY for a null or empty value, or null if the value is unknown.
+         * 
+         */
+        public static GroupBy parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return STORY;
+            }
+            for (GroupBy groupBy : values()) {
+                if (groupBy.name().equalsIgnoreCase(value)) {
+                    return groupBy;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Map<GroupBy, List<ReportRow>> levels = new EnumMap<GroupBy, List<ReportRow>>(GroupBy.class);
+
+    private ReportRollup() {
+    }
+
+    /**
+     * aggregate()
+     * 
+     * Walk the model's rows once, adding each row's seconds to its story, Epic and Initiative
+     * totals, then sum the story rows by fixVersion.  The model's rows are not changed.
+     * 
+     * @param model
+     * @return ReportRollup holding the rows for every GroupBy level.
+     * 
+     */
+    public static ReportRollup aggregate(ReportModel model) {
+        Map<String, ReportRow> stories = new HashMap<String, ReportRow>();
+        Map<String, ReportRow> epics = new HashMap<String, ReportRow>();
+        Map<String, ReportRow> initiatives = new HashMap<String, ReportRow>();
+        Map<Integer, ReportRow> fixVersions = new HashMap<Integer, ReportRow>();
+
+        ReportRollup rollup = new ReportRollup();
+        for (GroupBy groupBy : GroupBy.values()) {
+            rollup.levels.put(groupBy, new ArrayList<ReportRow>());
+        }
+
+        for (ReportRow row : model.getRows()) {
+            long seconds = row.getTimeSpentSeconds();
+
+            ReportRow story = stories.get(row.getStoryKey());
+            if (story == null) {
+                story = new ReportRow(row.getStoryKey(), row.getFixVersion(), 0);
+                story.setEpicKey(row.getEpicKey());
+                story.setInitiativeKey(row.getInitiativeKey());
+                stories.put(row.getStoryKey(), story);
+                rollup.levels.get(GroupBy.STORY).add(story);
+            }
+            story.addTimeSpentSeconds(seconds);
+            if (story.getFixVersion() != row.getFixVersion()) {
+                // The sub-tasks disagree, so the story has no single fixVersion.
+                story.setFixVersion(ReportModel.NO_FIX_VERSION);
+            }
+
+            ReportRow epic = epics.get(row.getEpicKey());
+            if (epic == null) {
+                epic = new ReportRow("", ReportModel.NO_FIX_VERSION, 0);
+                epic.setEpicKey(row.getEpicKey());
+                epic.setInitiativeKey(row.getInitiativeKey());
+                epics.put(row.getEpicKey(), epic);
+                rollup.levels.get(GroupBy.EPIC).add(epic);
+            }
+            epic.addTimeSpentSeconds(seconds);
+
+            ReportRow initiative = initiatives.get(row.getInitiativeKey());
+            if (initiative == null) {
+                initiative = new ReportRow("", ReportModel.NO_FIX_VERSION, 0);
+                initiative.setInitiativeKey(row.getInitiativeKey());
+                initiatives.put(row.getInitiativeKey(), initiative);
+                rollup.levels.get(GroupBy.INITIATIVE).add(initiative);
+            }
+            initiative.addTimeSpentSeconds(seconds);
+        }
+
+        for (ReportRow story : rollup.levels.get(GroupBy.STORY)) {
+            ReportRow fixVersion = fixVersions.get(story.getFixVersion());
+            if (fixVersion == null) {
+                fixVersion = new ReportRow("", story.getFixVersion(), 0);
+                fixVersions.put(story.getFixVersion(), fixVersion);
+                rollup.levels.get(GroupBy.FIXVERSION).add(fixVersion);
+            }
+            fixVersion.addTimeSpentSeconds(story.getTimeSpentSeconds());
+        }
+
+        return rollup;
+    }
+
+    public List<ReportRow> getRows(GroupBy groupBy) {
+        return levels.get(groupBy);
+    }
+}
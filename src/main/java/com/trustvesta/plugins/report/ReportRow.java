@@ -0,0 +1,52 @@
+/**
+ * ReportRow.java
+ * 
+ * One row of the issue report.  Pipeline stages fill it in place: the sub-task stage adds one row per
+ * sub-task with its story key, fixVersion and seconds, the Epic stage adds the Epic key and replaces
+ * the fixVersion with the story's own when the story has one, and the Initiative stage adds its key.
+ * ReportRollup then builds the story rows, and every other level, from these sub-task rows.
+ * 
+ * Keys are interned through the owning ReportModel, the fixVersion is an id into the model's
+ * fixVersion table and time is kept as primitive seconds, so a row carries no per-row boxing.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.report;
+
+public class ReportRow {
+
+    private String storyKey;
+    private String epicKey = "";
+    private String initiativeKey = "";
+    private int fixVersion;
+    private long timeSpentSeconds;
+
+    public ReportRow(String storyKey, int fixVersion, long timeSpentSeconds) {
+        this.storyKey = storyKey;
+        this.fixVersion = fixVersion;
+        this.timeSpentSeconds = timeSpentSeconds;
+    }
+
+    public String getStoryKey() { return storyKey; }
+    public void setStoryKey(String storyKey) { this.storyKey = storyKey; }
+
+    public String getEpicKey() { return epicKey; }
+    public void setEpicKey(String epicKey) { this.epicKey = epicKey; }
+
+    public String getInitiativeKey() { return initiativeKey; }
+    public void setInitiativeKey(String initiativeKey) { this.initiativeKey = initiativeKey; }
+
+    /**
+     * Id of the fixVersion in the owning ReportModel; ReportModel.NO_FIX_VERSION when unset.
+     */
+    public int getFixVersion() { return fixVersion; }
+    public void setFixVersion(int fixVersion) { this.fixVersion = fixVersion; }
+
+    public long getTimeSpentSeconds() { return timeSpentSeconds; }
+    public void setTimeSpentSeconds(long timeSpentSeconds) { this.timeSpentSeconds = timeSpentSeconds; }
+
+    public void addTimeSpentSeconds(long seconds) {
+        this.timeSpentSeconds += seconds;
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * SearchPageParser.java
+ * 
+ * Pull parser for a single page returned by JIRA's /rest/api/latest/search endpoint.  The page is read
+ * with Gson's JsonReader straight off the response stream and each issue is handed to an IssueHandler
+ * as soon as it has been read, so no JsonObject tree is built and at most one issue is held in memory.
+ * Everything the report does not use is skipped without being materialised.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.report;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+public class SearchPageParser {
+
+    /**
+     * Receives each issue as it is parsed.
+     */
+    public interface IssueHandler {
+        void issue(SubtaskRecord record);
+    }
+
+    /**
+     * Paging information from the top level of a search page.
+     */
+    public static class PageInfo {
+        int startAt;
+        int maxResults;
+        int total;
+        int issueCount;
+
+        public int getStartAt() { return startAt; }
+        public int getMaxResults() { return maxResults; }
+        public int getTotal() { return total; }
+        public int getIssueCount() { return issueCount; }
+    }
+
+    private SearchPageParser() {
+    }
+
+    /**
+     * parse()
+     * 
+     * Parse one search page, calling handler.issue() once per issue in page order.
+     * 
+     * @param reader
+     * @param handler
+     * @return PageInfo holding startAt, maxResults, total and the number of issues read.
+     * @throws IOException on malformed JSON or a broken stream
+     * 
+     */
+    public static PageInfo parse(Reader reader, IssueHandler handler) throws IOException {
+        PageInfo page = new PageInfo();
+        JsonReader json = new JsonReader(reader);
+
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (name.equals("startAt")) {
+                page.startAt = json.nextInt();
+            } else if (name.equals("maxResults")) {
+                page.maxResults = json.nextInt();
+            } else if (name.equals("total")) {
+                page.total = json.nextInt();
+            } else if (name.equals("issues")) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    handler.issue(readIssue(json));
+                    page.issueCount++;
+                }
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+
+        return page;
+    }
+
+    private static SubtaskRecord readIssue(JsonReader json) throws IOException {
+        SubtaskRecord record = new SubtaskRecord();
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (name.equals("id")) {
+                record.id = json.nextString();
+            } else if (name.equals("key")) {
+                record.key = json.nextString();
+            } else if (name.equals("fields") && json.peek() == JsonToken.BEGIN_OBJECT) {
+                readFields(json, record);
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return record;
+    }
+
+    private static void readFields(JsonReader json, SubtaskRecord record) throws IOException {
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+            } else if (name.equals("parent")) {
+                record.parentKey = readKey(json);
+            } else if (name.equals("fixVersions")) {
+                record.fixVersion = readFirstName(json);
+            } else if (name.equals("worklog")) {
+                readWorklog(json, record);
+            } else if (name.equals("status")) {
+                record.status = readName(json);
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+
+    private static String readKey(JsonReader json) throws IOException {
+        String key = "";
+        json.beginObject();
+        while (json.hasNext()) {
+            if (json.nextName().equals("key")) {
+                key = json.nextString();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return key;
+    }
+
+    private static String readName(JsonReader json) throws IOException {
+        String value = "";
+        json.beginObject();
+        while (json.hasNext()) {
+            if (json.nextName().equals("name")) {
+                value = json.nextString();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return value;
+    }
+
+    private static String readFirstName(JsonReader json) throws IOException {
+        String first = "";
+        json.beginArray();
+        boolean seen = false;
+        while (json.hasNext()) {
+            if (seen) {
+                json.skipValue();
+                continue;
+            }
+            seen = true;
+            json.beginObject();
+            while (json.hasNext()) {
+                if (json.nextName().equals("name")) {
+                    first = json.nextString();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+        json.endArray();
+        return first;
+    }
+
+    private static void readWorklog(JsonReader json, SubtaskRecord record) throws IOException {
+        record.worklogTotal = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (name.equals("total")) {
+                record.worklogTotal = json.nextInt();
+            } else if (name.equals("worklogs")) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    readWorklogEntry(json, record);
+                }
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+
+    private static void readWorklogEntry(JsonReader json, SubtaskRecord record) throws IOException {
+        String started = null;
+        int seconds = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (name.equals("started")) {
+                started = json.nextString();
+            } else if (name.equals("timeSpentSeconds")) {
+                seconds = json.nextInt();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (started != null) {
+            record.addWorklog(started, seconds);
+        }
+    }
+}
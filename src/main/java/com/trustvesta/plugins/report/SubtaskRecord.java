@@ -0,0 +1,124 @@
+/**
+ * SubtaskRecord.java
+ * 
+ * Compact view of one issue pulled out of a JIRA search page by SearchPageParser.  Only the fields
+ * the report needs are kept: the issue id and key, its parent key, the first fixVersion and the worklog
+ * entries (started day and seconds) that were embedded in the page.  The started timestamp is kept
+ * only as its epoch day, see WorklogFilter.  The status name is kept when it was asked for, which
+ * the Charter status lookups do.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.report;
+
+import java.util.Arrays;
+
+public class SubtaskRecord {
+
+    String id = "";
+    String key = "";
+    String parentKey;
+    String fixVersion = "";
+    String status;
+    int worklogTotal = -1;
+    int worklogCount;
+    int[] worklogDay = new int[8];
+    int[] worklogSeconds = new int[8];
+
+    public String getId() {
+        return id;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Parent (story) key, or null when the parent field was not in the page.
+     */
+    public String getParentKey() {
+        return parentKey;
+    }
+
+    public String getFixVersion() {
+        return fixVersion;
+    }
+
+    /**
+     * Workflow status name, or null when the status field was not in the page.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Worklog total reported by JIRA, or -1 when the worklog field was not in the page.
+     */
+    public int getWorklogTotal() {
+        return worklogTotal;
+    }
+
+    /**
+     * Number of worklog entries actually embedded in the page.
+     */
+    public int getWorklogCount() {
+        return worklogCount;
+    }
+
+    /**
+     * Epoch day of worklog entry i's "started" date, or WorklogFilter.INVALID_DAY if it could not be read.
+     */
+    public int getWorklogDay(int i) {
+        return worklogDay[i];
+    }
+
+    public int getWorklogSeconds(int i) {
+        return worklogSeconds[i];
+    }
+
+    /**
+     * True when the page carried everything needed to report on this issue.
+     */
+    public boolean isComplete() {
+        return parentKey != null && worklogTotal >= 0;
+    }
+
+    /**
+     * True when JIRA reported more worklog entries than it embedded in the page.
+     */
+    public boolean isWorklogTruncated() {
+        return worklogTotal > worklogCount;
+    }
+
+    /**
+     * Copy of this record with the same key, parent and fixVersion but no worklog entries, ready to
+     * be filled from the issue's own worklog endpoint.
+     */
+    public SubtaskRecord copyWithoutWorklogs() {
+        SubtaskRecord copy = new SubtaskRecord();
+        copy.id = id;
+        copy.key = key;
+        copy.parentKey = parentKey;
+        copy.fixVersion = fixVersion;
+        copy.worklogTotal = worklogTotal;
+        return copy;
+    }
+
+    /**
+     * Add a worklog entry from its raw "started" timestamp.
+     */
+    public void addWorklog(String started, int seconds) {
+        addWorklog(WorklogFilter.epochDay(started), seconds);
+    }
+
+    void addWorklog(int day, int seconds) {
+        if (worklogCount == worklogDay.length) {
+            worklogDay = Arrays.copyOf(worklogDay, worklogCount * 2);
+            worklogSeconds = Arrays.copyOf(worklogSeconds, worklogCount * 2);
+        }
+        worklogDay[worklogCount] = day;
+        worklogSeconds[worklogCount] = seconds;
+        worklogCount++;
+    }
+}
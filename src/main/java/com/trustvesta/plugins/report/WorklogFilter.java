@@ -0,0 +1,115 @@
+/**
+ * WorklogFilter.java
+ * 
+ * Date kernel for the worklog sums.  A worklog "started" timestamp such as 2018-03-01T09:30:00.000+0000
+ * is reduced to the epoch day of its yyyy-MM-dd prefix by reading the characters directly, so no
+ * substring, Date or DateFormat is created per entry.  Range checks are on plain ints and include
+ * both the start and end day, the same as the worklogDate >= / <= clauses of the report JQL.
+ * 
+ * @author michael.howard
+ * 
+ */
+package com.trustvesta.plugins.report;
+
+public class WorklogFilter {
+
+    /**
+     * Returned by epochDay() when the text does not start with a valid yyyy-MM-dd date.  It sorts
+     * before every real day, so an inclusive range check never matches it.
+     */
+    public static final int INVALID_DAY = Integer.MIN_VALUE;
+
+    // Days from 0000-01-01 to 1970-01-01 in the proleptic Gregorian calendar, as in LocalDate.toEpochDay().
+    private static final int DAYS_0000_TO_1970 = 719528;
+
+    private WorklogFilter() {
+    }
+
+    /**
+     * epochDay()
+     * 
+     * Parse the leading yyyy-MM-dd of text into days since 1970-01-01.  Anything after the date,
+     * such as the time and offset of a JIRA timestamp, is ignored.
+     * 
+     * @param text
+     * @return int epoch day, or INVALID_DAY if text does not start with a valid date.
+     * 
+     */
+    public static int epochDay(CharSequence text) {
+        if (text == null || text.length() < 10 || text.charAt(4) != '-' || text.charAt(7) != '-') {
+            return INVALID_DAY;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 7);
+        int day = digits(text, 8, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            return INVALID_DAY;
+        }
+
+        long total = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!isLeapYear(year)) {
+                total--;
+            }
+        }
+        return (int) (total - DAYS_0000_TO_1970);
+    }
+
+    /**
+     * sumInRange()
+     * 
+     * Sum the seconds of the record's worklog entries started between startDay and endDay, both
+     * inclusive.  Entries with an unparseable date are skipped.
+     * 
+     * @param record
+     * @param startDay
+     * @param endDay
+     * @return long total seconds.
+     * 
+     */
+    public static long sumInRange(SubtaskRecord record, int startDay, int endDay) {
+        int[] days = record.worklogDay;
+        int[] seconds = record.worklogSeconds;
+        long total = 0;
+        for (int i=0; i<record.worklogCount; i++) {
+            int day = days[i];
+            if (day >= startDay && day <= endDay) {
+                total += seconds[i];
+            }
+        }
+        return total;
+    }
+
+    private static int digits(CharSequence text, int from, int to) {
+        int value = 0;
+        for (int i=from; i<to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+}
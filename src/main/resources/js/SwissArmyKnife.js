@@ -32,26 +32,22 @@ function download(filename, text) {
 
 /* jiraReport()
  * 
- * Action invoked by the submit button of the template
+ * Action invoked by the submit button of the template.  The report is submitted as a background
+ * job and pollReport() is used to follow it until the CSV is ready to download.
  * 
  * @param startDate
  * @param endDate
+ * @param groupBy story, epic, initiative or fixversion
  * 
  */
-function jiraReport(startDate, endDate) {
+function jiraReport(startDate, endDate, groupBy) {
 	
 	function response(response, status) {
 		if (status == "success") {
-			AJS.log("Downloading the JIRA query\n");
-			var today = new Date();
-			var date = today.getFullYear()+'-'+(today.getMonth()+1)+'-'+today.getDate();
-			var time = today.getHours() +'-'+today.getMinutes();
-			var dateTime = date+'_'+time;
-			download("JIRA_query_" + dateTime + ".csv", response);
+			pollReport(response.jobId, groupBy);
 		} else {
-			alert("Error generating report\n" + JSON.stringify(response));
+			reportFinished("Error submitting report\n" + JSON.stringify(response));
 		}
-		AJS.$('.button-spinner').spinStop();
 	}
 	
     AJS.log("In jiraReport(): " + startDate + " " + endDate);
@@ -59,17 +55,102 @@ function jiraReport(startDate, endDate) {
     payload.startDate = startDate;
     payload.endDate = endDate;
     AJS.$('.button-spinner').spin();
+    reportProgress("Submitting report");
 	jQuery.ajax({
 		type: "POST",
 		contentType: "application/json",
-		url: AJS.contextPath() + "/rest/jirarequest/1.0/issuereport",
+		url: AJS.contextPath() + "/rest/jirarequest/1.0/issuereport/jobs",
 		data: JSON.stringify(payload),
-		dataType: "text",
+		dataType: "json",
 		success: response,
 		error: response 
 	});
 }
 
+/* pollReport()
+ * 
+ * Poll the status of a report job every couple of seconds, showing the current stage, and
+ * fetch the CSV once the job is done.
+ * 
+ * @param jobId
+ * @param groupBy level the downloaded CSV is summed to
+ * 
+ */
+function pollReport(jobId, groupBy) {
+	var jobUrl = AJS.contextPath() + "/rest/jirarequest/1.0/issuereport/jobs/" + jobId;
+	
+	function result(response, status) {
+		if (status == "success") {
+			AJS.log("Downloading the JIRA query\n");
+			var today = new Date();
+			var date = today.getFullYear()+'-'+(today.getMonth()+1)+'-'+today.getDate();
+			var time = today.getHours() +'-'+today.getMinutes();
+			var dateTime = date+'_'+time;
+			download("JIRA_query_" + (groupBy || "story") + "_" + dateTime + ".csv", response);
+			reportFinished();
+		} else {
+			reportFinished("Error downloading report\n" + JSON.stringify(response));
+		}
+	}
+	
+	function status(response, textStatus) {
+		if (textStatus != "success") {
+			reportFinished("Error generating report\n" + JSON.stringify(response));
+		} else if (response.state == "DONE") {
+			reportProgress("Downloading");
+			jQuery.ajax({
+				type: "GET",
+				url: jobUrl + "/result?groupBy=" + encodeURIComponent(groupBy || "story"),
+				dataType: "text",
+				success: result,
+				error: result
+			});
+		} else if (response.state == "FAILED") {
+			reportFinished("Error generating report\n" + response.error);
+		} else {
+			reportProgress(response.stage + " (" + response.percent + "%)");
+			setTimeout(function() { pollReport(jobId, groupBy); }, 2000);
+		}
+	}
+	
+	jQuery.ajax({
+		type: "GET",
+		url: jobUrl,
+		dataType: "json",
+		success: status,
+		error: status
+	});
+}
+
+/* reportProgress()
+ * 
+ * Show the current report stage next to the submit button.
+ * 
+ * @param text
+ * 
+ */
+function reportProgress(text) {
+	var element = document.getElementById("reportprogress");
+	if (element) {
+		element.textContent = text;
+	}
+}
+
+/* reportFinished()
+ * 
+ * Stop the spinner and clear the progress text.  An error message, if given, is shown to the user.
+ * 
+ * @param error
+ * 
+ */
+function reportFinished(error) {
+	reportProgress("");
+	AJS.$('.button-spinner').spinStop();
+	if (error) {
+		alert(error);
+	}
+}
+
 /* baseData()
  * 
  * Assemble the payload data to be sent on the updateInitiative().  Variables are read
@@ -93,6 +174,7 @@ function baseData() {
 	requestData.revenue = revenue.value;
 	requestData.opportunity = opportunity.value;
 	requestData.expense = expense.value;
+	requestData.pageId = AJS.params.pageId;
 	
 	return requestData;
 }
@@ -139,7 +221,9 @@ function extendedData() {
 /* updateInitiative()
 * 
 * Action invoked from the Create/Update Initiative button in the template.  The response back
-* is used to set the issuekey/issuelink/issuestatus elements in the template for display.
+* holds the issue key, status and browse link, which are used to set the issuekey/issuelink/
+* issuestatus elements in the template for display, so the page is not reloaded.  Only the
+* fields changed since the last update are sent to JIRA, and none if nothing changed.
 * 
 */
 function updateInitiative() {
@@ -148,21 +232,24 @@ function updateInitiative() {
 			jsonResponse = JSON.parse(response);
 			var issueKey = jsonResponse.key;
 			document.getElementById("issuekey").value = issueKey;
-			
-		    if (jsonResponse.self) {
-			    var self = jsonResponse.self.split("rest");
-			    var link = self[0] + "browse/" + issueKey;
-				document.getElementById("issuelink").href = link;
-		    }
-			document.getElementById("issuestatus").value = status;
-			alert("Successfully updated " + issueKey);
+			document.getElementById("updateinitiative").value = "Update Initiative";
+			if (jsonResponse.status !== undefined) {
+				document.getElementById("issuestatus").value = jsonResponse.status;
+				document.getElementById("issuelink").href = jsonResponse.link;
+				showExtendedText();
+			} else {
+				getIssueStatus();
+			}
+			if (jsonResponse.fields && jsonResponse.fields.length == 0) {
+				alert("No changes to send for " + issueKey);
+			} else {
+				alert("Successfully updated " + issueKey);
+			}
 		} else {
 			alert("Failed to update Initiative.\nError: " + JSON.stringify(response));
 		}
-		window.location.reload();
 	}
     
-	var baseStatuses = ["New Initiative", "Inception Backlog", "HLE", "Status not set", "To Do", ""];
 	var data = baseData();
 	if ( !baseStatuses.includes(issuestatus.value) ) {
 		data = extendedData();
@@ -182,9 +269,10 @@ function updateInitiative() {
 /* getIssueStatus()
  * 
  * Called on each page load.  It fetches the JIRA issue key from the issuekey element 
- * and POSTs to the internal endpoint.  The resulting response is forwarded from JIRA
- * and status/link are parsed out and used to update the issuestatus/issuelink elements
- * in the template.
+ * and GETs its status from the internal endpoint.  The response holds only the key, status
+ * and browse link, which are used to update the issuestatus/issuelink elements in the
+ * template.  The browser may reuse the response for a short while and revalidates it with
+ * its ETag after that.
  *  
  */
 function getIssueStatus() {
@@ -192,28 +280,39 @@ function getIssueStatus() {
 		if (textStatus == "success") {
 			jsonResponse = JSON.parse(response);
 			if (jsonResponse) {
-			    var status = jsonResponse.fields.status.name;
-			    var issueKey = jsonResponse.key;
-			    var self = jsonResponse.self.split("rest");
-			    var link = self[0] + "browse/" + issueKey;
-				document.getElementById("issuestatus").value = status;
-				document.getElementById("issuelink").href = link;
+				document.getElementById("issuestatus").value = jsonResponse.status;
+				document.getElementById("issuelink").href = jsonResponse.link;
+				showExtendedText();
 			//<span class="aui-lozenge aui-lozenge-success" >
 			}			
 		} 
 	}
 	
+	if (!issuekey.value) {
+		return;
+	}
 	jQuery.ajax({
-		type: "POST",
-		contentType: "application/json",
-		url: AJS.contextPath() + "/rest/jirarequest/1.0/issuestatus",
-		data: issuekey.value,
+		type: "GET",
+		url: AJS.contextPath() + "/rest/jirarequest/1.0/issuestatus/" + encodeURIComponent(issuekey.value),
 		dataType: "text",
 		success: response,
 		error: response 
 	});	
 }
 
+/* showExtendedText()
+ * 
+ * Show the extended text areas once the status has passed "Initiative Approved".
+ * 
+ */
+var baseStatuses = ["New Initiative", "Inception Backlog", "HLE", "Status not set", "To Do", ""];
+
+function showExtendedText() {
+	if ( !baseStatuses.includes(issuestatus.value) ) {
+		document.getElementById("extendedtext").style.visibility = "visible";
+	}
+}
+
 /*
  * The following are run on loading the page.
  * 
@@ -228,10 +327,6 @@ AJS.$( document ).ready(function() {
 	}
 	
     getIssueStatus();
-    
-    baseStatuses = ["New Initiative", "Inception Backlog", "HLE", "Status not set", "To Do", ""];
-	if ( !baseStatuses.includes(issuestatus.value) ) {
-		document.getElementById("extendedtext").style.visibility = "visible";
-	}
+    showExtendedText();
 
 });	
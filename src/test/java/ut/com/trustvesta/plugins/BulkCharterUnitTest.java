@@ -0,0 +1,98 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+
+import com.atlassian.confluence.core.ContentProperties;
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.confluence.pages.PageManager;
+import com.atlassian.sal.api.user.UserKey;
+import com.atlassian.sal.api.user.UserManager;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.IssueHierarchyCache;
+import com.trustvesta.plugins.api.IssueStatusCache;
+import com.trustvesta.plugins.api.JiraClient;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraRequest;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.impl.JiraExecutorImpl;
+import com.trustvesta.plugins.impl.JiraSettingsImpl;
+
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BulkCharterUnitTest
+{
+    @Test
+    public void testBulkResultsMapBackToPages() throws Exception
+    {
+        JiraSettings settings = new JiraSettingsImpl(null);
+        JiraClient jiraClient = mock(JiraClient.class);
+        IssueHierarchyCache hierarchyCache = mock(IssueHierarchyCache.class);
+        JiraMetrics metrics = mock(JiraMetrics.class);
+        UserManager userManager = mock(UserManager.class);
+        UserKey admin = new UserKey("admin");
+        when(userManager.getRemoteUserKey()).thenReturn(admin);
+        when(userManager.isSystemAdmin(admin)).thenReturn(true);
+
+        PageManager pageManager = mock(PageManager.class);
+        ContentProperties created = charterPage(pageManager, 1L, "");
+        ContentProperties rejected = charterPage(pageManager, 2L, "");
+        ContentProperties updated = charterPage(pageManager, 3L, "TEST-7");
+
+        // JIRA rejects the second of the two new issues and creates the first.
+        when(jiraClient.createIssues(anyString())).thenReturn((JsonObject) new JsonParser().parse(
+                "{\"issues\":[{\"id\":\"100\",\"key\":\"TEST-10\"}],"
+                + "\"errors\":[{\"failedElementNumber\":1,\"elementErrors\":{\"errors\":{\"summary\":\"too long\"}}}]}"));
+
+        JiraExecutorImpl executor = new JiraExecutorImpl(settings, metrics);
+        try {
+            JiraRequest jiraRequest = new JiraRequest(jiraClient, settings, executor, hierarchyCache, mock(IssueStatusCache.class), null, null,
+                    metrics, userManager, pageManager, null);
+            Response response = jiraRequest.bulkUpdateIssues("{\"pageIds\":[1,2,3,4,1]}");
+            assertEquals(200, response.getStatus());
+
+            JsonArray results = (JsonArray) new JsonParser().parse((String) response.getEntity());
+            assertEquals("duplicate page ids are dropped", 4, results.size());
+            assertEquals("created", status(results, 0));
+            assertEquals("TEST-10", results.get(0).getAsJsonObject().get("issueKey").getAsString());
+            assertEquals("failed", status(results, 1));
+            assertEquals("updated", status(results, 2));
+            assertEquals("failed", status(results, 3));
+        } finally {
+            executor.destroy();
+        }
+
+        verify(created).setTextProperty(eq("charter"), contains("\"issueKey\":\"TEST-10\""));
+        verify(rejected, never()).setTextProperty(anyString(), anyString());
+        // The updated page keeps the hashes of the fields it sent, so an unchanged rerun sends nothing.
+        verify(updated).setTextProperty(eq("charter"), contains("\"synced\":{"));
+        verify(jiraClient).updateIssue(eq("TEST-7"), anyString());
+        verify(hierarchyCache).invalidate("TEST-7");
+    }
+
+    private static ContentProperties charterPage(PageManager pageManager, long pageId, String issueKey)
+    {
+        ContentProperties properties = mock(ContentProperties.class);
+        when(properties.getTextProperty("charter")).thenReturn("{\"project\":\"TEST\",\"issueKey\":\"" + issueKey + "\"}");
+        Page page = mock(Page.class);
+        when(page.getTitle()).thenReturn("Charter " + pageId);
+        when(page.getProperties()).thenReturn(properties);
+        when(pageManager.getPage(pageId)).thenReturn(page);
+        return properties;
+    }
+
+    private static String status(JsonArray results, int index)
+    {
+        return results.get(index).getAsJsonObject().get("status").getAsString();
+    }
+}
@@ -0,0 +1,200 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.confluence.core.ContentProperties;
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.confluence.pages.PageManager;
+import com.atlassian.confluence.security.Permission;
+import com.atlassian.confluence.security.PermissionManager;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.IssueHierarchyCache;
+import com.trustvesta.plugins.api.IssueStatus;
+import com.trustvesta.plugins.api.JiraClient;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraRequest;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.charter.CharterProperties;
+import com.trustvesta.plugins.impl.IssueStatusCacheImpl;
+import com.trustvesta.plugins.impl.JiraSettingsImpl;
+
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CharterPropertiesUnitTest
+{
+    @Test
+    public void testOneReadAndOneCoalescedWrite()
+    {
+        ContentProperties properties = mock(ContentProperties.class);
+        when(properties.getTextProperty(CharterProperties.PROPERTY)).thenReturn("{\"summary\":\"Old\",\"risks\":\"None\"}");
+        Page page = mock(Page.class);
+        when(page.getProperties()).thenReturn(properties);
+
+        CharterProperties charter = CharterProperties.load(page);
+        assertEquals("Old", charter.get("summary"));
+        assertEquals("None", charter.get("risks"));
+        assertEquals("", charter.get("outcome"));
+
+        charter.set("risks", "None");
+        assertFalse("setting the stored value is not a change", charter.flush());
+
+        charter.set("summary", "New");
+        charter.set("outcome", "Faster");
+        assertTrue(charter.flush());
+        assertFalse(charter.flush());
+
+        verify(properties, times(1)).getTextProperty(anyString());
+        verify(properties, times(1)).setTextProperty(CharterProperties.PROPERTY,
+                "{\"summary\":\"New\",\"risks\":\"None\",\"outcome\":\"Faster\"}");
+    }
+
+    @Test
+    public void testUnreadableCharterLoadsEmpty()
+    {
+        ContentProperties properties = mock(ContentProperties.class);
+        when(properties.getTextProperty(CharterProperties.PROPERTY)).thenReturn("not json");
+        Page page = mock(Page.class);
+        when(page.getProperties()).thenReturn(properties);
+
+        CharterProperties charter = CharterProperties.load(page);
+        assertTrue(charter.getAll().isEmpty());
+        assertFalse(charter.flush());
+        verify(properties, never()).setTextProperty(anyString(), anyString());
+    }
+
+    @Test
+    public void testPerFieldPropertiesLoadWhenTheCharterIsMissing()
+    {
+        ContentProperties properties = mock(ContentProperties.class);
+        when(properties.getTextProperty("charter.summary")).thenReturn("From the bulk sync");
+        when(properties.getStringProperty("summary")).thenReturn("Older");
+        when(properties.getStringProperty("risks")).thenReturn("None");
+        Page page = mock(Page.class);
+        when(page.getProperties()).thenReturn(properties);
+
+        CharterProperties charter = CharterProperties.load(page);
+        assertEquals("From the bulk sync", charter.get("summary"));
+        assertEquals("None", charter.get("risks"));
+        assertEquals(2, charter.getAll().size());
+        assertFalse("loading writes nothing", charter.flush());
+
+        // The first change moves every value into the charter property.
+        charter.set("outcome", "Faster");
+        assertTrue(charter.flush());
+        verify(properties).setTextProperty(CharterProperties.PROPERTY,
+                "{\"summary\":\"From the bulk sync\",\"risks\":\"None\",\"outcome\":\"Faster\"}");
+    }
+
+    @Test
+    public void testUpdateSendsOnlyChangedFields() throws Exception
+    {
+        // Page properties that keep what is written, so each update sees the previous one's hashes.
+        final String[] text = { "" };
+        ContentProperties properties = mock(ContentProperties.class);
+        when(properties.getTextProperty(CharterProperties.PROPERTY)).thenAnswer(new Answer<String>() {
+            public String answer(InvocationOnMock invocation) {
+                return text[0];
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) {
+                text[0] = (String) invocation.getArguments()[1];
+                return null;
+            }
+        }).when(properties).setTextProperty(eq(CharterProperties.PROPERTY), anyString());
+        Page page = mock(Page.class);
+        when(page.getProperties()).thenReturn(properties);
+        PageManager pageManager = mock(PageManager.class);
+        when(pageManager.getPage(7L)).thenReturn(page);
+        PermissionManager permissionManager = mock(PermissionManager.class);
+        when(permissionManager.hasPermission(null, Permission.EDIT, page)).thenReturn(true);
+
+        JiraSettings settings = new JiraSettingsImpl(null);
+        IssueStatusCacheImpl statusCache = new IssueStatusCacheImpl(settings);
+        statusCache.put("", "CHG-1", new IssueStatus("CHG-1", "HLE", "http://jira/browse/CHG-1"));
+        JiraClient jiraClient = mock(JiraClient.class);
+        JiraRequest jiraRequest = new JiraRequest(jiraClient, settings, null, mock(IssueHierarchyCache.class), statusCache,
+                null, null, mock(JiraMetrics.class), null, pageManager, permissionManager);
+
+        // Never synced: every field goes out.
+        Response first = jiraRequest.updateIssue(charter("Old summary"));
+        assertEquals(200, first.getStatus());
+        JsonObject firstJson = (JsonObject) new JsonParser().parse((String) first.getEntity());
+        assertEquals("HLE", firstJson.get("status").getAsString());
+        assertEquals(10, firstJson.getAsJsonArray("fields").size());
+
+        // Nothing changed: no JIRA call.
+        Response second = jiraRequest.updateIssue(charter("Old summary"));
+        assertEquals(0, ((JsonObject) new JsonParser().parse((String) second.getEntity())).getAsJsonArray("fields").size());
+
+        // Only the changed field is sent.
+        Response third = jiraRequest.updateIssue(charter("New summary"));
+        assertEquals("[\"customfield_11302\"]",
+                ((JsonObject) new JsonParser().parse((String) third.getEntity())).getAsJsonArray("fields").toString());
+
+        // A key that is not a JIRA key never reaches the REST path.
+        JsonObject traversal = (JsonObject) new JsonParser().parse(charter("New summary"));
+        traversal.addProperty("issueKey", "../../../rest/api/2/user");
+        assertEquals(400, jiraRequest.updateIssue(traversal.toString()).getStatus());
+
+        verify(jiraClient, times(2)).updateIssue(anyString(), anyString());
+        verify(jiraClient).updateIssue("CHG-1", "{\"fields\":{\"customfield_11302\":\"New summary\"}}");
+        assertEquals("New summary", CharterProperties.load(page).get("summary"));
+        // Control keys and unknown keys in the body are not kept with the charter.
+        assertFalse(CharterProperties.load(page).getAll().containsKey("force"));
+        assertFalse(CharterProperties.load(page).getAll().containsKey("pageId"));
+    }
+
+    @Test
+    public void testUpdateNeedsEditPermissionOnThePage() throws Exception
+    {
+        ContentProperties properties = mock(ContentProperties.class);
+        Page page = mock(Page.class);
+        when(page.getProperties()).thenReturn(properties);
+        PageManager pageManager = mock(PageManager.class);
+        when(pageManager.getPage(7L)).thenReturn(page);
+
+        JiraSettings settings = new JiraSettingsImpl(null);
+        JiraClient jiraClient = mock(JiraClient.class);
+        JiraRequest jiraRequest = new JiraRequest(jiraClient, settings, null, mock(IssueHierarchyCache.class),
+                new IssueStatusCacheImpl(settings), null, null, mock(JiraMetrics.class), null, pageManager,
+                mock(PermissionManager.class));
+
+        assertEquals(403, jiraRequest.updateIssue(charter("Old summary")).getStatus());
+        verify(jiraClient, never()).updateIssue(anyString(), anyString());
+        verify(properties, never()).setTextProperty(anyString(), anyString());
+    }
+
+    private static String charter(String summary)
+    {
+        JsonObject charter = new JsonObject();
+        charter.addProperty("pageId", "7");
+        charter.addProperty("issueKey", "CHG-1");
+        charter.addProperty("issueType", "Initiative");
+        charter.addProperty("project", "CHG");
+        charter.addProperty("title", "Faster payments");
+        charter.addProperty("submitDate", "2018-03-01");
+        charter.addProperty("summary", summary);
+        charter.addProperty("deliveryDate", "2018-09-01");
+        charter.addProperty("outcome", "Faster");
+        charter.addProperty("justification", "Customers ask");
+        charter.addProperty("revenue", "100");
+        charter.addProperty("force", false);
+        return charter.toString();
+    }
+}
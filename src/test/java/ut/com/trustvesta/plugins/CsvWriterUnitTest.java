@@ -0,0 +1,30 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+
+import com.trustvesta.plugins.report.CsvWriter;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+public class CsvWriterUnitTest
+{
+    @Test
+    public void testPlainValuesAreNotQuoted() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        CsvWriter csv = new CsvWriter(out);
+        csv.writeRow("1.0", "3600", "ABC-1", "", null);
+        assertEquals("1.0,3600,ABC-1,,\n", out.toString());
+    }
+
+    @Test
+    public void testSpecialCharactersAreEscaped() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        CsvWriter csv = new CsvWriter(out);
+        csv.writeRow("Release 1, hotfix", "say \"hi\"", "line\nbreak");
+        assertEquals("\"Release 1, hotfix\",\"say \"\"hi\"\"\",\"line\nbreak\"\n", out.toString());
+    }
+}
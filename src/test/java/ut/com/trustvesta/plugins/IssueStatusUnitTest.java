@@ -0,0 +1,163 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.confluence.user.AuthenticatedUserThreadLocal;
+import com.atlassian.confluence.user.ConfluenceUser;
+import com.atlassian.sal.api.user.UserKey;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.IssueHierarchyCache;
+import com.trustvesta.plugins.api.JiraClient;
+import com.trustvesta.plugins.api.JiraClientException;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraRequest;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.impl.IssueStatusCacheImpl;
+import com.trustvesta.plugins.impl.JiraSettingsImpl;
+import com.trustvesta.plugins.report.SearchPageParser;
+
+import java.io.StringReader;
+
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IssueStatusUnitTest
+{
+    private static final String SEARCH_PAGE = "{\"startAt\":0,\"maxResults\":2,\"total\":2,\"issues\":["
+            + "{\"id\":\"1\",\"key\":\"CHARTER-1\",\"fields\":{\"status\":{\"name\":\"HLE\",\"id\":\"3\"}}},"
+            + "{\"id\":\"2\",\"key\":\"CHARTER-2\",\"fields\":{\"status\":{\"name\":\"Done\",\"id\":\"6\"}}}]}";
+
+    @Test
+    public void testBatchUsesOneSearchAndCachesTheStatuses() throws Exception
+    {
+        JiraClient jiraClient = mock(JiraClient.class);
+        when(jiraClient.getBrowseUrl(anyString())).thenAnswer(new Answer<String>() {
+            public String answer(InvocationOnMock invocation) {
+                return "http://jira/browse/" + invocation.getArguments()[0];
+            }
+        });
+        when(jiraClient.search(any(JsonObject.class), any(SearchPageParser.IssueHandler.class))).thenAnswer(
+                new Answer<SearchPageParser.PageInfo>() {
+            public SearchPageParser.PageInfo answer(InvocationOnMock invocation) throws Exception {
+                return SearchPageParser.parse(new StringReader(SEARCH_PAGE),
+                        (SearchPageParser.IssueHandler) invocation.getArguments()[1]);
+            }
+        });
+        JiraRequest jiraRequest = jiraRequest(jiraClient);
+
+        // CHARTER-3 is not in JIRA and the last key is not a key at all; both are left out.
+        Response response = jiraRequest.getIssueStatuses("[\"CHARTER-1\",\"CHARTER-2\",\"CHARTER-3\",\"x) or (y\"]", null);
+        assertEquals(200, response.getStatus());
+        JsonObject statuses = (JsonObject) new JsonParser().parse((String) response.getEntity());
+        assertEquals(2, statuses.entrySet().size());
+        assertEquals("HLE", statuses.getAsJsonObject("CHARTER-1").get("status").getAsString());
+        assertEquals("http://jira/browse/CHARTER-2", statuses.getAsJsonObject("CHARTER-2").get("link").getAsString());
+        assertFalse(statuses.has("CHARTER-3"));
+
+        // The single-issue lookup is now answered from the cache.
+        Response single = jiraRequest.getIssueStatus("CHARTER-1", null);
+        JsonObject status = (JsonObject) new JsonParser().parse((String) single.getEntity());
+        assertEquals("CHARTER-1", status.get("key").getAsString());
+        assertEquals("HLE", status.get("status").getAsString());
+        verify(jiraClient, times(1)).search(any(JsonObject.class), any(SearchPageParser.IssueHandler.class));
+        verify(jiraClient, times(0)).getIssue(anyString(), any(String[].class), any(String[].class));
+    }
+
+    @Test
+    public void testMatchingEtagIsNotModified() throws Exception
+    {
+        JiraClient jiraClient = mock(JiraClient.class);
+        when(jiraClient.getIssue(anyString(), any(String[].class), any(String[].class))).thenReturn((JsonObject) new JsonParser().parse(
+                "{\"key\":\"CHARTER-1\",\"fields\":{\"status\":{\"name\":\"HLE\"}}}"));
+        when(jiraClient.getBrowseUrl("CHARTER-1")).thenReturn("http://jira/browse/CHARTER-1");
+        JiraRequest jiraRequest = jiraRequest(jiraClient);
+
+        Response first = jiraRequest.getIssueStatusByKey("CHARTER-1", null);
+        assertEquals(200, first.getStatus());
+        String etag = (String) first.getMetadata().getFirst("ETag");
+        assertTrue(etag.startsWith("\""));
+
+        Response second = jiraRequest.getIssueStatusByKey("CHARTER-1", etag);
+        assertEquals(304, second.getStatus());
+        assertNull(second.getEntity());
+        verify(jiraClient, times(1)).getIssue(anyString(), any(String[].class), any(String[].class));
+    }
+
+    @Test
+    public void testMovedIssueIsReportedUnderTheRequestedKey() throws Exception
+    {
+        // CHARTER-1 has moved to NEW-7 and the search answers under the new key.
+        JiraClient jiraClient = mock(JiraClient.class);
+        when(jiraClient.search(any(JsonObject.class), any(SearchPageParser.IssueHandler.class))).thenAnswer(
+                new Answer<SearchPageParser.PageInfo>() {
+            public SearchPageParser.PageInfo answer(InvocationOnMock invocation) throws Exception {
+                return SearchPageParser.parse(new StringReader(SEARCH_PAGE.replace("CHARTER-1", "NEW-7")),
+                        (SearchPageParser.IssueHandler) invocation.getArguments()[1]);
+            }
+        });
+        when(jiraClient.getIssue(eq("CHARTER-1"), any(String[].class), any(String[].class))).thenReturn((JsonObject) new JsonParser().parse(
+                "{\"key\":\"NEW-7\",\"fields\":{\"status\":{\"name\":\"HLE\"}}}"));
+        when(jiraClient.getIssue(eq("CHARTER-3"), any(String[].class), any(String[].class))).thenThrow(
+                new JiraClientException("JIRA returned 404 Not Found", 404));
+        JiraRequest jiraRequest = jiraRequest(jiraClient);
+
+        Response response = jiraRequest.getIssueStatuses("[\"CHARTER-1\",\"CHARTER-2\",\"CHARTER-3\"]", null);
+        assertEquals(200, response.getStatus());
+        JsonObject statuses = (JsonObject) new JsonParser().parse((String) response.getEntity());
+        assertEquals(2, statuses.entrySet().size());
+        assertEquals("HLE", statuses.getAsJsonObject("CHARTER-1").get("status").getAsString());
+        assertEquals("Done", statuses.getAsJsonObject("CHARTER-2").get("status").getAsString());
+        assertFalse(statuses.has("NEW-7"));
+    }
+
+    @Test
+    public void testCachedStatusIsOnlyServedToTheSameUser() throws Exception
+    {
+        JiraClient jiraClient = mock(JiraClient.class);
+        when(jiraClient.getIssue(anyString(), any(String[].class), any(String[].class))).thenReturn((JsonObject) new JsonParser().parse(
+                "{\"key\":\"CHARTER-1\",\"fields\":{\"status\":{\"name\":\"HLE\"}}}"));
+        JiraRequest jiraRequest = jiraRequest(jiraClient);
+
+        assertEquals(200, getAs("alice", jiraRequest).getStatus());
+        assertEquals(200, getAs("alice", jiraRequest).getStatus());
+        verify(jiraClient, times(1)).getIssue(anyString(), any(String[].class), any(String[].class));
+
+        // Bob cannot see the issue; JIRA is asked again and says so.
+        when(jiraClient.getIssue(anyString(), any(String[].class), any(String[].class))).thenThrow(
+                new JiraClientException("JIRA returned 404 Not Found", 404));
+        assertEquals(404, getAs("bob", jiraRequest).getStatus());
+    }
+
+    private static Response getAs(String userKey, JiraRequest jiraRequest)
+    {
+        ConfluenceUser user = mock(ConfluenceUser.class);
+        when(user.getKey()).thenReturn(new UserKey(userKey));
+        AuthenticatedUserThreadLocal.set(user);
+        try {
+            return jiraRequest.getIssueStatusByKey("CHARTER-1", null);
+        } finally {
+            AuthenticatedUserThreadLocal.reset();
+        }
+    }
+
+    private static JiraRequest jiraRequest(JiraClient jiraClient)
+    {
+        JiraSettings settings = new JiraSettingsImpl(null);
+        return new JiraRequest(jiraClient, settings, null, mock(IssueHierarchyCache.class),
+                new IssueStatusCacheImpl(settings), null, null, mock(JiraMetrics.class), null, null, null);
+    }
+}
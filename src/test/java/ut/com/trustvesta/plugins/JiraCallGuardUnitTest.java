@@ -0,0 +1,118 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+
+import com.trustvesta.plugins.api.JiraClientException;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.impl.AdaptiveLimiter;
+import com.trustvesta.plugins.impl.CircuitBreaker;
+import com.trustvesta.plugins.impl.JiraCallGuard;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JiraCallGuardUnitTest
+{
+    @Test
+    public void testLimiterBacksOffOncePerBurstAndGrowsBack() throws Exception
+    {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 8);
+        long burst = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.acquire(10));
+        }
+        // Four calls of the same burst are throttled, but only the first halves the limit.
+        for (int i = 0; i < 4; i++) {
+            limiter.onOverload(burst);
+        }
+        assertEquals(4.0, limiter.getLimit(), 0.001);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.acquire(10));
+        }
+        assertFalse("limit of 4 should be full", limiter.acquire(10));
+        for (int i = 0; i < 4; i++) {
+            limiter.onSuccess(System.nanoTime(), Long.MAX_VALUE);
+        }
+        assertEquals(0, limiter.getInFlight());
+        assertTrue(limiter.getLimit() > 4.9);
+    }
+
+    @Test
+    public void testBreakerOpensAndLetsOneTrialThrough() throws Exception
+    {
+        CircuitBreaker breaker = new CircuitBreaker(2, 50);
+        breaker.onFailure(-1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure(-1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(80);
+        assertTrue(breaker.allowRequest());
+        assertFalse("only one trial call while half open", breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testThrottledCallsAreRetriedAndOthersAreNot() throws Exception
+    {
+        JiraSettings settings = mock(JiraSettings.class);
+        when(settings.getJiraMaxConcurrency()).thenReturn(4);
+        when(settings.getJiraLatencyTargetMillis()).thenReturn(5000);
+        when(settings.getJiraRetryAttempts()).thenReturn(3);
+        JiraCallGuard guard = new JiraCallGuard(settings, mock(JiraMetrics.class));
+
+        final AtomicInteger attempts = new AtomicInteger();
+        String result = guard.execute(new JiraCallGuard.Call<String>() {
+            public String run() throws JiraClientException {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new JiraClientException("JIRA returned 429", 429, 0);
+                }
+                return "ok";
+            }
+        });
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+
+        attempts.set(0);
+        try {
+            guard.execute(new JiraCallGuard.Call<String>() {
+                public String run() throws JiraClientException {
+                    attempts.incrementAndGet();
+                    throw new JiraClientException("JIRA returned 404", 404);
+                }
+            });
+            fail("404 should be thrown");
+        } catch (JiraClientException e) {
+            assertEquals(404, e.getStatusCode());
+        }
+        assertEquals(1, attempts.get());
+        assertEquals(0, guard.getLimiter().getInFlight());
+    }
+
+    @Test
+    public void testRetryAfterIsHonoured()
+    {
+        assertEquals(120000, JiraCallGuard.parseRetryAfter(" 120 ", 0));
+        assertEquals(5000, JiraCallGuard.parseRetryAfter("Thu, 01 Jan 1970 00:00:10 GMT", 5000));
+        assertEquals(-1, JiraCallGuard.parseRetryAfter("soon", 0));
+        assertEquals(-1, JiraCallGuard.parseRetryAfter(null, 0));
+
+        long wait = JiraCallGuard.backoffMillis(0, 2000);
+        assertTrue(wait >= 2000 && wait <= 2250);
+        assertEquals("too long to hold a thread for", -1, JiraCallGuard.backoffMillis(0, 60000));
+        for (int attempt = 0; attempt < 10; attempt++) {
+            assertTrue(JiraCallGuard.backoffMillis(attempt, -1) <= 8000);
+        }
+    }
+}
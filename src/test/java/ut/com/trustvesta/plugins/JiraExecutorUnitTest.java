@@ -0,0 +1,151 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.confluence.user.AuthenticatedUserThreadLocal;
+import com.atlassian.confluence.user.ConfluenceUser;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.impl.JiraExecutorImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JiraExecutorUnitTest
+{
+    private JiraExecutorImpl executor;
+    private JiraMetrics metrics;
+
+    @Before
+    public void setUp()
+    {
+        JiraSettings settings = mock(JiraSettings.class);
+        when(settings.getLookupParallelism()).thenReturn(4);
+        when(settings.getLookupTimeoutSeconds()).thenReturn(1);
+        metrics = mock(JiraMetrics.class);
+        executor = new JiraExecutorImpl(settings, metrics);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.destroy();
+    }
+
+    @Test
+    public void testResultsKeepTaskOrder()
+    {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    // Later tasks finish first.
+                    Thread.sleep(40 - 2 * value);
+                    return value;
+                }
+            });
+        }
+
+        List<Integer> results = executor.invokeAll(tasks);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("result out of order", Integer.valueOf(i), results.get(i));
+        }
+    }
+
+    @Test
+    public void testFailedAndSlowTasksYieldNull()
+    {
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        tasks.add(new Callable<String>() {
+            public String call() { throw new IllegalStateException("boom"); }
+        });
+        tasks.add(new Callable<String>() {
+            public String call() throws Exception { Thread.sleep(5000); return "late"; }
+        });
+        tasks.add(new Callable<String>() {
+            public String call() { return "ok"; }
+        });
+
+        List<String> results = executor.invokeAll(tasks);
+        assertEquals(3, results.size());
+        assertNull(results.get(0));
+        assertNull(results.get(1));
+        assertEquals("ok", results.get(2));
+        verify(metrics).recordError("lookupTimeout");
+    }
+
+    @Test
+    public void testTasksRunAsTheCallingUser()
+    {
+        ConfluenceUser user = mock(ConfluenceUser.class);
+        List<Callable<ConfluenceUser>> tasks = new ArrayList<Callable<ConfluenceUser>>();
+        for (int i = 0; i < 8; i++) {
+            tasks.add(new Callable<ConfluenceUser>() {
+                public ConfluenceUser call() {
+                    return AuthenticatedUserThreadLocal.get();
+                }
+            });
+        }
+
+        AuthenticatedUserThreadLocal.set(user);
+        try {
+            for (ConfluenceUser seen : executor.invokeAll(tasks)) {
+                assertSame(user, seen);
+            }
+        } finally {
+            AuthenticatedUserThreadLocal.reset();
+        }
+
+        // The workers are left with no user for the next caller.
+        for (ConfluenceUser seen : executor.invokeAll(tasks)) {
+            assertNull(seen);
+        }
+    }
+
+    @Test
+    public void testTimeoutIsCountedFromWhenEachTaskStarts()
+    {
+        // Three waves of four on a pool of four: the last wave finishes well after the one second
+        // timeout has passed since the call, but each task runs for much less than that.
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (int i = 0; i < 12; i++) {
+            tasks.add(new Callable<String>() {
+                public String call() throws Exception { Thread.sleep(400); return "ok"; }
+            });
+        }
+
+        for (String result : executor.invokeAll(tasks)) {
+            assertEquals("ok", result);
+        }
+    }
+
+    @Test
+    public void testSlowTasksTimeOutTogether()
+    {
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (int i = 0; i < 4; i++) {
+            tasks.add(new Callable<String>() {
+                public String call() throws Exception { Thread.sleep(5000); return "late"; }
+            });
+        }
+
+        long started = System.currentTimeMillis();
+        for (String result : executor.invokeAll(tasks)) {
+            assertNull(result);
+        }
+        long elapsed = System.currentTimeMillis() - started;
+        assertTrue("took " + elapsed + " ms", elapsed < 2000);
+    }
+}
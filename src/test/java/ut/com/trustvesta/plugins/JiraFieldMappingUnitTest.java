@@ -0,0 +1,31 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.JiraFieldMapping;
+
+import static org.junit.Assert.assertEquals;
+
+public class JiraFieldMappingUnitTest
+{
+    @Test
+    public void testMissingEntriesKeepDefaults()
+    {
+        JiraFieldMapping mapping = JiraFieldMapping.fromJson(
+                (JsonObject) new JsonParser().parse("{\"epicLinkField\":\"customfield_20001\"}"));
+        assertEquals("customfield_20001", mapping.getEpicLinkField());
+        assertEquals(JiraFieldMapping.DEFAULT.getInitiativeLinkField(), mapping.getInitiativeLinkField());
+        assertEquals(JiraFieldMapping.DEFAULT.getCharterFields(), mapping.getCharterFields());
+
+        JiraFieldMapping copy = JiraFieldMapping.fromJson(mapping.toJson());
+        assertEquals(mapping.toJson(), copy.toJson());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFieldIdsAreValidated()
+    {
+        JiraFieldMapping.fromJson((JsonObject) new JsonParser().parse("{\"initiativeLinkField\":\"parent&expand=changelog\"}"));
+    }
+}
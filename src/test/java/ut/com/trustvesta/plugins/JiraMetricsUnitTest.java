@@ -0,0 +1,66 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.trustvesta.plugins.api.FragmentCache;
+import com.trustvesta.plugins.api.IssueHierarchyCache;
+import com.trustvesta.plugins.api.IssueStatusCache;
+import com.trustvesta.plugins.api.ReportJobManager;
+import com.trustvesta.plugins.impl.JiraMetricsImpl;
+import com.trustvesta.plugins.impl.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JiraMetricsUnitTest
+{
+    @Test
+    public void testPercentilesReadBucketBounds()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(150));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(700));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5.0, histogram.percentileMillis(50), 0);
+        assertEquals(200.0, histogram.percentileMillis(99), 0);
+        // The top bucket is capped at the slowest sample rather than its 1000ms bound.
+        assertEquals(700.0, histogram.percentileMillis(100), 0);
+        assertEquals(0.0, new LatencyHistogram().percentileMillis(99), 0);
+    }
+
+    @Test
+    public void testSnapshotGroupsCallsStagesCachesAndErrors()
+    {
+        IssueHierarchyCache cache = mock(IssueHierarchyCache.class);
+        when(cache.getHitCount()).thenReturn(3L);
+        when(cache.getMissCount()).thenReturn(1L);
+        JiraMetricsImpl metrics = new JiraMetricsImpl(cache, mock(IssueStatusCache.class), mock(FragmentCache.class),
+                mock(ReportJobManager.class));
+
+        metrics.recordCall("search", TimeUnit.MILLISECONDS.toNanos(40), 1000, false);
+        metrics.recordCall("search", TimeUnit.MILLISECONDS.toNanos(60), 500, true);
+        metrics.recordStage("epics", TimeUnit.MILLISECONDS.toNanos(15));
+        metrics.recordError("queryEpic");
+        metrics.recordError("queryEpic");
+
+        JsonObject snapshot = metrics.snapshot();
+        JsonObject search = snapshot.getAsJsonObject("calls").getAsJsonObject("search");
+        assertEquals(2, search.get("count").getAsLong());
+        assertEquals(1, search.get("failures").getAsLong());
+        assertEquals(1500, search.get("bytesReceived").getAsLong());
+        assertEquals(1, snapshot.getAsJsonObject("stages").getAsJsonObject("epics").get("count").getAsLong());
+        assertEquals(0.75, snapshot.getAsJsonObject("caches").getAsJsonObject("hierarchy").get("hitRate").getAsDouble(), 0);
+        assertEquals(2, snapshot.getAsJsonObject("errors").get("queryEpic").getAsLong());
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getAsJsonObject("calls").entrySet().size());
+    }
+}
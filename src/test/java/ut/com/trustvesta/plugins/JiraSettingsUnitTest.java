@@ -0,0 +1,144 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.user.UserKey;
+import com.atlassian.sal.api.user.UserManager;
+import com.atlassian.sal.api.user.UserProfile;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.IssueHierarchyCache;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraRequest;
+import com.trustvesta.plugins.impl.JiraSettingsImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JiraSettingsUnitTest
+{
+    private final Map<String, Object> stored = new HashMap<String, Object>();
+    private JiraSettingsImpl settings;
+
+    @Before
+    public void setUp()
+    {
+        PluginSettings pluginSettings = mock(PluginSettings.class);
+        when(pluginSettings.get(anyString())).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                return stored.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                return stored.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+            }
+        }).when(pluginSettings).put(anyString(), any());
+        PluginSettingsFactory factory = mock(PluginSettingsFactory.class);
+        when(factory.createGlobalSettings()).thenReturn(pluginSettings);
+        settings = new JiraSettingsImpl(factory);
+    }
+
+    @Test
+    public void testInvalidValuesStoreNothing()
+    {
+        for (String body : new String[] { "{\"worklogSyncMinutes\":10,\"worklogSyncUser\":5}",
+                "{\"worklogSyncMinutes\":0}", "{\"worklogSyncMinutes\":2.5}", "{\"worklogSyncMinutes\":\"10\"}",
+                "{\"worklogIndexEnabled\":\"yes\"}", "{\"webhookSecret\":\"s3cret\"}" }) {
+            try {
+                settings.update((JsonObject) new JsonParser().parse(body));
+                fail(body + " was accepted");
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+        assertTrue(stored.isEmpty());
+
+        settings.update((JsonObject) new JsonParser().parse("{\"worklogSyncMinutes\":10}"));
+        assertEquals(10, settings.getWorklogSyncMinutes());
+        assertEquals(10, settings.toJson().get("worklogSyncMinutes").getAsInt());
+    }
+
+    @Test
+    public void testTunablesReachTheirGetters()
+    {
+        settings.update((JsonObject) new JsonParser().parse("{\"hydrationBatchSize\":7}"));
+        assertEquals(7, settings.getHydrationBatchSize());
+        settings.update((JsonObject) new JsonParser().parse("{\"lookupParallelism\":7}"));
+        assertEquals(7, settings.getLookupParallelism());
+        settings.update((JsonObject) new JsonParser().parse("{\"lookupTimeoutSeconds\":7}"));
+        assertEquals(7, settings.getLookupTimeoutSeconds());
+        settings.update((JsonObject) new JsonParser().parse("{\"hierarchyCacheSize\":7}"));
+        assertEquals(7, settings.getHierarchyCacheSize());
+        settings.update((JsonObject) new JsonParser().parse("{\"hierarchyCacheTtlMinutes\":7}"));
+        assertEquals(7, settings.getHierarchyCacheTtlMinutes());
+        settings.update((JsonObject) new JsonParser().parse("{\"searchPageSize\":7}"));
+        assertEquals(7, settings.getSearchPageSize());
+        settings.update((JsonObject) new JsonParser().parse("{\"searchParallelism\":7}"));
+        assertEquals(7, settings.getSearchParallelism());
+        settings.update((JsonObject) new JsonParser().parse("{\"reportJobThreads\":7}"));
+        assertEquals(7, settings.getReportJobThreads());
+        settings.update((JsonObject) new JsonParser().parse("{\"reportRetentionMinutes\":7}"));
+        assertEquals(7, settings.getReportRetentionMinutes());
+        settings.update((JsonObject) new JsonParser().parse("{\"reportCacheSize\":7}"));
+        assertEquals(7, settings.getReportCacheSize());
+        settings.update((JsonObject) new JsonParser().parse("{\"reportCacheMinutes\":7}"));
+        assertEquals(7, settings.getReportCacheMinutes());
+        settings.update((JsonObject) new JsonParser().parse("{\"jiraMaxConcurrency\":7}"));
+        assertEquals(7, settings.getJiraMaxConcurrency());
+        settings.update((JsonObject) new JsonParser().parse("{\"jiraLatencyTargetMillis\":7}"));
+        assertEquals(7, settings.getJiraLatencyTargetMillis());
+        settings.update((JsonObject) new JsonParser().parse("{\"jiraRetryAttempts\":7}"));
+        assertEquals(7, settings.getJiraRetryAttempts());
+        settings.update((JsonObject) new JsonParser().parse("{\"statusCacheSize\":7}"));
+        assertEquals(7, settings.getStatusCacheSize());
+        settings.update((JsonObject) new JsonParser().parse("{\"statusCacheTtlSeconds\":7}"));
+        assertEquals(7, settings.getStatusCacheTtlSeconds());
+        settings.update((JsonObject) new JsonParser().parse("{\"fragmentCacheSize\":7}"));
+        assertEquals(7, settings.getFragmentCacheSize());
+        settings.update((JsonObject) new JsonParser().parse("{\"fragmentCacheTtlMinutes\":7}"));
+        assertEquals(7, settings.getFragmentCacheTtlMinutes());
+    }
+
+    @Test
+    public void testWorklogIndexNeedsASyncUserThatExists()
+    {
+        UserKey admin = new UserKey("admin");
+        UserManager userManager = mock(UserManager.class);
+        when(userManager.getRemoteUserKey()).thenReturn(admin);
+        when(userManager.isSystemAdmin(admin)).thenReturn(true);
+        when(userManager.getUserProfile("svc-jira")).thenReturn(mock(UserProfile.class));
+        JiraRequest jiraRequest = new JiraRequest(null, settings, null, mock(IssueHierarchyCache.class), null,
+                null, null, mock(JiraMetrics.class), userManager, null, null);
+
+        assertEquals(400, jiraRequest.setSettings("{\"worklogIndexEnabled\":true}").getStatus());
+        assertEquals(400, jiraRequest.setSettings("{\"worklogSyncUser\":\"ghost\"}").getStatus());
+        assertFalse(settings.isWorklogIndexEnabled());
+        assertEquals("", settings.getWorklogSyncUser());
+
+        assertEquals(200, jiraRequest.setSettings("{\"worklogSyncUser\":\"svc-jira\",\"worklogIndexEnabled\":true}").getStatus());
+        assertTrue(settings.isWorklogIndexEnabled());
+        assertEquals("svc-jira", settings.getWorklogSyncUser());
+        // The user cannot be cleared while the index is on.
+        assertEquals(400, jiraRequest.setSettings("{\"worklogSyncUser\":\"\"}").getStatus());
+
+        when(userManager.isSystemAdmin(admin)).thenReturn(false);
+        assertEquals(403, jiraRequest.getSettings().getStatus());
+        assertEquals(403, jiraRequest.setSettings("{\"worklogIndexEnabled\":false}").getStatus());
+    }
+}
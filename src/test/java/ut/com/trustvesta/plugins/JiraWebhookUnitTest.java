@@ -0,0 +1,196 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.HierarchyLink;
+import com.trustvesta.plugins.api.IssueStatus;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraWebhookHandler.Outcome;
+import com.trustvesta.plugins.api.ReportJobManager;
+import com.trustvesta.plugins.api.WorklogIndex;
+import com.trustvesta.plugins.impl.IssueHierarchyCacheImpl;
+import com.trustvesta.plugins.impl.IssueStatusCacheImpl;
+import com.trustvesta.plugins.impl.JiraSettingsImpl;
+import com.trustvesta.plugins.impl.JiraWebhookHandlerImpl;
+import com.trustvesta.plugins.report.WorklogFilter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JiraWebhookUnitTest
+{
+    @Test
+    public void testIssueEventsAreOrderedAndDeduplicated()
+    {
+        JiraSettingsImpl settings = new JiraSettingsImpl(null);
+        IssueStatusCacheImpl statusCache = new IssueStatusCacheImpl(settings);
+        IssueHierarchyCacheImpl hierarchyCache = new IssueHierarchyCacheImpl(settings);
+        statusCache.put("alice", "STORY-1", new IssueStatus("STORY-1", "To Do", "http://jira/browse/STORY-1"));
+        String epicLink = settings.getFieldMapping().getEpicLinkField();
+        hierarchyCache.put("STORY-1", new HierarchyLink(epicLink, "EPIC-1", "1.0"));
+        JiraWebhookHandlerImpl handler = new JiraWebhookHandlerImpl(statusCache, hierarchyCache, mock(WorklogIndex.class),
+                mock(ReportJobManager.class), settings, mock(JiraMetrics.class));
+
+        JsonObject inProgress = issueEvent(2000, "In Progress", epicLink, "EPIC-2");
+        JsonObject done = issueEvent(3000, "Done", epicLink, "EPIC-2");
+
+        assertEquals(Outcome.APPLIED, handler.handle(done));
+        // Delivered late: older than what is already applied.
+        assertEquals(Outcome.STALE, handler.handle(inProgress));
+        assertEquals(Outcome.DUPLICATE, handler.handle(done));
+
+        assertEquals("Done", statusCache.get("alice", "STORY-1").getStatus());
+        assertEquals("http://jira/browse/STORY-1", statusCache.get("alice", "STORY-1").getLink());
+        assertEquals("EPIC-2", hierarchyCache.get("STORY-1").getParentKey());
+
+        // Issues the plugin has not cached are not added.
+        JsonObject other = issueEvent(3000, "Done", epicLink, "EPIC-2");
+        other.getAsJsonObject("issue").addProperty("id", "10002");
+        other.getAsJsonObject("issue").addProperty("key", "STORY-2");
+        assertEquals(Outcome.APPLIED, handler.handle(other));
+        assertNull(statusCache.get("alice", "STORY-2"));
+
+        JsonObject deleted = issueEvent(4000, "Done", epicLink, "EPIC-2");
+        deleted.addProperty("webhookEvent", "jira:issue_deleted");
+        assertEquals(Outcome.APPLIED, handler.handle(deleted));
+        assertNull(statusCache.get("alice", "STORY-1"));
+        assertEquals("a late update does not bring a deleted issue back", Outcome.STALE,
+                handler.handle(issueEvent(3500, "Done", epicLink, "EPIC-2")));
+
+        assertEquals(Outcome.INVALID, handler.handle(new JsonObject()));
+    }
+
+    @Test
+    public void testEpicParentIsReadFromTheCachedEntrysField()
+    {
+        JiraSettingsImpl settings = new JiraSettingsImpl(null);
+        IssueHierarchyCacheImpl hierarchyCache = new IssueHierarchyCacheImpl(settings);
+        String epicLink = settings.getFieldMapping().getEpicLinkField();
+        String initiativeLink = settings.getFieldMapping().getInitiativeLinkField();
+        hierarchyCache.put("STORY-1", new HierarchyLink(initiativeLink, "INIT-1", "1.0"));
+        JiraWebhookHandlerImpl handler = new JiraWebhookHandlerImpl(new IssueStatusCacheImpl(settings), hierarchyCache,
+                mock(WorklogIndex.class), mock(ReportJobManager.class), settings, mock(JiraMetrics.class));
+
+        // An Epic under a renamed issue type, with an empty Epic Link field as JIRA sends it.
+        JsonObject event = issueEvent(2000, "Done", initiativeLink, "INIT-2");
+        JsonObject fields = event.getAsJsonObject("issue").getAsJsonObject("fields");
+        fields.getAsJsonObject("issuetype").addProperty("name", "Feature");
+        fields.add(epicLink, JsonNull.INSTANCE);
+        assertEquals(Outcome.APPLIED, handler.handle(event));
+
+        assertEquals("INIT-2", hierarchyCache.get("STORY-1").getParentKey());
+        assertEquals(initiativeLink, hierarchyCache.get("STORY-1").getParentField());
+        assertEquals("2.0", hierarchyCache.get("STORY-1").getFixVersion());
+    }
+
+    @Test
+    public void testSlowWorklogApplyDoesNotHoldUpOtherEvents() throws Exception
+    {
+        PluginSettings pluginSettings = mock(PluginSettings.class);
+        PluginSettingsFactory factory = mock(PluginSettingsFactory.class);
+        when(factory.createGlobalSettings()).thenReturn(pluginSettings);
+        when(pluginSettings.get("com.trustvesta.plugins.SwissArmyKnife.worklogIndexEnabled")).thenReturn("true");
+        JiraSettingsImpl settings = new JiraSettingsImpl(factory);
+        final CountDownLatch applying = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        WorklogIndex worklogIndex = mock(WorklogIndex.class);
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                applying.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(worklogIndex).applyWorklog(any(JsonObject.class));
+        final JiraWebhookHandlerImpl handler = new JiraWebhookHandlerImpl(new IssueStatusCacheImpl(settings),
+                new IssueHierarchyCacheImpl(settings), worklogIndex, mock(ReportJobManager.class), settings,
+                mock(JiraMetrics.class));
+
+        final JsonObject created = (JsonObject) new JsonParser().parse("{\"timestamp\":1000,\"webhookEvent\":\"worklog_created\","
+                + "\"worklog\":{\"id\":\"500\",\"issueId\":\"10001\",\"started\":\"2018-03-01T09:00:00.000+0000\"}}");
+        Thread webhook = new Thread(new Runnable() {
+            public void run() {
+                handler.handle(created);
+            }
+        });
+        webhook.start();
+        try {
+            assertTrue(applying.await(5, TimeUnit.SECONDS));
+            long started = System.currentTimeMillis();
+            assertEquals(Outcome.APPLIED, handler.handle(issueEvent(2000, "Done", "customfield_10001", "EPIC-2")));
+            assertTrue(System.currentTimeMillis() - started < 1000);
+        } finally {
+            release.countDown();
+            webhook.join();
+        }
+    }
+
+    @Test
+    public void testWorklogEventsReachTheIndexOnlyWhenEnabled()
+    {
+        PluginSettings pluginSettings = mock(PluginSettings.class);
+        PluginSettingsFactory factory = mock(PluginSettingsFactory.class);
+        when(factory.createGlobalSettings()).thenReturn(pluginSettings);
+        JiraSettingsImpl settings = new JiraSettingsImpl(factory);
+        WorklogIndex worklogIndex = mock(WorklogIndex.class);
+        ReportJobManager reportJobManager = mock(ReportJobManager.class);
+        JiraWebhookHandlerImpl handler = new JiraWebhookHandlerImpl(new IssueStatusCacheImpl(settings),
+                new IssueHierarchyCacheImpl(settings), worklogIndex, reportJobManager, settings, mock(JiraMetrics.class));
+
+        JsonObject created = (JsonObject) new JsonParser().parse("{\"timestamp\":1000,\"webhookEvent\":\"worklog_created\","
+                + "\"worklog\":{\"id\":\"500\",\"issueId\":\"10001\",\"started\":\"2018-03-01T09:00:00.000+0000\",\"timeSpentSeconds\":3600}}");
+        assertEquals(Outcome.IGNORED, handler.handle(created));
+        verify(worklogIndex, never()).applyWorklog(any(JsonObject.class));
+        // Cached reports are dropped even while the index is off.
+        verify(reportJobManager).invalidateReports(WorklogFilter.epochDay("2018-03-01"));
+
+        when(pluginSettings.get("com.trustvesta.plugins.SwissArmyKnife.worklogIndexEnabled")).thenReturn("true");
+        JsonObject deleted = (JsonObject) new JsonParser().parse("{\"timestamp\":2000,\"webhookEvent\":\"worklog_deleted\","
+                + "\"worklog\":{\"id\":\"500\",\"issueId\":\"10001\"}}");
+        assertEquals(Outcome.APPLIED, handler.handle(deleted));
+        assertEquals(Outcome.DUPLICATE, handler.handle(deleted));
+        verify(worklogIndex, times(1)).removeWorklog(500L);
+        verify(reportJobManager).invalidateReports(WorklogFilter.INVALID_DAY);
+    }
+
+    private static JsonObject issueEvent(long timestamp, String status, String epicLinkField, String epicKey)
+    {
+        JsonObject fields = new JsonObject();
+        JsonObject statusJson = new JsonObject();
+        statusJson.addProperty("name", status);
+        fields.add("status", statusJson);
+        JsonObject issueType = new JsonObject();
+        issueType.addProperty("name", "Story");
+        fields.add("issuetype", issueType);
+        fields.addProperty(epicLinkField, epicKey);
+        fields.add("fixVersions", new JsonParser().parse("[{\"name\":\"2.0\"}]"));
+
+        JsonObject issue = new JsonObject();
+        issue.addProperty("id", "10001");
+        issue.addProperty("key", "STORY-1");
+        issue.add("fields", fields);
+
+        JsonObject event = new JsonObject();
+        event.addProperty("timestamp", timestamp);
+        event.addProperty("webhookEvent", "jira:issue_updated");
+        event.add("issue", issue);
+        return event;
+    }
+}
@@ -0,0 +1,254 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.confluence.user.AuthenticatedUserThreadLocal;
+import com.atlassian.confluence.user.ConfluenceUser;
+import com.atlassian.sal.api.user.UserKey;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.IssueHierarchyCache;
+import com.trustvesta.plugins.api.IssueStatusCache;
+import com.trustvesta.plugins.api.JiraClient;
+import com.trustvesta.plugins.api.JiraClientException;
+import com.trustvesta.plugins.api.JiraMetrics;
+import com.trustvesta.plugins.api.JiraRequest;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.api.ReportJob;
+import com.trustvesta.plugins.api.ReportProgress;
+import com.trustvesta.plugins.api.ReportTask;
+import com.trustvesta.plugins.impl.JiraExecutorImpl;
+import com.trustvesta.plugins.impl.JiraSettingsImpl;
+import com.trustvesta.plugins.impl.ReportJobManagerImpl;
+import com.trustvesta.plugins.report.ReportModel;
+import com.trustvesta.plugins.report.SearchPageParser;
+import com.trustvesta.plugins.report.WorklogFilter;
+
+import java.io.StringReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReportJobManagerUnitTest
+{
+    private ReportJobManagerImpl manager;
+    private final AtomicInteger runs = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final ReportTask task = new ReportTask() {
+        public ReportModel run(ReportProgress progress) throws Exception {
+            runs.incrementAndGet();
+            release.await(5, TimeUnit.SECONDS);
+            return new ReportModel();
+        }
+    };
+
+    @Before
+    public void setUp()
+    {
+        JiraSettings settings = mock(JiraSettings.class);
+        when(settings.getReportJobThreads()).thenReturn(2);
+        when(settings.getReportRetentionMinutes()).thenReturn(30);
+        when(settings.getReportCacheSize()).thenReturn(5);
+        when(settings.getReportCacheMinutes()).thenReturn(60);
+        manager = new ReportJobManagerImpl(settings);
+    }
+
+    @After
+    public void tearDown()
+    {
+        manager.destroy();
+    }
+
+    @Test
+    public void testIdenticalInFlightRequestsShareOneRun() throws Exception
+    {
+        ReportJob first = manager.submit("2018-01-01", "2018-01-14", task);
+        ReportJob second = manager.submit("2018-01-01", "2018-01-14", task);
+        assertSame(first, second);
+        assertEquals(1, manager.getCoalescedCount());
+
+        release.countDown();
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testPastRangeIsServedFromCache() throws Exception
+    {
+        release.countDown();
+        ReportJob first = manager.submit("2018-01-01", "2018-01-14", task);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        // The in-flight entry is released just after the job completes.
+        Thread.sleep(50);
+
+        ReportJob second = manager.submit("2018-01-01", "2018-01-14", task);
+        assertSame(first, second);
+        assertEquals(1, manager.getCacheHitCount());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testOpenRangeIsNotCached() throws Exception
+    {
+        release.countDown();
+        ReportJob first = manager.submit("2018-01-01", "2999-01-01", task);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+
+        ReportJob second = manager.submit("2018-01-01", "2999-01-01", task);
+        assertNotSame(first, second);
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testWorklogChangeDropsCachedReportsForItsDay() throws Exception
+    {
+        release.countDown();
+        ReportJob first = manager.submit("2018-01-01", "2018-01-14", task);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+
+        // A day outside the range leaves the report cached.
+        manager.invalidateReports(WorklogFilter.epochDay("2018-02-01"));
+        assertSame(first, manager.submit("2018-01-01", "2018-01-14", task));
+
+        manager.invalidateReports(WorklogFilter.epochDay("2018-01-14"));
+        ReportJob second = manager.submit("2018-01-01", "2018-01-14", task);
+        assertNotSame(first, second);
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testReportRunningDuringAWorklogChangeIsNotCached() throws Exception
+    {
+        ReportJob first = manager.submit("2018-01-01", "2018-01-14", task);
+        manager.invalidateReports(WorklogFilter.INVALID_DAY);
+        release.countDown();
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+
+        assertNotSame(first, manager.submit("2018-01-01", "2018-01-14", task));
+        assertEquals(0, manager.getCacheHitCount());
+    }
+
+    @Test
+    public void testReportsAreNotSharedBetweenUsers() throws Exception
+    {
+        release.countDown();
+        ReportJob alice = submitAs("alice", "2018-01-01", "2018-01-14");
+        assertTrue(alice.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+
+        ReportJob bob = submitAs("bob", "2018-01-01", "2018-01-14");
+        assertNotSame(alice, bob);
+        assertTrue(bob.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertSame(alice, submitAs("alice", "2018-01-01", "2018-01-14"));
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testFailedSearchPageFailsTheReportAndIsNotCached() throws Exception
+    {
+        // The first page says there are two, the second page cannot be fetched.
+        JiraClient jiraClient = mock(JiraClient.class);
+        when(jiraClient.search(any(JsonObject.class), any(SearchPageParser.IssueHandler.class))).thenAnswer(
+                new Answer<SearchPageParser.PageInfo>() {
+            public SearchPageParser.PageInfo answer(InvocationOnMock invocation) throws Exception {
+                if (((JsonObject) invocation.getArguments()[0]).get("startAt").getAsInt() > 0) {
+                    throw new JiraClientException("Bad Gateway", 502);
+                }
+                return SearchPageParser.parse(new StringReader("{\"startAt\":0,\"maxResults\":1,\"total\":2,\"issues\":[]}"),
+                        (SearchPageParser.IssueHandler) invocation.getArguments()[1]);
+            }
+        });
+        JiraSettings settings = new JiraSettingsImpl(null);
+        JiraMetrics metrics = mock(JiraMetrics.class);
+        JiraExecutorImpl executor = new JiraExecutorImpl(settings, metrics);
+        try {
+            JiraRequest jiraRequest = new JiraRequest(jiraClient, settings, executor, mock(IssueHierarchyCache.class),
+                    mock(IssueStatusCache.class), manager, null, metrics, null, null, null);
+            String body = "{\"startDate\":\"2018-01-01\",\"endDate\":\"2018-01-14\"}";
+            JsonObject first = (JsonObject) new JsonParser().parse((String) jiraRequest.submitIssueReport(body).getEntity());
+            ReportJob job = manager.getJob(first.get("jobId").getAsString());
+            assertTrue(job.await(5, TimeUnit.SECONDS));
+            assertEquals(ReportJob.State.FAILED, job.getState());
+            Thread.sleep(50);
+
+            JsonObject second = (JsonObject) new JsonParser().parse((String) jiraRequest.submitIssueReport(body).getEntity());
+            assertFalse(first.get("jobId").getAsString().equals(second.get("jobId").getAsString()));
+            assertEquals(0, manager.getCacheHitCount());
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    public void testFailedEpicLookupFailsTheReport() throws Exception
+    {
+        // The sub-task search works but JIRA refuses the story lookup.
+        JiraClient jiraClient = mock(JiraClient.class);
+        when(jiraClient.search(any(JsonObject.class), any(SearchPageParser.IssueHandler.class))).thenAnswer(
+                new Answer<SearchPageParser.PageInfo>() {
+            public SearchPageParser.PageInfo answer(InvocationOnMock invocation) throws Exception {
+                return SearchPageParser.parse(new StringReader("{\"startAt\":0,\"maxResults\":50,\"total\":1,\"issues\":["
+                        + "{\"key\":\"SUB-1\",\"fields\":{\"parent\":{\"key\":\"STORY-1\"},\"worklog\":{\"total\":1,"
+                        + "\"worklogs\":[{\"started\":\"2018-01-02T09:00:00.000+0000\",\"timeSpentSeconds\":60}]}}}]}"),
+                        (SearchPageParser.IssueHandler) invocation.getArguments()[1]);
+            }
+        });
+        when(jiraClient.getIssue(eq("STORY-1"), any(String[].class), any(String[].class))).thenThrow(
+                new JiraClientException("Circuit breaker open", 503));
+        JiraSettings settings = new JiraSettingsImpl(null);
+        JiraMetrics metrics = mock(JiraMetrics.class);
+        JiraExecutorImpl executor = new JiraExecutorImpl(settings, metrics);
+        try {
+            JiraRequest jiraRequest = new JiraRequest(jiraClient, settings, executor, mock(IssueHierarchyCache.class),
+                    mock(IssueStatusCache.class), manager, null, metrics, null, null, null);
+            String body = "{\"startDate\":\"2018-01-01\",\"endDate\":\"2018-01-14\"}";
+            // The legacy endpoint queues the report like /issuereport/jobs instead of streaming it.
+            Response response = jiraRequest.getIssueReport(body);
+            assertEquals(202, response.getStatus());
+            JsonObject submitted = (JsonObject) new JsonParser().parse((String) response.getEntity());
+            ReportJob job = manager.getJob(submitted.get("jobId").getAsString());
+            assertTrue(job.await(5, TimeUnit.SECONDS));
+            assertEquals(ReportJob.State.FAILED, job.getState());
+            verify(metrics).recordError("issueQuery");
+            assertEquals(409, jiraRequest.getIssueReportResult(job.getId(), null).getStatus());
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    private ReportJob submitAs(String userKey, String startDate, String endDate)
+    {
+        ConfluenceUser user = mock(ConfluenceUser.class);
+        when(user.getKey()).thenReturn(new UserKey(userKey));
+        AuthenticatedUserThreadLocal.set(user);
+        try {
+            return manager.submit(startDate, endDate, task);
+        } finally {
+            AuthenticatedUserThreadLocal.reset();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+
+import com.trustvesta.plugins.report.ReportModel;
+import com.trustvesta.plugins.report.ReportRow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ReportModelUnitTest
+{
+    @Test
+    public void testKeysAndFixVersionsAreShared()
+    {
+        ReportModel model = new ReportModel();
+        ReportRow first = model.addRow(new String("ABC-1"), "1.0", 60);
+        ReportRow second = model.addRow(new String("ABC-1"), "1.0", 120);
+
+        assertSame(first.getStoryKey(), second.getStoryKey());
+        assertEquals(first.getFixVersion(), second.getFixVersion());
+        assertEquals("1.0", model.fixVersionName(first.getFixVersion()));
+        assertEquals(ReportModel.NO_FIX_VERSION, model.fixVersionId(null));
+        assertEquals("", model.intern(null));
+    }
+}
@@ -0,0 +1,86 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+
+import com.trustvesta.plugins.report.ReportModel;
+import com.trustvesta.plugins.report.ReportRollup;
+import com.trustvesta.plugins.report.ReportRow;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReportRollupUnitTest
+{
+    private static ReportRow row(ReportModel model, String story, String epic, String initiative, String fixVersion, long seconds)
+    {
+        ReportRow row = model.addRow(story, fixVersion, seconds);
+        row.setEpicKey(model.intern(epic));
+        row.setInitiativeKey(model.intern(initiative));
+        return row;
+    }
+
+    @Test
+    public void testOutOfOrderStoriesAreMergedAtEveryLevel()
+    {
+        ReportModel model = new ReportModel();
+        row(model, "S-1", "E-1", "I-1", "1.0", 60);
+        row(model, "S-2", "E-1", "I-1", "1.1", 30);
+        row(model, "S-1", "E-1", "I-1", "1.0", 40);
+        row(model, "S-3", "E-2", "I-1", "1.0", 5);
+
+        ReportRollup rollup = ReportRollup.aggregate(model);
+
+        List<ReportRow> stories = rollup.getRows(ReportRollup.GroupBy.STORY);
+        assertEquals(3, stories.size());
+        assertEquals("S-1", stories.get(0).getStoryKey());
+        assertEquals(100, stories.get(0).getTimeSpentSeconds());
+
+        List<ReportRow> epics = rollup.getRows(ReportRollup.GroupBy.EPIC);
+        assertEquals(2, epics.size());
+        assertEquals(130, epics.get(0).getTimeSpentSeconds());
+        assertEquals("I-1", epics.get(0).getInitiativeKey());
+
+        List<ReportRow> initiatives = rollup.getRows(ReportRollup.GroupBy.INITIATIVE);
+        assertEquals(1, initiatives.size());
+        assertEquals(135, initiatives.get(0).getTimeSpentSeconds());
+
+        List<ReportRow> fixVersions = rollup.getRows(ReportRollup.GroupBy.FIXVERSION);
+        assertEquals(2, fixVersions.size());
+        assertEquals("1.0", model.fixVersionName(fixVersions.get(0).getFixVersion()));
+        assertEquals(105, fixVersions.get(0).getTimeSpentSeconds());
+    }
+
+    @Test
+    public void testStoryFixVersionMatchesFixVersionLevel()
+    {
+        ReportModel model = new ReportModel();
+        // S-1's sub-tasks agree, S-2's do not.
+        row(model, "S-1", "E-1", "I-1", "1.0", 60);
+        row(model, "S-1", "E-1", "I-1", "1.0", 40);
+        row(model, "S-2", "E-1", "I-1", "1.0", 30);
+        row(model, "S-2", "E-1", "I-1", "1.1", 20);
+
+        ReportRollup rollup = ReportRollup.aggregate(model);
+
+        List<ReportRow> stories = rollup.getRows(ReportRollup.GroupBy.STORY);
+        assertEquals("1.0", model.fixVersionName(stories.get(0).getFixVersion()));
+        assertEquals("", model.fixVersionName(stories.get(1).getFixVersion()));
+
+        List<ReportRow> fixVersions = rollup.getRows(ReportRollup.GroupBy.FIXVERSION);
+        assertEquals(2, fixVersions.size());
+        assertEquals("1.0", model.fixVersionName(fixVersions.get(0).getFixVersion()));
+        assertEquals(100, fixVersions.get(0).getTimeSpentSeconds());
+        assertEquals("", model.fixVersionName(fixVersions.get(1).getFixVersion()));
+        assertEquals(50, fixVersions.get(1).getTimeSpentSeconds());
+    }
+
+    @Test
+    public void testGroupByParse()
+    {
+        assertEquals(ReportRollup.GroupBy.STORY, ReportRollup.GroupBy.parse(null));
+        assertEquals(ReportRollup.GroupBy.FIXVERSION, ReportRollup.GroupBy.parse("fixVersion"));
+        assertNull(ReportRollup.GroupBy.parse("sprint"));
+    }
+}
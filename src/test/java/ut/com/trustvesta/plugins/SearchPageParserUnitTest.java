@@ -0,0 +1,59 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+
+import com.trustvesta.plugins.report.SearchPageParser;
+import com.trustvesta.plugins.report.SubtaskRecord;
+import com.trustvesta.plugins.report.WorklogFilter;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SearchPageParserUnitTest
+{
+    private static final String PAGE = "{\"expand\":\"names\",\"startAt\":50,\"maxResults\":50,\"total\":102,\"issues\":["
+            + "{\"id\":\"1\",\"key\":\"SUB-1\",\"fields\":{"
+            + "\"parent\":{\"id\":\"9\",\"key\":\"STORY-1\",\"fields\":{\"summary\":\"x\"}},"
+            + "\"fixVersions\":[{\"name\":\"1.0\"},{\"name\":\"1.1\"}],"
+            + "\"worklog\":{\"startAt\":0,\"maxResults\":20,\"total\":2,\"worklogs\":["
+            + "{\"author\":{\"name\":\"a\"},\"started\":\"2018-03-01T09:00:00.000+0000\",\"timeSpentSeconds\":3600},"
+            + "{\"started\":\"2018-03-02T09:00:00.000+0000\",\"timeSpentSeconds\":1800}]}}},"
+            + "{\"key\":\"SUB-2\",\"fields\":{\"parent\":null,\"fixVersions\":[]}}"
+            + "]}";
+
+    @Test
+    public void testParsePage() throws Exception
+    {
+        final List<SubtaskRecord> records = new ArrayList<SubtaskRecord>();
+        SearchPageParser.PageInfo page = SearchPageParser.parse(new StringReader(PAGE), new SearchPageParser.IssueHandler() {
+            public void issue(SubtaskRecord record) {
+                records.add(record);
+            }
+        });
+
+        assertEquals(50, page.getStartAt());
+        assertEquals(102, page.getTotal());
+        assertEquals(2, page.getIssueCount());
+
+        SubtaskRecord first = records.get(0);
+        assertEquals("SUB-1", first.getKey());
+        assertEquals("STORY-1", first.getParentKey());
+        assertEquals("1.0", first.getFixVersion());
+        assertEquals(2, first.getWorklogTotal());
+        assertEquals(2, first.getWorklogCount());
+        assertEquals(WorklogFilter.epochDay("2018-03-02"), first.getWorklogDay(1));
+        assertEquals(1800, first.getWorklogSeconds(1));
+        assertTrue(first.isComplete());
+        assertFalse(first.isWorklogTruncated());
+
+        SubtaskRecord second = records.get(1);
+        assertNull(second.getParentKey());
+        assertFalse(second.isComplete());
+    }
+}
@@ -0,0 +1,59 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.Test;
+
+import com.trustvesta.plugins.report.SearchPageParser;
+import com.trustvesta.plugins.report.SubtaskRecord;
+import com.trustvesta.plugins.report.WorklogFilter;
+
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class WorklogFilterUnitTest
+{
+    @Test
+    public void testEpochDayMatchesLocalDate()
+    {
+        LocalDate date = LocalDate.of(1899, 12, 25);
+        while (date.getYear() < 2101) {
+            assertEquals(date.toString(), date.toEpochDay(), WorklogFilter.epochDay(date.toString() + "T09:30:00.000+0000"));
+            date = date.plusDays(17);
+        }
+        assertEquals(LocalDate.of(2020, 2, 29).toEpochDay(), WorklogFilter.epochDay("2020-02-29"));
+    }
+
+    @Test
+    public void testInvalidDates()
+    {
+        assertEquals(WorklogFilter.INVALID_DAY, WorklogFilter.epochDay(null));
+        assertEquals(WorklogFilter.INVALID_DAY, WorklogFilter.epochDay("2018-3-01"));
+        assertEquals(WorklogFilter.INVALID_DAY, WorklogFilter.epochDay("2019-02-29"));
+        assertEquals(WorklogFilter.INVALID_DAY, WorklogFilter.epochDay("2018-13-01"));
+        assertEquals(WorklogFilter.INVALID_DAY, WorklogFilter.epochDay("yesterday!"));
+    }
+
+    @Test
+    public void testRangeIncludesStartAndEndDay() throws Exception
+    {
+        String page = "{\"startAt\":0,\"maxResults\":50,\"total\":1,\"issues\":[{\"key\":\"SUB-1\",\"fields\":{"
+                + "\"parent\":{\"key\":\"STORY-1\"},\"worklog\":{\"total\":4,\"worklogs\":["
+                + "{\"started\":\"2018-02-28T23:00:00.000+0000\",\"timeSpentSeconds\":1},"
+                + "{\"started\":\"2018-03-01T09:00:00.000+0000\",\"timeSpentSeconds\":10},"
+                + "{\"started\":\"2018-03-31T17:00:00.000+0000\",\"timeSpentSeconds\":100},"
+                + "{\"started\":\"2018-04-01T09:00:00.000+0000\",\"timeSpentSeconds\":1000}]}}}]}";
+        final List<SubtaskRecord> records = new ArrayList<SubtaskRecord>();
+        SearchPageParser.parse(new StringReader(page), new SearchPageParser.IssueHandler() {
+            public void issue(SubtaskRecord record) {
+                records.add(record);
+            }
+        });
+
+        long seconds = WorklogFilter.sumInRange(records.get(0),
+                WorklogFilter.epochDay("2018-03-01"), WorklogFilter.epochDay("2018-03-31"));
+        assertEquals(110, seconds);
+    }
+}
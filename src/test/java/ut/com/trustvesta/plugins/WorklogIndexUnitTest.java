@@ -0,0 +1,182 @@
+package ut.com.trustvesta.plugins;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.confluence.user.AuthenticatedUserThreadLocal;
+import com.atlassian.confluence.user.ConfluenceUser;
+import com.atlassian.confluence.user.UserAccessor;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.trustvesta.plugins.api.JiraClient;
+import com.trustvesta.plugins.api.JiraClientException;
+import com.trustvesta.plugins.api.JiraSettings;
+import com.trustvesta.plugins.impl.WorklogIndexImpl;
+import com.trustvesta.plugins.report.WorklogFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WorklogIndexUnitTest
+{
+    private final Map<String, Object> stored = new HashMap<String, Object>();
+    private final List<WorklogIndexImpl> indexes = new ArrayList<WorklogIndexImpl>();
+    private JiraClient jiraClient;
+    private JiraSettings settings;
+    private PluginSettingsFactory settingsFactory;
+    private UserAccessor userAccessor;
+    private ConfluenceUser syncUser;
+
+    private static JsonObject object(String json)
+    {
+        return (JsonObject) new JsonParser().parse(json);
+    }
+
+    private static JsonArray array(String json)
+    {
+        return (JsonArray) new JsonParser().parse(json);
+    }
+
+    @Before
+    public void setUp()
+    {
+        jiraClient = mock(JiraClient.class);
+        settingsFactory = mock(PluginSettingsFactory.class);
+        when(settingsFactory.createGlobalSettings()).thenReturn(new PluginSettings() {
+            public Object get(String key) { return stored.get(key); }
+            public Object put(String key, Object value) { return stored.put(key, value); }
+            public Object remove(String key) { return stored.remove(key); }
+        });
+        settings = mock(JiraSettings.class);
+        when(settings.getWorklogSyncUser()).thenReturn("svc-jira");
+        when(settings.getWorklogSyncMinutes()).thenReturn(60);
+        syncUser = mock(ConfluenceUser.class);
+        userAccessor = mock(UserAccessor.class);
+        when(userAccessor.getUserByName("svc-jira")).thenReturn(syncUser);
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (WorklogIndexImpl index : indexes) {
+            index.destroy();
+        }
+    }
+
+    private WorklogIndexImpl newIndex()
+    {
+        WorklogIndexImpl index = new WorklogIndexImpl(jiraClient, settings, settingsFactory, userAccessor);
+        indexes.add(index);
+        return index;
+    }
+
+    @Test
+    public void testSyncAppliesUpdatesAndDeletesFromTheHighWaterMark() throws Exception
+    {
+        when(jiraClient.getUpdatedWorklogs(0)).thenReturn(object(
+                "{\"values\":[{\"worklogId\":1},{\"worklogId\":2},{\"worklogId\":3}],\"until\":1000,\"lastPage\":true}"));
+        when(jiraClient.listWorklogs(Arrays.asList(1L, 2L, 3L))).thenReturn(array("["
+                + "{\"id\":\"1\",\"issueId\":\"10\",\"started\":\"2018-03-01T09:00:00.000+0000\",\"timeSpentSeconds\":60,\"author\":{\"key\":\"ann\"}},"
+                + "{\"id\":\"2\",\"issueId\":\"10\",\"started\":\"2018-03-31T09:00:00.000+0000\",\"timeSpentSeconds\":30},"
+                + "{\"id\":\"3\",\"issueId\":\"11\",\"started\":\"2018-04-01T09:00:00.000+0000\",\"timeSpentSeconds\":5}]"));
+        when(jiraClient.getDeletedWorklogs(0)).thenReturn(object("{\"values\":[],\"until\":900,\"lastPage\":true}"));
+
+        WorklogIndexImpl index = newIndex();
+        assertTrue(index.sync());
+        assertEquals(3, index.size());
+        assertEquals(900, index.getSince());
+
+        Map<Long, Long> march = index.secondsByIssue(WorklogFilter.epochDay("2018-03-01"), WorklogFilter.epochDay("2018-03-31"));
+        assertEquals(1, march.size());
+        assertEquals(Long.valueOf(90), march.get(10L));
+
+        // Worklog 2 moves into April and worklog 3 is deleted.
+        when(jiraClient.getUpdatedWorklogs(900)).thenReturn(object(
+                "{\"values\":[{\"worklogId\":2}],\"until\":2000,\"lastPage\":true}"));
+        when(jiraClient.listWorklogs(Arrays.asList(2L))).thenReturn(array(
+                "[{\"id\":\"2\",\"issueId\":\"10\",\"started\":\"2018-04-02T09:00:00.000+0000\",\"timeSpentSeconds\":30}]"));
+        when(jiraClient.getDeletedWorklogs(900)).thenReturn(object(
+                "{\"values\":[{\"worklogId\":3}],\"until\":2000,\"lastPage\":true}"));
+        assertTrue(index.sync());
+
+        // A fresh instance reads the same state back from plugin settings.
+        WorklogIndexImpl reloaded = newIndex();
+        assertEquals(2, reloaded.size());
+        assertEquals(2000, reloaded.getSince());
+        Map<Long, Long> april = reloaded.secondsByIssue(WorklogFilter.epochDay("2018-04-01"), WorklogFilter.epochDay("2018-04-30"));
+        assertEquals(1, april.size());
+        assertEquals(Long.valueOf(30), april.get(10L));
+        assertEquals(Long.valueOf(60),
+                reloaded.secondsByIssue(WorklogFilter.epochDay("2018-03-01"), WorklogFilter.epochDay("2018-03-31")).get(10L));
+    }
+
+    @Test
+    public void testSyncRunsAsTheSyncUser() throws Exception
+    {
+        final List<ConfluenceUser> seen = new ArrayList<ConfluenceUser>();
+        when(jiraClient.getUpdatedWorklogs(anyLong())).thenAnswer(new Answer<JsonObject>() {
+            public JsonObject answer(InvocationOnMock invocation) {
+                seen.add(AuthenticatedUserThreadLocal.get());
+                return object("{\"values\":[],\"until\":100,\"lastPage\":true}");
+            }
+        });
+        when(jiraClient.getDeletedWorklogs(anyLong())).thenReturn(object("{\"values\":[],\"until\":100,\"lastPage\":true}"));
+
+        WorklogIndexImpl index = newIndex();
+        ConfluenceUser caller = mock(ConfluenceUser.class);
+        AuthenticatedUserThreadLocal.set(caller);
+        try {
+            assertTrue(index.sync());
+            assertSame(caller, AuthenticatedUserThreadLocal.get());
+        } finally {
+            AuthenticatedUserThreadLocal.reset();
+        }
+        assertEquals(1, seen.size());
+        assertSame(syncUser, seen.get(0));
+        assertTrue(index.isCurrent());
+
+        // With no sync user the index is not synced at all.
+        when(settings.getWorklogSyncUser()).thenReturn("");
+        assertFalse(index.sync());
+        assertFalse(index.isCurrent());
+        assertEquals(1, seen.size());
+        assertNull(AuthenticatedUserThreadLocal.get());
+    }
+
+    @Test
+    public void testFailedSyncKeepsWebhookDeltas() throws Exception
+    {
+        WorklogIndexImpl index = newIndex();
+        index.applyWorklog(object(
+                "{\"id\":\"7\",\"issueId\":\"20\",\"started\":\"2018-05-02T09:00:00.000+0000\",\"timeSpentSeconds\":45}"));
+        when(jiraClient.getUpdatedWorklogs(0)).thenThrow(new JiraClientException("Bad Gateway", 502));
+
+        assertFalse(index.sync());
+        assertFalse(index.isCurrent());
+        assertEquals(1, index.size());
+        assertEquals(0, index.getSince());
+        assertEquals(Long.valueOf(45),
+                index.secondsByIssue(WorklogFilter.epochDay("2018-05-01"), WorklogFilter.epochDay("2018-05-31")).get(20L));
+        verify(jiraClient, never()).getDeletedWorklogs(anyLong());
+    }
+}